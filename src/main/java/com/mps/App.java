@@ -1,18 +1,26 @@
 package com.mps;
 
 import java.awt.Desktop;
+import java.awt.GraphicsEnvironment;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.InetAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.security.cert.X509Certificate;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,10 +28,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 import javax.swing.UIManager;
 
 import org.eclipse.jetty.websocket.api.Session;
@@ -41,9 +47,13 @@ import io.javalin.Javalin;
 
 public class App {
 
-    private static final int PORT = 9595;
+    // כמה מופעים על אותו מחשב (תור משותף) צריכים פורטים שונים
+    private static final int PORT = Integer.getInteger("nfmp3.port", 9595);
     private static final String APP_NAME = "NFmp3Downloader";
     private static final String CURRENT_VERSION = "3.0.1";
+    private static final int JOB_LOG_RETENTION_DAYS = 7;
+    private static final Duration UPDATE_CHECK_TTL = Duration.ofHours(1);
+    private static final Duration PLAYLIST_CACHE_TTL = Duration.ofMinutes(2);
     private static final String GITHUB_API_URL = "https://api.github.com/repos/mps435/NFmp3Downloader/releases/latest";
     private static Logger logger;
     private static final ConcurrentHashMap<String, Session> activeSessions = new ConcurrentHashMap<>();
@@ -51,6 +61,9 @@ public class App {
     private static ScheduledFuture<?> shutdownTask = null;
     private static final ObjectMapper objectMapper = new ObjectMapper();
     public static volatile boolean isYtDlpUpdating = false;
+    private static volatile long browserLaunchNanos = 0;
+    // שירות ללא דפדפן: לא פותח חלון ולא נסגר כשאין לשוניות מחוברות
+    private static boolean daemonMode = Boolean.getBoolean("nfmp3.daemon");
 
     private static final String GAS_PLAYLIST_API_URL = "https://script.google.com/macros/s/AKfycbw01J9WK-edp-NsvVHMEas6OMYEQhPEwwV_i2FVJaGWqTyacco3hGlaTp0vp6WmHZu1/exec";
 
@@ -76,44 +89,15 @@ public class App {
 
             logger.info("Fetching playlist details from GAS for ID: {}", playlistId);
             try {
-
-                TrustManager[] trustAllCerts = new TrustManager[]{new X509TrustManager() {
-                    public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                        return null;
-                    }
-
-                    public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {
-                    }
-
-                    public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {
-                    }
-                }};
-                SSLContext sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-
-                java.net.http.HttpClient client = java.net.http.HttpClient.newBuilder()
-                        .sslContext(sslContext)
-                        .followRedirects(java.net.http.HttpClient.Redirect.ALWAYS)
-                        .build();
-
-                String targetUrl = GAS_PLAYLIST_API_URL + "?id=" + playlistId;
-                java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder().uri(java.net.URI.create(targetUrl)).GET().build();
-                java.net.http.HttpResponse<String> response = client.send(request, java.net.http.HttpResponse.BodyHandlers.ofString());
-
-                if (response.statusCode() == 200) {
-
-                    String rawJson = response.body();
-                    JsonNode gasResponse = objectMapper.readTree(rawJson);
-
-                    com.fasterxml.jackson.databind.node.ObjectNode finalResponse = objectMapper.createObjectNode();
-                    finalResponse.put("type", "playlist_details");
-                    finalResponse.set("data", gasResponse);
-                    if (session != null && session.isOpen()) {
-                        session.getRemote().sendString(objectMapper.writeValueAsString(finalResponse));
-                    }
-                } else {
-                    sendMessage(session, DownloadMessage.error("Failed to fetch playlist (Server Error)"));
-                }
+                JsonNode gasResponse = fetchPlaylistDetails(playlistId, PLAYLIST_CACHE_TTL);
+
+                com.fasterxml.jackson.databind.node.ObjectNode finalResponse = objectMapper.createObjectNode();
+                finalResponse.put("type", "playlist_details");
+                finalResponse.set("data", gasResponse);
+                sendRaw(session, objectMapper.writeValueAsString(finalResponse));
+            } catch (SharedHttp.StatusException e) {
+                logger.error("Playlist service returned an error", e);
+                sendMessage(session, DownloadMessage.error("Failed to fetch playlist (Server Error)"));
             } catch (Exception e) {
                 logger.error("Critical error fetching playlist details", e);
                 sendMessage(session, DownloadMessage.error("Critical error fetching playlist details"));
@@ -121,16 +105,39 @@ public class App {
         }).start();
     }
 
+    public static boolean isDaemonMode() {
+        return daemonMode;
+    }
+
+    public static JsonNode fetchPlaylistDetails(String playlistId, Duration maxAge)
+            throws IOException, InterruptedException {
+        String targetUrl = GAS_PLAYLIST_API_URL + "?id=" + playlistId;
+        return objectMapper.readTree(SharedHttp.get(targetUrl, maxAge));
+    }
+
     public static void main(String[] args) {
+        for (String arg : args) {
+            if ("--daemon".equalsIgnoreCase(arg)) {
+                daemonMode = true;
+            }
+        }
+        if (daemonMode && System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
         setupLogging();
         setupBinaries();
         runUpdaterInBackground();
 
-        System.setProperty("java.awt.headless", "false");
-        try {
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception e) {
-            logger.warn("Could not set system look and feel.", e);
+        // -Djava.awt.headless=true מאפשר הרצה בלי תצוגה (שרת / LoadHarness)
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "false");
+        }
+        if (!GraphicsEnvironment.isHeadless()) {
+            try {
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (Exception e) {
+                logger.warn("Could not set system look and feel.", e);
+            }
         }
 
         boolean launchedByProtocol = false;
@@ -143,19 +150,54 @@ public class App {
 
         logger.info("{} starting...", APP_NAME);
 
+        // במצב daemon השרת מאזין רק ל-localhost אלא אם nfmp3.host נקבע במפורש (למשל 0.0.0.0 מאחורי טוקן)
+        String host = System.getProperty("nfmp3.host", daemonMode ? "127.0.0.1" : "");
+        if (daemonMode && !JobApi.hasToken() && !isLoopback(host)) {
+            logger.error("Refusing to listen on '{}' without an API token. Set -Dnfmp3.api.token=<secret> or bind to 127.0.0.1.",
+                    host.isEmpty() ? "all interfaces" : host);
+            System.exit(1);
+            return;
+        }
         Javalin app;
         try {
             app = Javalin.create(config -> {
                 config.jetty.wsFactoryConfig(factory -> {
                     factory.setIdleTimeout(Duration.ofHours(1));
                 });
-            }).start(PORT);
+            });
+            if (host.isEmpty()) {
+                app.start(PORT);
+            } else {
+                app.start(host, PORT);
+            }
         } catch (Exception e) {
+            if (daemonMode) {
+                logger.error("Server failed to start on port {}", PORT, e);
+                System.exit(1);
+                return;
+            }
             logger.warn("Server failed to start (Port {} may be in use). Assuming another instance is already running. Exiting gracefully.", PORT);
             System.exit(0);
             return;
         }
 
+        StaticAssets.register(app, PathUtils.getApplicationDirectory().resolve("web"));
+        // ממשק ה-REST קיים רק במצב daemon; בשולחן העבודה הדפדפן מדבר עם השרת רק דרך /ws
+        if (daemonMode) {
+            BulkIngest.register(app);
+            JobApi.register(app);
+            SharedQueue.start(app);
+        }
+
+        app.get("/metrics", ctx -> ctx.contentType("text/plain; version=0.0.4; charset=utf-8").result(Metrics.render()));
+        app.get("/timelines", ctx -> ctx.contentType("application/json")
+                .result(objectMapper.writeValueAsString(JobTimeline.recent(timelineLimit(ctx.queryParam("limit"))))));
+        app.get("/timelines/trace", ctx -> {
+            ctx.header("Content-Disposition", "attachment; filename=\"nfmp3-trace.json\"");
+            ctx.contentType("application/json")
+                    .result(objectMapper.writeValueAsString(JobTimeline.traceEvents(timelineLimit(ctx.queryParam("limit")))));
+        });
+
         app.get("/local-image", ctx -> {
             try {
                 String pathParam = ctx.queryParam("path");
@@ -163,26 +205,26 @@ public class App {
                 if (pathParam != null && !pathParam.isEmpty()) {
                     Path path = Paths.get(pathParam);
 
-                    logger.info("Request for image: {}", path.toString());
-
                     if (Files.exists(path) && Files.isReadable(path)) {
-                        String mimeType = Files.probeContentType(path);
-                        if (mimeType == null) {
-                            String lowerPath = path.toString().toLowerCase();
-                            if (lowerPath.endsWith(".png")) {
-                                mimeType = "image/png";
-                            } else if (lowerPath.endsWith(".gif")) {
-                                mimeType = "image/gif";
-                            } else if (lowerPath.endsWith(".webp")) {
-                                mimeType = "image/webp";
-                            } else {
-                                mimeType = "image/jpeg";
-                            }
+                        int maxWidth = ImageCache.clampDimension(ctx.queryParam("w"));
+                        int maxHeight = ImageCache.clampDimension(ctx.queryParam("h"));
+                        ImageCache.Variant variant = ImageCache.getVariant(path, maxWidth, maxHeight);
+
+                        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME
+                                .format(Instant.ofEpochMilli(variant.getLastModified()).atZone(ZoneOffset.UTC));
+                        ctx.header("ETag", variant.getETag());
+                        ctx.header("Last-Modified", lastModified);
+                        ctx.header("Cache-Control", "no-cache");
+
+                        if (isNotModified(ctx.header("If-None-Match"), ctx.header("If-Modified-Since"), variant)) {
+                            ctx.status(304);
+                            return;
                         }
 
-                        ctx.contentType(mimeType);
-                        ctx.header("Cache-Control", "no-store, no-cache, must-revalidate");
-                        ctx.result(Files.newInputStream(path));
+                        InputStream body = variant.getData() != null
+                                ? new ByteArrayInputStream(variant.getData())
+                                : Files.newInputStream(variant.getFile());
+                        ctx.writeSeekableStream(body, variant.getMimeType(), variant.getLength());
                     } else {
                         logger.error("File not found or not readable: {}", path);
                         ctx.status(404).result("File not found");
@@ -200,8 +242,13 @@ public class App {
 
         app.ws("/ws", ws -> {
             ws.onConnect(ctx -> {
+                if (!JobApi.admit(ctx)) {
+                    return;
+                }
                 logger.info("WebSocket client connected: {}", ctx.getSessionId());
                 activeSessions.put(ctx.getSessionId(), ctx.session);
+                Session session = ctx.session;
+                JobRegistry.subscribe(ctx.getSessionId(), json -> sendRaw(session, json));
                 if (shutdownTask != null && !shutdownTask.isDone()) {
                     shutdownTask.cancel(false);
                     logger.info("Shutdown aborted: A client reconnected (likely page refresh).");
@@ -213,8 +260,9 @@ public class App {
             ws.onClose(ctx -> {
                 logger.info("WebSocket client disconnected: {}", ctx.getSessionId());
                 activeSessions.remove(ctx.getSessionId());
+                JobRegistry.unsubscribe(ctx.getSessionId());
 
-                if (activeSessions.isEmpty()) {
+                if (activeSessions.isEmpty() && !daemonMode) {
                     logger.info("All clients disconnected. Waiting 3 seconds before shutdown to allow for page refresh...");
 
                     shutdownTask = shutdownScheduler.schedule(() -> {
@@ -235,6 +283,7 @@ public class App {
                     String destinationPath = jsonNode.has("destinationPath") ? jsonNode.get("destinationPath").asText(null) : null;
                     boolean isNetfree = jsonNode.has("isNetfreeUser") && jsonNode.get("isNetfreeUser").asBoolean(false);
                     String downloadId = jsonNode.has("downloadId") ? jsonNode.get("downloadId").asText(null) : null;
+                    RunWindow runWindow = RunWindow.parse(jsonNode.has("runWindow") ? jsonNode.get("runWindow").asText(null) : null);
 
                     if ("select_destination".equals(type)) {
                         String dialogTitle = jsonNode.has("title") ? jsonNode.get("title").asText("Select download folder") : "Select download folder";
@@ -258,19 +307,26 @@ public class App {
 
                         if (urls.size() == 1) {
                             String singleUrl = urls.get(0);
-                            DownloadService.startDownload(singleUrl, false, formatId, destinationPath, isNetfree, ctx.session);
+                            DownloadService.startDownload(singleUrl, false, formatId, destinationPath, isNetfree);
                         } else {
-                            DownloadService.startDownloadQueue(urls, formatId, destinationPath, isNetfree, ctx.session, playlistTitle, language);
+                            DownloadService.startDownloadQueue(urls, formatId, destinationPath, isNetfree, playlistTitle, language,
+                                    null, runWindow);
                         }
 
                     } else if ("get_playlist_details".equals(type)) {
                         String youtubeUrl = jsonNode.get("url").asText();
                         getPlaylistDetailsFromGas(youtubeUrl, ctx.session);
 
+                    } else if ("sync_playlist".equals(type)) {
+                        String playlistUrl = jsonNode.get("url").asText();
+                        String formatId = jsonNode.has("formatId") ? jsonNode.get("formatId").asText(null) : null;
+                        String language = jsonNode.has("language") ? jsonNode.get("language").asText("en") : "en";
+                        PlaylistSync.start(playlistUrl, formatId, destinationPath, isNetfree, language);
+
                     } else if ("download".equals(type) || "download_video".equals(type)) {
                         String youtubeUrl = jsonNode.get("url").asText();
                         String formatId = jsonNode.has("formatId") ? jsonNode.get("formatId").asText(null) : null;
-                        DownloadService.startDownload(youtubeUrl, false, formatId, destinationPath, isNetfree, ctx.session);
+                        DownloadService.startDownload(youtubeUrl, false, formatId, destinationPath, isNetfree);
 
                     } else if ("download_advanced".equals(type) || "download_video_advanced".equals(type)) {
                         String youtubeUrl = jsonNode.get("url").asText();
@@ -278,7 +334,8 @@ public class App {
                         boolean isVideo = "download_video_advanced".equals(type);
                         String playlistTitle = jsonNode.has("playlistTitle") ? jsonNode.get("playlistTitle").asText(null) : null;
 
-                        DownloadService.startAdvancedDownload(downloadId, youtubeUrl, formatId, destinationPath, isNetfree, ctx.session, isVideo, playlistTitle);
+                        DownloadService.startAdvancedDownload(downloadId, youtubeUrl, formatId, destinationPath, isNetfree, isVideo, playlistTitle,
+                                runWindow);
 
                     } else if ("select_background_image".equals(type)) {
                         new Thread(() -> {
@@ -292,6 +349,16 @@ public class App {
                             }
                         }).start();
 
+                    } else if ("get_timelines".equals(type)) {
+                        int limit = timelineLimit(jsonNode.has("limit") ? jsonNode.get("limit").asText() : null);
+                        com.fasterxml.jackson.databind.node.ObjectNode response = objectMapper.createObjectNode();
+                        response.put("type", "timelines");
+                        response.set("data", objectMapper.valueToTree(JobTimeline.recent(limit)));
+                        sendRaw(ctx.session, objectMapper.writeValueAsString(response));
+
+                    } else if ("ui_timing".equals(type)) {
+                        logUiTiming(jsonNode);
+
                     } else if ("open_log".equals(type)) {
                         openLogFile();
 
@@ -352,7 +419,9 @@ public class App {
             });
         });
 
-        if (!launchedByProtocol) {
+        if (daemonMode) {
+            logger.info("Running as a daemon. Job API available at http://localhost:{}/api/jobs", PORT);
+        } else if (!launchedByProtocol) {
             logger.info("Application started manually. Launching browser.");
             launchBrowser();
         } else {
@@ -360,14 +429,62 @@ public class App {
         }
     }
 
+    // מחרוזת ריקה = כל הממשקים
+    private static boolean isLoopback(String host) {
+        if (host.isEmpty()) {
+            return false;
+        }
+        try {
+            return InetAddress.getByName(host).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static int timelineLimit(String value) {
+        try {
+            return value == null ? 50 : Math.max(1, Math.min(1000, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return 50;
+        }
+    }
+
+    private static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, ImageCache.Variant variant) {
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                String trimmed = tag.trim();
+                if (trimmed.equals("*") || trimmed.equals(variant.getETag()) || trimmed.equals("W/" + variant.getETag())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return variant.getLastModified() / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
     private static void runUpdaterInBackground() {
-        isYtDlpUpdating = true;
+        // בהפצה הפרוסה גרסה חדשה נפרסת לצד הקיימת ומופעלת רק בסוף, כך שהורדות לא צריכות לחכות לעדכון
+        boolean unpacked = YtDlpBinary.isUnpacked();
+        isYtDlpUpdating = !unpacked;
 
         Thread updaterThread = new Thread(() -> {
             try {
                 logger.info("Starting background check for yt-dlp updates...");
+                if (unpacked) {
+                    YtDlpBinary.update(() -> {
+                    });
+                    return;
+                }
                 List<String> command = new ArrayList<>();
-                command.add(PathUtils.getBinDirectory().resolve("yt-dlp.exe").toString());
+                command.add(PathUtils.getYtDlpExecutable().toString());
                 command.add("-U");
                 command.add("--no-check-certificates");
 
@@ -430,10 +547,22 @@ public class App {
     }
 
     private static void sendMessage(Session session, DownloadMessage message) {
+        try {
+            sendRaw(session, objectMapper.writeValueAsString(message));
+        } catch (Exception e) {
+            logger.warn("Failed to send WebSocket message", e);
+        }
+    }
+
+    private static void sendRaw(Session session, String json) {
         try {
             if (session != null && session.isOpen()) {
-                String jsonMessage = objectMapper.writeValueAsString(message);
-                session.getRemote().sendString(jsonMessage);
+                // Jetty לא מרשה שתי שליחות חוסמות במקביל על אותו session
+                synchronized (session) {
+                    long sendStart = System.nanoTime();
+                    session.getRemote().sendString(json);
+                    Metrics.wsSendLatencyMs.observe(Metrics.millisSince(sendStart));
+                }
             }
         } catch (Exception e) {
             logger.warn("Failed to send WebSocket message", e);
@@ -460,6 +589,7 @@ public class App {
                     }
                 }
             }
+            YtDlpBinary.install();
         } catch (IOException e) {
             System.err.println("CRITICAL: Failed to set up binary files. " + e.getMessage());
             e.printStackTrace();
@@ -476,7 +606,11 @@ public class App {
             Path logDir = appDataPath.resolve(APP_NAME);
             Files.createDirectories(logDir);
             Path logFile = logDir.resolve("app.log");
+            Path jobLogDir = logDir.resolve("logs");
+            Files.createDirectories(jobLogDir);
+            pruneJobLogs(jobLogDir);
             System.setProperty("appdata.log.file", logFile.toString());
+            System.setProperty("appdata.log.jobs", jobLogDir.toString());
             LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
             context.reset();
             JoranConfigurator configurator = new JoranConfigurator();
@@ -497,15 +631,30 @@ public class App {
         }
     }
 
+    private static void pruneJobLogs(Path jobLogDir) {
+        long cutoff = System.currentTimeMillis() - Duration.ofDays(JOB_LOG_RETENTION_DAYS).toMillis();
+        try (Stream<Path> stream = Files.list(jobLogDir)) {
+            stream.filter(p -> p.toFile().lastModified() < cutoff).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Failed to prune old job logs: " + e.getMessage());
+        }
+    }
+
     private static void launchBrowser() {
         try {
-            Path indexPath = PathUtils.getApplicationDirectory().resolve("web").resolve("index.html");
-            if (!Files.exists(indexPath)) {
-                logger.error("Could not find index.html at: {}. Please reinstall the application.", indexPath);
-                return;
+            URI indexUri;
+            if (StaticAssets.isAvailable()) {
+                indexUri = URI.create("http://localhost:" + PORT + "/");
+            } else {
+                Path indexPath = PathUtils.getApplicationDirectory().resolve("web").resolve("index.html");
+                if (!Files.exists(indexPath)) {
+                    logger.error("Could not find index.html at: {}. Please reinstall the application.", indexPath);
+                    return;
+                }
+                indexUri = indexPath.toUri();
             }
-            URI indexUri = indexPath.toUri();
             logger.info("Attempting to open browser at: {}", indexUri);
+            browserLaunchNanos = System.nanoTime();
             if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
                 Desktop.getDesktop().browse(indexUri);
                 logger.info("Successfully launched default browser.");
@@ -517,6 +666,20 @@ public class App {
         }
     }
 
+    private static void logUiTiming(JsonNode timing) {
+        long sinceLaunchMs = browserLaunchNanos == 0 ? -1 : (System.nanoTime() - browserLaunchNanos) / 1_000_000;
+        browserLaunchNanos = 0;
+        logger.info("UI load timing: origin={}, ttfb={} ms, domContentLoaded={} ms, load={} ms, transferred={} bytes, "
+                + "wsConnected={} ms, sinceBrowserLaunch={} ms",
+                timing.path("origin").asText(""),
+                timing.path("ttfb").asLong(-1),
+                timing.path("domContentLoaded").asLong(-1),
+                timing.path("load").asLong(-1),
+                timing.path("transferSize").asLong(-1),
+                timing.path("wsConnected").asLong(-1),
+                sinceLaunchMs);
+    }
+
     private static void openLogFile() {
         try {
             Path logFilePath = Paths.get(System.getProperty("appdata.log.file"));
@@ -539,68 +702,40 @@ public class App {
         Thread updateCheckerThread = new Thread(() -> {
             try {
                 logger.info("Checking for application updates from GitHub...");
-                TrustManager[] trustAllCerts = new TrustManager[]{
-                    new X509TrustManager() {
-                        public X509Certificate[] getAcceptedIssuers() {
-                            return null;
-                        }
-
-                        public void checkClientTrusted(X509Certificate[] certs, String authType) {
-                        }
-
-                        public void checkServerTrusted(X509Certificate[] certs, String authType) {
-                        }
-                    }
-                };
-                SSLContext sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-
-                java.net.http.HttpClient client = java.net.http.HttpClient.newBuilder()
-                        .sslContext(sslContext)
-                        .followRedirects(java.net.http.HttpClient.Redirect.NORMAL)
-                        .build();
-                java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder()
-                        .uri(java.net.URI.create(GITHUB_API_URL))
-                        .header("Accept", "application/vnd.github.v3+json")
-                        .build();
-
-                java.net.http.HttpResponse<String> response = client.send(request,
-                        java.net.http.HttpResponse.BodyHandlers.ofString());
-
-                if (response.statusCode() == 200) {
-                    JsonNode releaseInfo = objectMapper.readTree(response.body());
-                    String latestVersionTag = releaseInfo.get("tag_name").asText();
-                    String releaseNotes = releaseInfo.get("body").asText();
-
-                    String latestVersion = latestVersionTag.startsWith("v") ? latestVersionTag.substring(1)
-                            : latestVersionTag;
-
-                    logger.info("Current version: {}, Latest version on GitHub: {}", CURRENT_VERSION, latestVersion);
-
-                    if (isNewerVersion(latestVersion, CURRENT_VERSION)) {
-                        String directDownloadUrl = "";
-                        JsonNode assets = releaseInfo.get("assets");
-                        if (assets != null && assets.isArray()) {
-                            for (JsonNode asset : assets) {
-                                String name = asset.get("name").asText();
-                                if (name.toLowerCase().endsWith(".exe")) {
-                                    directDownloadUrl = asset.get("browser_download_url").asText();
-                                    break;
-                                }
-                            }
-                            if (directDownloadUrl.isEmpty()) {
-                                directDownloadUrl = releaseInfo.get("html_url").asText();
+                // התשובה נשמרת במטמון, כך שרענון הדף לא שולח בקשה חדשה ל-GitHub בכל פעם
+                String body = SharedHttp.get(GITHUB_API_URL, UPDATE_CHECK_TTL,
+                        "Accept", "application/vnd.github.v3+json");
+                JsonNode releaseInfo = objectMapper.readTree(body);
+                String latestVersionTag = releaseInfo.get("tag_name").asText();
+                String releaseNotes = releaseInfo.get("body").asText();
+
+                String latestVersion = latestVersionTag.startsWith("v") ? latestVersionTag.substring(1)
+                        : latestVersionTag;
+
+                logger.info("Current version: {}, Latest version on GitHub: {}", CURRENT_VERSION, latestVersion);
+
+                if (isNewerVersion(latestVersion, CURRENT_VERSION)) {
+                    String directDownloadUrl = "";
+                    JsonNode assets = releaseInfo.get("assets");
+                    if (assets != null && assets.isArray()) {
+                        for (JsonNode asset : assets) {
+                            String name = asset.get("name").asText();
+                            if (name.toLowerCase().endsWith(".exe")) {
+                                directDownloadUrl = asset.get("browser_download_url").asText();
+                                break;
                             }
-                            sendMessage(session,
-                                    DownloadMessage.updateAvailable(latestVersionTag, releaseNotes, directDownloadUrl));
                         }
-                    } else {
-                        logger.info("Application is up to date.");
+                        if (directDownloadUrl.isEmpty()) {
+                            directDownloadUrl = releaseInfo.get("html_url").asText();
+                        }
+                        sendMessage(session,
+                                DownloadMessage.updateAvailable(latestVersionTag, releaseNotes, directDownloadUrl));
                     }
                 } else {
-                    logger.warn("Failed to check for updates. GitHub API returned status code: {}",
-                            response.statusCode());
+                    logger.info("Application is up to date.");
                 }
+            } catch (SharedHttp.StatusException e) {
+                logger.warn("Failed to check for updates. GitHub API returned status code: {}", e.getStatusCode());
             } catch (Exception e) {
                 logger.error("Error while checking for updates.", e);
             }
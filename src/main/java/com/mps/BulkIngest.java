@@ -0,0 +1,191 @@
+package com.mps;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+// קליטת רשימות קישורים גדולות בזרם: שורה לכל קישור, או NDJSON ({"url": ...} או מחרוזת בכל שורה).
+// הגוף נכתב לקובץ תוך כדי קריאה (בלי לבנות את הרשימה בזיכרון) והתור קורא ממנו; הבקשה מסתיימת מיד
+// עם 202 ולא נשארת פתוחה לאורך כל התור. גוף שנקטע באמצע נדחה כולו
+public class BulkIngest {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkIngest.class);
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static void register(Javalin app) {
+        removeStaleSpools();
+        app.post("/api/ingest", BulkIngest::handle);
+    }
+
+    private static void handle(Context ctx) throws Exception {
+        String destinationPath = ctx.queryParam("destinationPath");
+        if (destinationPath == null || destinationPath.isEmpty()) {
+            ctx.status(400).result("Missing destinationPath parameter");
+            return;
+        }
+        String formatId = ctx.queryParam("formatId");
+        boolean isNetfree = Boolean.parseBoolean(ctx.queryParam("isNetfree"));
+        String playlistTitle = ctx.queryParam("playlistTitle");
+        String language = ctx.queryParam("language") != null ? ctx.queryParam("language") : "en";
+        RunWindow window = RunWindow.parse(ctx.queryParam("runWindow"));
+
+        Files.createDirectories(spoolDirectory());
+        Path file = spoolDirectory().resolve("ingest-" + UUID.randomUUID() + ".txt");
+        long start = System.nanoTime();
+        Spool spool = new Spool(file);
+        try (spool; InputStream body = ctx.bodyInputStream()) {
+            String contentType = ctx.contentType() != null ? ctx.contentType() : "";
+            if (contentType.contains("json")) {
+                readJson(body, spool);
+            } else {
+                readLines(body, spool);
+            }
+        } catch (IOException e) {
+            // לקוח שהתנתק או גוף פגום - לא מתחילים תור עם חלק מהרשימה
+            Files.deleteIfExists(file);
+            logger.warn("Bulk ingest body ended early after {} URLs: {}", spool.accepted, e.getMessage());
+            ctx.status(400).result("Request body ended early after " + spool.accepted + " URLs; nothing was queued");
+            return;
+        }
+        logger.info("Bulk ingest spooled {} URLs ({} duplicates skipped) in {} ms", spool.accepted, spool.duplicates,
+                (long) Metrics.millisSince(start));
+        if (spool.accepted == 0) {
+            Files.deleteIfExists(file);
+            ctx.status(400).result("No URLs in request body");
+            return;
+        }
+
+        DownloadService.startDownloadQueue(QueueSource.spooled(file, spool.accepted), formatId, destinationPath,
+                isNetfree, playlistTitle, language, null, window);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", JobRegistry.MAIN_JOB_ID);
+        response.put("accepted", spool.accepted);
+        response.put("duplicates", spool.duplicates);
+        ctx.status(202).contentType("application/json").result(objectMapper.writeValueAsString(response));
+    }
+
+    private static void readLines(InputStream body, Spool spool) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            spool.add(line);
+        }
+    }
+
+    // ערכי שורש רצופים (NDJSON) או מערך אחד גדול - שניהם נקראים אסימון אחרי אסימון בלי לבנות עץ
+    private static void readJson(InputStream body, Spool spool) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                String url = null;
+                if (token == JsonToken.VALUE_STRING) {
+                    url = parser.getText();
+                } else if (token == JsonToken.START_OBJECT) {
+                    url = readUrlField(parser);
+                }
+                if (url == null || url.trim().isEmpty()) {
+                    continue;
+                }
+                spool.add(url.trim());
+            }
+        }
+    }
+
+    private static String readUrlField(JsonParser parser) throws IOException {
+        String url = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("url".equals(field) && value == JsonToken.VALUE_STRING) {
+                url = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return url;
+    }
+
+    private static Path spoolDirectory() {
+        return PathUtils.getAppDataDirectory().resolve("NFmp3Downloader").resolve("ingest");
+    }
+
+    // קבצים שנשארו מהרצה קודמת שייכים לתורים שכבר לא קיימים
+    private static void removeStaleSpools() {
+        if (!Files.isDirectory(spoolDirectory())) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(spoolDirectory())) {
+            files.forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    logger.warn("Could not delete stale ingest spool {}", file);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Could not list {}: {}", spoolDirectory(), e.getMessage());
+        }
+    }
+
+    // כותב קישור לשורה, בצורה הקנונית, ומדלג על סרטונים שכבר הופיעו (לפי המזהה בן 11 התווים בלבד)
+    private static class Spool implements Closeable {
+
+        private final BufferedWriter writer;
+        private final Set<String> seenVideos = new HashSet<>();
+        int accepted = 0;
+        int duplicates = 0;
+
+        Spool(Path file) throws IOException {
+            this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        }
+
+        void add(String url) throws IOException {
+            if (!url.startsWith("http")) {
+                return;
+            }
+            Metrics.ingestedUrls.increment();
+            String key = YouTubeUrls.videoId(url);
+            if (key != null && !seenVideos.add(key)) {
+                duplicates++;
+                return;
+            }
+            writer.write(key != null ? YouTubeUrls.canonical(url) : url);
+            writer.newLine();
+            accepted++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.mps;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DiskSpaceGuard {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpaceGuard.class);
+    private static final long MARGIN_BYTES = Long.getLong("nfmp3.disk.marginMb", 200L) * 1024 * 1024;
+    private static final long WAIT_POLL_MS = 2000;
+    // בתיקייה הזמנית המקור והקובץ המומר (או הווידאו, האודיו והמאוחד) קיימים יחד
+    private static final int TEMP_FACTOR = 2;
+
+    private static final Map<String, Reservation> active = new LinkedHashMap<>();
+    private static final ThreadLocal<Reservation> current = new ThreadLocal<>();
+    private static final Reservation NOOP = new Reservation(null, null, null);
+
+    public enum Verdict {
+        OK, WAIT, NO_SPACE
+    }
+
+    public static Reservation open(String jobId, Path tempDir, Path destDir) {
+        Reservation reservation = new Reservation(jobId, tempDir, destDir);
+        synchronized (DiskSpaceGuard.class) {
+            active.put(jobId, reservation);
+        }
+        current.set(reservation);
+        return reservation;
+    }
+
+    public static Reservation current() {
+        Reservation reservation = current.get();
+        return reservation != null ? reservation : NOOP;
+    }
+
+    public static synchronized long reservedBytes() {
+        long total = 0;
+        for (Reservation reservation : active.values()) {
+            for (long[] need : reservation.items.values()) {
+                total += need[0] + need[1];
+            }
+        }
+        return total;
+    }
+
+    private static FileStore storeOf(Path path) throws IOException {
+        Path existing = path.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            throw new IOException("No existing ancestor for " + path);
+        }
+        return Files.getFileStore(existing);
+    }
+
+    private static long needOn(Reservation reservation, FileStore store) throws IOException {
+        long need = 0;
+        boolean onTemp = store.equals(storeOf(reservation.tempDir));
+        boolean onDest = store.equals(storeOf(reservation.destDir));
+        for (long[] item : reservation.items.values()) {
+            if (onTemp) {
+                need += item[0];
+            }
+            if (onDest) {
+                need += item[1];
+            }
+        }
+        return need;
+    }
+
+    public static String formatBytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    public static class Reservation {
+
+        private final String jobId;
+        private final Path tempDir;
+        private final Path destDir;
+        // itemKey -> {temp bytes, destination bytes}
+        private final Map<String, long[]> items = new LinkedHashMap<>();
+        private volatile String shortage = null;
+        private String pendingKey = null;
+        private long pendingBytes = 0;
+
+        private Reservation(String jobId, Path tempDir, Path destDir) {
+            this.jobId = jobId;
+            this.tempDir = tempDir;
+            this.destDir = destDir;
+        }
+
+        // נקרא כשהגודל הצפוי ידוע (לפני תחילת ההורדה), וקובע אם אפשר להמשיך, לחכות או להיכשל מיד
+        public Verdict require(String itemKey, long expectedBytes) {
+            if (jobId == null || expectedBytes <= 0) {
+                return Verdict.OK;
+            }
+            synchronized (DiskSpaceGuard.class) {
+                Verdict verdict = evaluate(itemKey, expectedBytes);
+                if (verdict == Verdict.OK) {
+                    logger.info("Job {} reserved {} for {}", jobId, formatBytes(expectedBytes), itemKey);
+                } else {
+                    items.remove(itemKey);
+                    if (verdict == Verdict.WAIT) {
+                        logger.info("Job {} held back until other jobs release disk space ({} needed for {})",
+                                jobId, formatBytes(expectedBytes), itemKey);
+                        pendingKey = itemKey;
+                        pendingBytes = expectedBytes;
+                    }
+                }
+                return verdict;
+            }
+        }
+
+        private Verdict evaluate(String itemKey, long expectedBytes) {
+            try {
+                boolean sameStore = storeOf(tempDir).equals(storeOf(destDir));
+                items.put(itemKey, new long[]{expectedBytes * TEMP_FACTOR, sameStore ? 0 : expectedBytes});
+                Verdict verdict = Verdict.OK;
+                for (Path location : new Path[]{tempDir, destDir}) {
+                    FileStore store = storeOf(location);
+                    long usable = store.getUsableSpace() - MARGIN_BYTES;
+                    long mine = needOn(this, store);
+                    long others = 0;
+                    for (Reservation other : active.values()) {
+                        if (other != this) {
+                            others += needOn(other, store);
+                        }
+                    }
+                    if (mine > usable) {
+                        shortage = "Not enough disk space on " + location + ": need " + formatBytes(mine)
+                                + ", available " + formatBytes(Math.max(0, usable));
+                        logger.warn("Job {}: {}", jobId, shortage);
+                        return Verdict.NO_SPACE;
+                    }
+                    if (mine + others > usable) {
+                        logger.debug("Job {} does not fit yet: needs {} on {}, {} reserved by other jobs, {} usable",
+                                jobId, formatBytes(mine), location, formatBytes(others), formatBytes(usable));
+                        verdict = Verdict.WAIT;
+                    }
+                }
+                return verdict;
+            } catch (IOException e) {
+                logger.warn("Could not check free space for job {}, continuing without reservation", jobId, e);
+                return Verdict.OK;
+            }
+        }
+
+        public String getShortage() {
+            return shortage;
+        }
+
+        // הפריט כבר על הדיסק ונספר בשטח הפנוי - נשאר רק מה שעוד יועתק ליעד
+        public void settle(String itemKey) {
+            if (jobId == null) {
+                return;
+            }
+            synchronized (DiskSpaceGuard.class) {
+                long[] need = items.get(itemKey);
+                if (need != null) {
+                    need[0] = 0;
+                    if (need[1] == 0) {
+                        items.remove(itemKey);
+                    }
+                }
+                DiskSpaceGuard.class.notifyAll();
+            }
+        }
+
+        public void drop(String itemKey) {
+            if (jobId == null) {
+                return;
+            }
+            synchronized (DiskSpaceGuard.class) {
+                items.remove(itemKey);
+                DiskSpaceGuard.class.notifyAll();
+            }
+        }
+
+        // ממתין עד שעבודה אחרת משחררת מספיק מקום לפריט שנדחה, או עד ביטול
+        public boolean awaitRoom(BooleanSupplier cancelled) {
+            synchronized (DiskSpaceGuard.class) {
+                while (pendingKey != null) {
+                    try {
+                        DiskSpaceGuard.class.wait(WAIT_POLL_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    if (cancelled.getAsBoolean()) {
+                        return false;
+                    }
+                    Verdict verdict = evaluate(pendingKey, pendingBytes);
+                    items.remove(pendingKey);
+                    if (verdict != Verdict.WAIT) {
+                        pendingKey = null;
+                    }
+                }
+                return true;
+            }
+        }
+
+        public void close() {
+            if (jobId == null) {
+                return;
+            }
+            synchronized (DiskSpaceGuard.class) {
+                active.remove(jobId, this);
+                DiskSpaceGuard.class.notifyAll();
+            }
+            if (current.get() == this) {
+                current.remove();
+            }
+        }
+    }
+}
@@ -10,6 +10,10 @@ public class DownloadMessage {
     private String type;
     private String percent;
     private String speed;
+    private Long downloadedBytes;
+    private Long totalBytes;
+    private Double speedBytes;
+    private Long etaSeconds;
     private String error;
     private String path;
     private String title;
@@ -17,10 +21,16 @@ public class DownloadMessage {
     private String current;
     private String total;
     private String downloadId;
+    private String stage;
+    private Boolean cacheHit;
+    private String runWindow;
 
     private Integer successCount;
     private Integer failureCount;
     private List<String> successfulFiles;
+    private Integer addedCount;
+    private Integer skippedCount;
+    private Integer removedCount;
 
     private String version;
     private String releaseNotes;
@@ -46,6 +56,21 @@ public class DownloadMessage {
         return msg;
     }
 
+    public static DownloadMessage progress(ProgressLine progress) {
+        DownloadMessage msg = progress(progress.formatPercent(), progress.formatSpeed());
+        msg.setDownloadedBytes(progress.getDownloadedBytes());
+        msg.setTotalBytes(progress.getTotalBytes());
+        msg.setSpeedBytes(progress.getSpeedBytes());
+        msg.setEtaSeconds(progress.getEtaSeconds());
+        return msg;
+    }
+
+    public static DownloadMessage cachedProgress() {
+        DownloadMessage msg = progress("100", "cache");
+        msg.setCacheHit(true);
+        return msg;
+    }
+
     public static DownloadMessage playlistProgress(String current, String total) {
         DownloadMessage msg = new DownloadMessage("playlist_progress");
         msg.setCurrent(current);
@@ -96,6 +121,18 @@ public static DownloadMessage queueComplete(int successCount, int failureCount,
         msg.setPath(path);
         return msg;
     }
+
+    public static DownloadMessage syncComplete(int addedCount, int skippedCount, int removedCount, int failureCount,
+            String path) {
+        DownloadMessage msg = new DownloadMessage("sync_complete");
+        msg.setAddedCount(addedCount);
+        msg.setSkippedCount(skippedCount);
+        msg.setRemovedCount(removedCount);
+        msg.setFailureCount(failureCount);
+        msg.setPath(path);
+        return msg;
+    }
+
     public static DownloadMessage updateAvailable(String version, String releaseNotes, String downloadUrl) {
         DownloadMessage msg = new DownloadMessage("update_available");
         msg.setVersion(version);
@@ -111,6 +148,32 @@ public static DownloadMessage queueComplete(int successCount, int failureCount,
         return msg;
     }
 
+    public static DownloadMessage itemMetadata(String current, String title, String thumbnail) {
+        DownloadMessage msg = new DownloadMessage("item_metadata");
+        msg.setCurrent(current);
+        msg.setTitle(title);
+        msg.setThumbnail(thumbnail);
+        return msg;
+    }
+
+    public static DownloadMessage stage(String stage, String current, String total) {
+        DownloadMessage msg = new DownloadMessage("stage");
+        msg.setStage(stage);
+        msg.setCurrent(current);
+        msg.setTotal(total);
+        return msg;
+    }
+
+    public static DownloadMessage diskWait() {
+        return new DownloadMessage("disk_wait");
+    }
+
+    public static DownloadMessage scheduled(String runWindow) {
+        DownloadMessage msg = new DownloadMessage("scheduled");
+        msg.setRunWindow(runWindow);
+        return msg;
+    }
+
     public static DownloadMessage netfreeBlocked() {
         return new DownloadMessage("netfree_error");
     }
@@ -139,6 +202,38 @@ public static DownloadMessage queueComplete(int successCount, int failureCount,
         this.speed = speed;
     }
 
+    public Long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public void setDownloadedBytes(Long downloadedBytes) {
+        this.downloadedBytes = downloadedBytes;
+    }
+
+    public Long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(Long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public Double getSpeedBytes() {
+        return speedBytes;
+    }
+
+    public void setSpeedBytes(Double speedBytes) {
+        this.speedBytes = speedBytes;
+    }
+
+    public Long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(Long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
     public String getError() {
         return error;
     }
@@ -195,6 +290,30 @@ public static DownloadMessage queueComplete(int successCount, int failureCount,
         this.successfulFiles = successfulFiles;
     }
 
+    public Integer getAddedCount() {
+        return addedCount;
+    }
+
+    public void setAddedCount(Integer addedCount) {
+        this.addedCount = addedCount;
+    }
+
+    public Integer getSkippedCount() {
+        return skippedCount;
+    }
+
+    public void setSkippedCount(Integer skippedCount) {
+        this.skippedCount = skippedCount;
+    }
+
+    public Integer getRemovedCount() {
+        return removedCount;
+    }
+
+    public void setRemovedCount(Integer removedCount) {
+        this.removedCount = removedCount;
+    }
+
     public String getVersion() {
         return version;
     }
@@ -243,4 +362,28 @@ public String getDownloadId() {
         this.downloadId = downloadId;
     }
 
+    public String getStage() {
+        return stage;
+    }
+
+    public void setStage(String stage) {
+        this.stage = stage;
+    }
+
+    public String getRunWindow() {
+        return runWindow;
+    }
+
+    public void setRunWindow(String runWindow) {
+        this.runWindow = runWindow;
+    }
+
+    public Boolean getCacheHit() {
+        return cacheHit;
+    }
+
+    public void setCacheHit(Boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+
 }
\ No newline at end of file
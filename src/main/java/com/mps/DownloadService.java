@@ -13,32 +13,49 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
-import org.eclipse.jetty.websocket.api.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class DownloadService {
 
     private static final Logger logger = LoggerFactory.getLogger(DownloadService.class);
     private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final ExecutorService downloadExecutor = Executors.newSingleThreadExecutor();
-    private static final ExecutorService advancedDownloadExecutor = Executors.newFixedThreadPool(4);
+    private static final ThreadPoolExecutor downloadExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+    private static final ThreadPoolExecutor advancedDownloadExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(4);
 
     private static final ConcurrentHashMap<String, AdvancedContext> advancedDownloadsMap = new ConcurrentHashMap<>();
+    // (מזהה סרטון, פורמט, יעד) -> מזהה העבודה שכבר רצה או ממתינה עבורו
+    private static final ConcurrentHashMap<String, String> inFlightRequests = new ConcurrentHashMap<>();
+    private static final AtomicInteger scheduledQueueCounter = new AtomicInteger();
+    private static final String SCHEDULED_QUEUE_PREFIX = "scheduled-queue-";
+    private static final String SOURCE_AUDIO_SELECTOR = "bestaudio";
 
     private static final Pattern progressPattern = Pattern
             .compile("\\[download\\]\\s+([0-9.]+)%\\s+of\\s+.*?\\s+at\\s+(.*?\\/s)");
@@ -46,13 +63,43 @@ public class DownloadService {
             .compile("\\[download\\] Downloading item (\\d+) of (\\d+)");
     private static final Pattern destinationFilePattern = Pattern
             .compile("\\[(?:download|ExtractAudio|Merger|ffmpeg)\\] Destination: (.*)");
+    private static final String SIZE_PREFIX = "MPS_SIZE:";
+    private static final String DISK_WAIT = "Waiting for disk space";
+    private static final String OUTPUT_NOT_DRAINED = "yt-dlp output was not fully read after it exited";
+    private static final String PRIMARY_PROXY = "http://8.8.8.8:80";
+    private static final String FALLBACK_PROXY = "http://1.1.1.1:80";
 
     private static volatile Process currentProcess = null;
     private static final AtomicBoolean cancellationRequested = new AtomicBoolean(false);
     private static final AtomicReference<Path> currentTempDirRef = new AtomicReference<>(null);
+    private static final AtomicReference<QueueSource> currentSourceRef = new AtomicReference<>(null);
+    // תורים שממתינים לחלון ההרצה - אף תהליכון לא מריץ אותם, ולכן הביטול סוגר את המקור שלהם ומודיע למאזין מכאן
+    private static final Map<QueueSource, Runnable> heldSources = new ConcurrentHashMap<>();
+
+    // נקרא בסוף כל מקטע של התור עם הפריטים שהועברו ליעד בפועל (מזהה סרטון -> שם קובץ).
+    // outcome הוא "held" כשהתור ממתין לחלון הבא, ואחרת התוצאה הסופית: success / partial / cancelled / error
+    public interface QueueSaveListener {
+        void saved(Path queueDir, Map<String, String> savedItems, String outcome);
+    }
 
     public static void cancelCurrentDownload() {
+        boolean heldQueue = RunScheduler.forgetPrefixed(SCHEDULED_QUEUE_PREFIX);
         cancellationRequested.set(true);
+        QueueSource source = currentSourceRef.get();
+        if (source != null) {
+            source.close();
+        }
+        heldSources.forEach((held, onCancel) -> {
+            held.close();
+            onCancel.run();
+        });
+        heldSources.clear();
+        if (heldQueue) {
+            // אין תהליכון שיודיע על הביטול - ההודעה הסופית גם מוציאה את התור מ-JobRegistry
+            currentSourceRef.compareAndSet(source, null);
+            logger.info("Cancelled a queue that was waiting for its run window.");
+            sendMessage(DownloadMessage.cancelled());
+        }
         Process processToKill = currentProcess;
         if (processToKill != null && processToKill.isAlive()) {
             logger.info("Attempting to cancel current download process tree...");
@@ -60,6 +107,7 @@ public class DownloadService {
         } else {
             logger.warn("Cancellation requested, but no active process found.");
         }
+        TranscodeService.cancelAll();
     }
 
     private static void killProcessTree(Process process) {
@@ -77,6 +125,8 @@ public class DownloadService {
     }
 
     static {
+        Metrics.registerExecutor("download", downloadExecutor);
+        Metrics.registerExecutor("advanced", advancedDownloadExecutor);
 
         new Thread(() -> {
             try {
@@ -111,10 +161,10 @@ public class DownloadService {
         }));
     }
 
-    private static void waitForUpdateIfNeeded(Session session) {
+    private static void waitForUpdateIfNeeded() {
         if (App.isYtDlpUpdating) {
             logger.info("Download requested while background update is running. Waiting...");
-            sendMessage(session, DownloadMessage.updating());
+            sendMessage(DownloadMessage.updating());
 
             int waitCounter = 0;
             while (App.isYtDlpUpdating && waitCounter < 120) {
@@ -136,51 +186,144 @@ public class DownloadService {
                 logger.info("Background update finished. Proceeding with download.");
             }
 
-            sendMessage(session, DownloadMessage.starting());
+            sendMessage(DownloadMessage.starting());
         }
     }
 
     public static void startDownload(String youtubeUrl, boolean isPlaylist, String formatId, String destinationPath,
-            boolean isNetfree, Session session) {
-        downloadExecutor
-                .submit(() -> runDownloadFlow(youtubeUrl, isPlaylist, formatId, destinationPath, isNetfree, session));
+            boolean isNetfree) {
+        String url = isPlaylist ? youtubeUrl : YouTubeUrls.canonical(youtubeUrl);
+        String requestKey = requestKey(url, formatId, destinationPath);
+        String owner = inFlightRequests.putIfAbsent(requestKey, JobRegistry.MAIN_JOB_ID);
+        if (owner != null) {
+            // כל הלשוניות כבר מקבלות את האירועים של ההורדה הראשית, אין צורך בתהליך נוסף
+            logger.info("Ignoring duplicate download request for {} (already handled by {})", url, owner);
+            return;
+        }
+        downloadExecutor.submit(() -> {
+            try {
+                runDownloadFlow(url, isPlaylist, formatId, destinationPath, isNetfree);
+            } finally {
+                inFlightRequests.remove(requestKey, JobRegistry.MAIN_JOB_ID);
+            }
+        });
+    }
+
+    private static String requestKey(String url, String formatId, String destinationPath) {
+        String id = YouTubeUrls.videoId(url);
+        String dest = destinationDir(destinationPath).toAbsolutePath().normalize().toString();
+        return (id != null ? id : url) + "|" + formatId + "|" + dest;
+    }
+
+    private static List<String> distinctVideos(List<String> urls) {
+        Map<String, String> unique = new LinkedHashMap<>();
+        for (String url : urls) {
+            String canonical = YouTubeUrls.canonical(url);
+            if (canonical != null && !canonical.isEmpty()) {
+                unique.putIfAbsent(canonical, canonical);
+            }
+        }
+        if (unique.size() < urls.size()) {
+            logger.info("Queue contained {} duplicate links, downloading {} unique videos", urls.size() - unique.size(),
+                    unique.size());
+        }
+        return new ArrayList<>(unique.values());
     }
 
     public static void startDownloadQueue(List<String> urls, String formatId, String destinationPath, boolean isNetfree,
-            Session session, String playlistTitle, String language) {
+            String playlistTitle, String language) {
+        startDownloadQueue(urls, formatId, destinationPath, isNetfree, playlistTitle, language, null);
+    }
+
+    public static Path resolveQueueFinalDir(String destinationPath, String playlistTitle, String language) {
+        Path basePath;
+        if (destinationPath != null && !destinationPath.isEmpty()) {
+            try {
+                basePath = Paths.get(destinationPath);
+            } catch (InvalidPathException e) {
+                basePath = Paths.get(System.getProperty("user.home"), "Downloads");
+            }
+        } else {
+            basePath = Paths.get(System.getProperty("user.home"), "Downloads");
+        }
+        if (playlistTitle == null) {
+            return basePath;
+        }
+        String lang = (language != null) ? language : "en";
+        String safeTitle = playlistTitle.replaceAll("[\\\\/:*?\"<>|]", "_");
+        String prefix = "en".equals(lang) ? "Playlist" : "פלייליסט";
+        return basePath.resolve(prefix + " - " + safeTitle);
+    }
+
+    public static void startDownloadQueue(List<String> requestedUrls, String formatId, String destinationPath, boolean isNetfree,
+            String playlistTitle, String language, QueueSaveListener onSaved) {
+        startDownloadQueue(requestedUrls, formatId, destinationPath, isNetfree, playlistTitle, language, onSaved, null);
+    }
+
+    // עם חלון הרצה: התור ממתין לפתיחת החלון, ועוצר בין פריטים כשהחלון נסגר - השאר ממשיכים בחלון הבא
+    public static void startDownloadQueue(List<String> requestedUrls, String formatId, String destinationPath, boolean isNetfree,
+            String playlistTitle, String language, QueueSaveListener onSaved, RunWindow window) {
+        startDownloadQueue(QueueSource.of(distinctVideos(requestedUrls)), formatId, destinationPath, isNetfree,
+                playlistTitle, language, onSaved, window);
+    }
+
+    // המקור יכול להיות רשימה שנשמרה לקובץ (BulkIngest) ונקראת פריט אחרי פריט
+    public static void startDownloadQueue(QueueSource source, String formatId, String destinationPath, boolean isNetfree,
+            String playlistTitle, String language, QueueSaveListener onSaved, RunWindow window) {
+        if (window == null) {
+            submitQueue(source, formatId, destinationPath, isNetfree, playlistTitle, language, onSaved, null);
+            return;
+        }
+        heldSources.put(source, () -> notifySaved(onSaved, resolveQueueFinalDir(destinationPath, playlistTitle, language),
+                new LinkedHashMap<>(), "cancelled"));
+        RunScheduler.submit(SCHEDULED_QUEUE_PREFIX + scheduledQueueCounter.incrementAndGet(), window,
+                () -> submitQueue(source, formatId, destinationPath, isNetfree, playlistTitle, language, onSaved, window),
+                null, () -> sendMessage(DownloadMessage.scheduled(window.toString())));
+    }
+
+    private static void submitQueue(QueueSource source, String formatId, String destinationPath, boolean isNetfree,
+            String playlistTitle, String language, QueueSaveListener onSaved, RunWindow window) {
         downloadExecutor.submit(() -> {
+            long queueStart = System.nanoTime();
+            heldSources.remove(source);
             cancellationRequested.set(false);
-            waitForUpdateIfNeeded(session);
+            currentSourceRef.set(source);
+            Map<String, Object> jobRequest = jobRequest(source.total() == 1 ? source.peek(1) : null, formatId, destinationPath);
+            jobRequest.put("itemCount", source.total());
+            jobRequest.put("playlistTitle", playlistTitle);
+            JobRegistry.begin(JobRegistry.MAIN_JOB_ID, "queue", jobRequest);
+            waitForUpdateIfNeeded();
             if (cancellationRequested.get()) {
-                sendMessage(session, DownloadMessage.cancelled());
+                currentSourceRef.set(null);
+                source.close();
+                sendMessage(DownloadMessage.cancelled());
+                notifySaved(onSaved, resolveQueueFinalDir(destinationPath, playlistTitle, language), new LinkedHashMap<>(),
+                        "cancelled");
                 return;
             }
-            Path queueFinalDir;
-            Path basePath;
-            if (destinationPath != null && !destinationPath.isEmpty()) {
-                try {
-                    basePath = Paths.get(destinationPath);
-                } catch (InvalidPathException e) {
-                    basePath = Paths.get(System.getProperty("user.home"), "Downloads");
-                }
-            } else {
-                basePath = Paths.get(System.getProperty("user.home"), "Downloads");
-            }
+            Path queueFinalDir = resolveQueueFinalDir(destinationPath, playlistTitle, language);
             if (playlistTitle != null) {
-                String lang = (language != null) ? language : "en";
-                String safeTitle = playlistTitle.replaceAll("[\\\\/:*?\"<>|]", "_");
-                String prefix = "en".equals(lang) ? "Playlist" : "פלייליסט";
-                String folderName = prefix + " - " + safeTitle;
-                queueFinalDir = basePath.resolve(folderName);
                 logger.info("Playlist download detected. Creating dedicated folder: {}", queueFinalDir);
             } else {
-
-                queueFinalDir = basePath;
                 logger.info("Multi-link download detected. No dedicated folder will be created.");
             }
             String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
             Path tempDir = Paths.get(System.getProperty("user.home"), "Downloads", ".NFDownloader_Temp_" + timeStamp);
             currentTempDirRef.set(tempDir);
+            String queueId = "queue-" + timeStamp;
+            JobTimeline queueTimeline = JobTimeline.begin(queueId, "queue",
+                    playlistTitle != null ? playlistTitle : source.total() + " links");
+            MDC.put("downloadId", queueId);
+            DiskSpaceGuard.Reservation space = DiskSpaceGuard.open(queueId, tempDir, queueFinalDir);
+            String outcome = "error";
+            boolean pipelined = TranscodeService.isStagedFormat(formatId);
+            MetadataLookahead lookahead = new MetadataLookahead(source,
+                    i -> pipelined ? queueStageDir(tempDir, i) : tempDir, isNetfree ? PRIMARY_PROXY : null,
+                    DownloadService::sendMessage);
+            QueueFinalizer finalizer = new QueueFinalizer(queueFinalDir, space);
+            // פריטים שהצליחו אבל שם הקובץ שלהם לא זוהה - מועברים רק בסוף התור, יחד עם שאר התיקייה הזמנית
+            Map<String, String> unnamedItems = new LinkedHashMap<>();
+            boolean leftoversMoved = false;
 
             try {
                 Files.createDirectories(tempDir);
@@ -192,19 +335,85 @@ public class DownloadService {
                 int failureCount = 0;
                 List<String> successfulFiles = new ArrayList<>();
 
-                for (int i = 0; i < urls.size(); i++) {
+                List<Future<Boolean>> pendingTranscodes = new ArrayList<>();
+                List<String> pendingFiles = new ArrayList<>();
+                // שמות שכבר נתפסו בתור - שני פריטים עם אותה כותרת לא יכתבו לאותו קובץ
+                Set<String> takenNames = new HashSet<>();
+                if (pipelined) {
+                    logger.info("Pipelined mode: downloading source audio and transcoding on a separate pool.");
+                }
+
+                boolean held = false;
+                for (int i = 0; ; i++) {
                     if (cancellationRequested.get()) {
                         break;
                     }
-                    String url = urls.get(i);
-                    sendMessage(session, DownloadMessage.playlistProgress(String.valueOf(i + 1), String.valueOf(urls.size())));
+                    if (window != null && !window.isOpenNow()) {
+                        held = true;
+                        logger.info("Run window {} closed. Holding the remaining items after {}.", window, i);
+                        break;
+                    }
+                    String url = source.next();
+                    if (url == null) {
+                        break;
+                    }
+                    String itemIndex = String.valueOf(i + 1);
+                    String itemTotal = String.valueOf(source.total());
+                    sendMessage(DownloadMessage.playlistProgress(itemIndex, itemTotal));
+                    queueTimeline.mark("items");
+                    JobTimeline itemTimeline = JobTimeline.begin(queueId + "-" + itemIndex, "queue_item", url);
+                    MDC.put("downloadId", queueId + "-" + itemIndex);
+                    if (MetadataLookahead.isEnabled()) {
+                        lookahead.await(i, cancellationRequested::get);
+                        lookahead.advance(i);
+                    }
 
-                    DownloadResult result = runDownloadFlowInternal(url, false, formatId, isNetfree, session, true);
+                    if (pipelined) {
+                        Path stageDir = queueStageDir(tempDir, i);
+                        Files.createDirectories(stageDir);
+                        Consumer<String> stageListener = stage -> {
+                            sendMessage(DownloadMessage.stage(stage, itemIndex, itemTotal));
+                            if ("transcoded".equals(stage)) {
+                                itemTimeline.finish("success");
+                            } else if ("transcode_failed".equals(stage)) {
+                                itemTimeline.finish("error");
+                            }
+                        };
+
+                        DownloadResult result = fetchSourceAudio(url, formatId, stageDir, isNetfree, true, stageListener);
+
+                        if (result.isSuccess()) {
+                            stageListener.accept("transcode_queued");
+                            String fileName = uniqueFileName(finalFileNameFor(result.getSourceInfo(), formatId),
+                                    YouTubeUrls.videoId(url), takenNames);
+                            Path produced = tempDir.resolve(fileName);
+                            pendingFiles.add(fileName);
+                            pendingTranscodes.add(submitStagedTranscode(result.getSourceInfo(), stageDir, produced, formatId,
+                                    stage -> {
+                                        stageListener.accept(stage);
+                                        if ("transcoded".equals(stage)) {
+                                            finalizer.submit(produced, YouTubeUrls.videoId(url));
+                                        }
+                                    }));
+                        } else {
+                            failureCount++;
+                            logger.error("Item failed: {}", url);
+                            itemTimeline.finish(cancellationRequested.get() ? "cancelled" : "error");
+                            deleteDirectoryRecursively(stageDir);
+                        }
+                        continue;
+                    }
+
+                    DownloadResult result = runDownloadFlowInternal(url, false, formatId, tempDir, false, isNetfree, true);
+                    itemTimeline.finish(result.isSuccess() ? "success" : cancellationRequested.get() ? "cancelled" : "error");
 
                     if (result.isSuccess()) {
                         successCount++;
                         if (result.getFinalFileName() != null) {
                             successfulFiles.add(result.getFinalFileName());
+                            finalizer.submit(tempDir.resolve(result.getFinalFileName()), YouTubeUrls.videoId(url));
+                        } else if (YouTubeUrls.videoId(url) != null) {
+                            unnamedItems.put(YouTubeUrls.videoId(url), null);
                         }
                     } else {
                         failureCount++;
@@ -212,73 +421,305 @@ public class DownloadService {
                     }
                 }
 
+                MDC.put("downloadId", queueId);
+                if (!pendingTranscodes.isEmpty()) {
+                    queueTimeline.mark("waiting_transcodes");
+                }
+                for (int t = 0; t < pendingTranscodes.size(); t++) {
+                    if (cancellationRequested.get()) {
+                        pendingTranscodes.get(t).cancel(true);
+                        continue;
+                    }
+                    if (pendingTranscodes.get(t).get()) {
+                        successCount++;
+                        successfulFiles.add(pendingFiles.get(t));
+                    } else {
+                        failureCount++;
+                    }
+                }
+
                 if (cancellationRequested.get()) {
-                    sendMessage(session, DownloadMessage.cancelled());
+                    // פריטים שכבר הסתיימו הועברו ליעד ונשארים שם
+                    finalizer.awaitAll();
+                    logger.info("Queue cancelled. {} finished items were kept in {}", finalizer.getSubmitted(),
+                            queueFinalDir);
+                    outcome = "cancelled";
+                    sendMessage(DownloadMessage.cancelled());
                     return;
                 }
 
+                queueTimeline.mark("moving");
+                long movedBytes = finalizer.awaitAll();
                 if (successCount > 0) {
+                    recordJobSuccess(tempDir, queueStart, movedBytes);
                     moveFinalFiles(tempDir, queueFinalDir.toString());
+                    leftoversMoved = true;
+                }
+                if (failureCount > 0) {
+                    Metrics.jobsFailed.increment();
                 }
+                outcome = failureCount == 0 ? "success" : "partial";
 
-                sendMessage(session, DownloadMessage.queueComplete(successCount, failureCount, successfulFiles, queueFinalDir.toString()));
+                if (held) {
+                    outcome = "held";
+                    // אותו מקור ממשיך מהפריט שבו עצר
+                    startDownloadQueue(source, formatId, destinationPath, isNetfree, playlistTitle, language, onSaved,
+                            window);
+                    return;
+                }
+                sendMessage(DownloadMessage.queueComplete(successCount, failureCount, successfulFiles, queueFinalDir.toString()));
 
             } catch (Exception e) {
                 logger.error("Error during queue processing", e);
-                sendMessage(session, DownloadMessage.error("Critical error in queue processing."));
+                sendMessage(DownloadMessage.error("Critical error in queue processing."));
             } finally {
+                lookahead.close();
+                finalizer.awaitAll();
+                // בכל יציאה (גם ביטול ושגיאה) המאזין מקבל את מה שכבר הגיע ליעד, כדי שלא יורד שוב
+                Map<String, String> savedItems = finalizer.getMoved();
+                if (leftoversMoved) {
+                    savedItems.putAll(unnamedItems);
+                }
+                notifySaved(onSaved, queueFinalDir, savedItems, outcome);
+                // תור שממתין לחלון הבא נשאר ב-JobRegistry (כדי שלשונית שמתחברת מחדש תראה אותו) ואפשר לבטל אותו
+                boolean held = "held".equals(outcome);
+                if (!held) {
+                    currentSourceRef.compareAndSet(source, null);
+                    source.close();
+                }
+                queueTimeline.mark("cleanup");
                 deleteDirectoryRecursively(currentTempDirRef.get());
                 currentTempDirRef.set(null);
                 cancellationRequested.set(false);
+                queueTimeline.finish(outcome);
+                space.close();
+                if (!held) {
+                    JobRegistry.remove(JobRegistry.MAIN_JOB_ID);
+                }
+                MDC.remove("downloadId");
             }
         });
     }
 
+    private static void notifySaved(QueueSaveListener onSaved, Path queueDir, Map<String, String> savedItems,
+            String outcome) {
+        if (onSaved == null) {
+            return;
+        }
+        try {
+            onSaved.saved(queueDir, savedItems, outcome);
+        } catch (Exception e) {
+            logger.error("Queue save listener failed", e);
+        }
+    }
+
+    private static Path queueStageDir(Path tempDir, int index) {
+        return tempDir.resolve(".stage").resolve("item-" + (index + 1));
+    }
+
+    private static DownloadResult fetchSourceAudio(String youtubeUrl, String formatId, Path stageDir, boolean isNetfree,
+            boolean isQueueItem, Consumer<String> stageListener) {
+        String videoId = YouTubeUrls.videoId(youtubeUrl);
+        JsonNode cached = MediaCache.lookup(videoId, SOURCE_AUDIO_SELECTOR);
+        if (cached != null) {
+            JobTimeline.current().mark("cache_hit");
+            stageListener.accept("cache_hit");
+            sendMessage(DownloadMessage.metadata(cached.path("title").asText(null), cached.path("thumbnail").asText(null)));
+            sendMessage(DownloadMessage.cachedProgress());
+            return new DownloadResult(true, null, null, cached);
+        }
+
+        stageListener.accept("downloading");
+        DownloadResult result = runDownloadFlowInternal(youtubeUrl, false, formatId, stageDir, true, isNetfree,
+                isQueueItem);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        if (result.getSourceInfo() == null) {
+            return new DownloadResult(false, "yt-dlp did not report the downloaded source file.", null);
+        }
+        MediaCache.store(videoId, SOURCE_AUDIO_SELECTOR, result.getSourceInfo(),
+                resolveStagedSource(result.getSourceInfo(), stageDir), stageDir.resolve("source.jpg"));
+        return result;
+    }
+
+    private static DownloadResult runStagedDownload(String youtubeUrl, String formatId, Path tempDir, boolean isNetfree)
+            throws IOException {
+        Path stageDir = tempDir.resolve(".stage");
+        Files.createDirectories(stageDir);
+        Consumer<String> stageListener = stage -> sendMessage(DownloadMessage.stage(stage, null, null));
+
+        DownloadResult source = fetchSourceAudio(youtubeUrl, formatId, stageDir, isNetfree, false, stageListener);
+        if (!source.isSuccess()) {
+            return source;
+        }
+
+        String fileName = finalFileNameFor(source.getSourceInfo(), formatId);
+        sendMessage(DownloadMessage.processing());
+        try {
+            if (submitStagedTranscode(source.getSourceInfo(), stageDir, tempDir.resolve(fileName), formatId, stageListener).get()) {
+                return new DownloadResult(true, null, fileName);
+            }
+            return new DownloadResult(false, "Failed to convert the downloaded audio.", null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new DownloadResult(false, "Cancelled", null);
+        } catch (ExecutionException e) {
+            logger.error("Local conversion failed for {}", youtubeUrl, e);
+            return new DownloadResult(false, "Failed to convert the downloaded audio.", null);
+        }
+    }
+
+    private static String finalFileNameFor(JsonNode sourceInfo, String formatId) {
+        String baseName = TranscodeService.safeFileName(sourceInfo.path("title").asText(null));
+        if (TranscodeService.isMp3Format(formatId)) {
+            return baseName + ".mp3";
+        }
+        return baseName + "." + sourceInfo.path("ext").asText("m4a");
+    }
+
+    private static String uniqueFileName(String fileName, String videoId, Set<String> takenNames) {
+        int dot = fileName.lastIndexOf('.');
+        String base = dot == -1 ? fileName : fileName.substring(0, dot);
+        String ext = dot == -1 ? "" : fileName.substring(dot);
+        String candidate = fileName;
+        for (int n = 1; !takenNames.add(candidate.toLowerCase(Locale.ROOT)); n++) {
+            String suffix = videoId != null ? videoId + (n > 1 ? "-" + n : "") : String.valueOf(n + 1);
+            candidate = base + " [" + suffix + "]" + ext;
+        }
+        return candidate;
+    }
+
+    private static Future<Boolean> submitStagedTranscode(JsonNode sourceInfo, Path stageDir, Path target, String formatId,
+            Consumer<String> stageListener) {
+        Path source = resolveStagedSource(sourceInfo, stageDir);
+        Path cover = sourceInfo.has("cover") ? Paths.get(sourceInfo.get("cover").asText()) : stageDir.resolve("source.jpg");
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("title", sourceInfo.path("title").asText(null));
+        tags.put("artist", sourceInfo.path("uploader").asText(null));
+        tags.put("date", sourceInfo.path("upload_date").asText(null));
+        String audioQuality = TranscodeService.isMp3Format(formatId) ? TranscodeService.audioQualityFor(formatId) : null;
+        JobTimeline timeline = JobTimeline.current();
+        timeline.mark("transcode_queued");
+        return TranscodeService.submit(source, cover, target, audioQuality, tags, stage -> {
+            if ("transcoding".equals(stage)) {
+                timeline.mark("transcoding");
+            } else {
+                timeline.mark("cleanup");
+                deleteDirectoryRecursively(stageDir);
+            }
+            stageListener.accept(stage);
+        });
+    }
+
+    private static Path resolveStagedSource(JsonNode sourceInfo, Path stageDir) {
+        String filePath = sourceInfo.path("filepath").asText(null);
+        if (filePath != null && !filePath.isEmpty() && Files.exists(Paths.get(filePath))) {
+            return Paths.get(filePath);
+        }
+        try (Stream<Path> stream = Files.list(stageDir)) {
+            return stream.filter(p -> p.getFileName().toString().startsWith("source."))
+                    .filter(p -> !p.getFileName().toString().endsWith(".jpg"))
+                    .findFirst()
+                    .orElse(stageDir.resolve("source"));
+        } catch (IOException e) {
+            logger.error("Could not list staged source in {}", stageDir, e);
+            return stageDir.resolve("source");
+        }
+    }
+
     private static DownloadResult runDownloadFlowInternal(String youtubeUrl, boolean isPlaylist, String formatId,
-            boolean isNetfree, Session session, boolean isQueueItem) {
-        String proxyUrl = isNetfree ? "http://8.8.8.8:80" : null;
-        DownloadResult result = performDownloadAttempt(youtubeUrl, isPlaylist, formatId, proxyUrl, session);
-        if (isNetfree && !result.isSuccess() && !cancellationRequested.get()
-                && !result.getErrorMessage().contains("Requested format is not available")) {
-            logger.warn("Download failed with proxy 8.8.8.8. Retrying with proxy 1.1.1.1...");
-            proxyUrl = "http://1.1.1.1:80";
-            if (!isQueueItem) {
-                sendMessage(session, DownloadMessage.starting());
+            Path outputDir, boolean deferTranscode, boolean isNetfree, boolean isQueueItem) {
+        String proxyUrl = isNetfree ? PRIMARY_PROXY : null;
+        RetryPolicy.Tracker retry = RetryPolicy.track(isNetfree, true);
+        while (true) {
+            DownloadResult result = performDownloadAttempt(youtubeUrl, isPlaylist, formatId, outputDir, deferTranscode,
+                    proxyUrl);
+            if (result.isSuccess() || cancellationRequested.get()) {
+                return result;
+            }
+            switch (retry.next(result.getErrorCategory())) {
+                case SWITCH_PROXY:
+                    logger.warn("Download failed with proxy {}. Retrying with proxy {}...", proxyUrl, FALLBACK_PROXY);
+                    Metrics.proxyFallbacks.increment();
+                    proxyUrl = FALLBACK_PROXY;
+                    break;
+                case UPDATE:
+                    logger.warn("Download failed with a potential version issue. Attempting update.");
+                    if (!performUpdate()) {
+                        return result;
+                    }
+                    logger.info("Update seems successful. Retrying download.");
+                    Metrics.updateRetries.increment();
+                    break;
+                case WAIT_FOR_UPDATE:
+                    logger.warn("Download failed likely due to an active update ({}). Retrying...",
+                            result.getErrorCategory());
+                    Metrics.retries.increment();
+                    waitForUpdateIfNeeded();
+                    break;
+                case BACKOFF:
+                    logger.warn("Download failed ({}). Retrying in {} ms...", result.getErrorCategory(),
+                            retry.getBackoffMillis());
+                    Metrics.retries.increment();
+                    if (!sleepUnlessCancelled(retry.getBackoffMillis(), cancellationRequested::get)) {
+                        return new DownloadResult(false, "Cancelled", null);
+                    }
+                    break;
+                default:
+                    return result;
             }
-            result = performDownloadAttempt(youtubeUrl, isPlaylist, formatId, proxyUrl, session);
         }
-        if (!result.isSuccess() && !cancellationRequested.get()
-                && result.getErrorMessage().contains("Requested format is not available")) {
-            logger.warn("Download failed with a potential version issue. Attempting update.");
-            boolean updateSucceeded = performUpdate(session);
+    }
 
-            if (updateSucceeded) {
-                logger.info("Update seems successful. Retrying download.");
-                if (!isQueueItem) {
-                    sendMessage(session, DownloadMessage.starting());
-                }
-                result = performDownloadAttempt(youtubeUrl, isPlaylist, formatId, proxyUrl, session);
+    private static boolean sleepUnlessCancelled(long millis, BooleanSupplier cancelled) {
+        long deadline = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < deadline) {
+            if (cancelled.getAsBoolean()) {
+                return false;
+            }
+            try {
+                Thread.sleep(Math.min(250, Math.max(1, deadline - System.currentTimeMillis())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
             }
         }
-        return result;
+        return !cancelled.getAsBoolean();
     }
 
     private static void runDownloadFlow(String youtubeUrl, boolean isPlaylist, String formatId, String destinationPath,
-            boolean isNetfree, Session session) {
+            boolean isNetfree) {
+        long jobStart = System.nanoTime();
         cancellationRequested.set(false);
         String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
         Path tempDir = Paths.get(System.getProperty("user.home"), "Downloads", ".NFDownloader_Single_" + timeStamp);
         currentTempDirRef.set(tempDir);
+        JobTimeline timeline = JobTimeline.begin("single-" + timeStamp, "single", youtubeUrl);
+        MDC.put("downloadId", "single-" + timeStamp);
+        JobRegistry.begin(JobRegistry.MAIN_JOB_ID, isPlaylist ? "playlist" : "single",
+                jobRequest(youtubeUrl, formatId, destinationPath));
+        DiskSpaceGuard.Reservation space = DiskSpaceGuard.open("single-" + timeStamp, tempDir,
+                destinationDir(destinationPath));
+        String outcome = "error";
 
         try {
             Files.createDirectories(tempDir);
-            sendMessage(session, DownloadMessage.starting());
-            DownloadResult result = runDownloadFlowInternal(youtubeUrl, isPlaylist, formatId, isNetfree, session,
-                    false);
+            sendMessage(DownloadMessage.starting());
+            DownloadResult result;
+            if (!isPlaylist && TranscodeService.isStagedFormat(formatId)) {
+                result = runStagedDownload(youtubeUrl, formatId, tempDir, isNetfree);
+            } else {
+                result = runDownloadFlowInternal(youtubeUrl, isPlaylist, formatId, tempDir, false, isNetfree, false);
+            }
 
             if (cancellationRequested.get()) {
-                sendMessage(session, DownloadMessage.cancelled());
+                outcome = "cancelled";
+                sendMessage(DownloadMessage.cancelled());
             } else if (result.isSuccess()) {
+                outcome = "success";
+                recordJobSuccess(tempDir, jobStart);
+                timeline.mark("moving");
                 moveFinalFiles(tempDir, destinationPath);
 
                 Path finalDest;
@@ -290,17 +731,59 @@ public class DownloadService {
 
                 moveFinalFiles(tempDir, destinationPath);
 
-                sendMessage(session, DownloadMessage.success(finalDest.toString()));
+                sendMessage(DownloadMessage.success(finalDest.toString()));
             } else {
-                sendMessage(session, DownloadMessage.error(result.getErrorMessage()));
+                Metrics.jobsFailed.increment();
+                sendMessage(DownloadMessage.error(result.getErrorMessage()));
             }
         } catch (IOException e) {
             logger.error("Error during single download flow", e);
-            sendMessage(session, DownloadMessage.error("A critical error occurred while managing the download."));
+            sendMessage(DownloadMessage.error("A critical error occurred while managing the download."));
         } finally {
+            timeline.mark("cleanup");
             deleteDirectoryRecursively(currentTempDirRef.get());
             currentTempDirRef.set(null);
             cancellationRequested.set(false);
+            timeline.finish(outcome);
+            space.close();
+            JobRegistry.remove(JobRegistry.MAIN_JOB_ID);
+            MDC.remove("downloadId");
+        }
+    }
+
+    private static Path destinationDir(String destinationPath) {
+        if (destinationPath != null && !destinationPath.isEmpty()) {
+            try {
+                return Paths.get(destinationPath);
+            } catch (InvalidPathException e) {
+                logger.warn("Invalid destination path '{}', using Downloads for space checks", destinationPath);
+            }
+        }
+        return Paths.get(System.getProperty("user.home"), "Downloads");
+    }
+
+    private static Map<String, Object> jobRequest(String url, String formatId, String destinationPath) {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("url", url);
+        request.put("formatId", formatId);
+        request.put("destinationPath", destinationPath);
+        return request;
+    }
+
+    private static void recordJobSuccess(Path outputDir, long jobStart) {
+        recordJobSuccess(outputDir, jobStart, 0);
+    }
+
+    private static void recordJobSuccess(Path outputDir, long jobStart, long alreadyMovedBytes) {
+        Metrics.jobsSucceeded.increment();
+        try (Stream<Path> stream = Files.list(outputDir)) {
+            long bytes = stream.filter(p -> !p.getFileName().toString().startsWith("."))
+                    .filter(Files::isRegularFile)
+                    .mapToLong(p -> p.toFile().length())
+                    .sum();
+            Metrics.recordJob(alreadyMovedBytes + bytes, jobStart);
+        } catch (IOException e) {
+            logger.warn("Could not measure output size in {}", outputDir);
         }
     }
 
@@ -322,7 +805,7 @@ public class DownloadService {
         final Path finalTargetDir = targetDir;
 
         try (Stream<Path> stream = Files.list(sourceDir)) {
-            stream.forEach(path -> {
+            stream.filter(path -> !path.getFileName().toString().startsWith(".")).forEach(path -> {
                 try {
                     Path target = finalTargetDir.resolve(path.getFileName());
                     Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
@@ -337,39 +820,85 @@ public class DownloadService {
     }
 
     private static DownloadResult performDownloadAttempt(String youtubeUrl, boolean isPlaylist, String formatId,
-            String proxyUrl, Session session) {
-        List<String> command = buildDownloadCommand(youtubeUrl, isPlaylist, formatId, currentTempDirRef.get(),
-                proxyUrl);
+            Path outputDir, boolean deferTranscode, String proxyUrl) {
+        JobTimeline timeline = JobTimeline.current();
+        DiskSpaceGuard.Reservation space = DiskSpaceGuard.current();
+        Path infoJson = InfoJsonStore.locate(outputDir, youtubeUrl, isPlaylist);
 
-        int attempts = 0;
-        while (attempts < 3) {
-            attempts++;
+        // הלולאה חוזרת רק כשהעבודה ממתינה למקום בדיסק או כשהמידע השמור נדחה;
+        // ניסיונות חוזרים אחרים נקבעים ב-RetryPolicy
+        while (true) {
+            sendMessage(DownloadMessage.starting());
 
-            sendMessage(session, DownloadMessage.starting());
-
-            waitForUpdateIfNeeded(session);
+            waitForUpdateIfNeeded();
             if (cancellationRequested.get()) {
                 return new DownloadResult(false, "Cancelled", null);
             }
 
+            boolean loadInfo = InfoJsonStore.isReusable(infoJson);
+            if (SegmentedDownloader.isEnabled() && infoJson != null) {
+                boolean fits = prefetchSegmented(buildDownloadCommand(youtubeUrl, isPlaylist, formatId, outputDir,
+                        deferTranscode, proxyUrl, infoJson, loadInfo), proxyUrl, p -> currentProcess = p,
+                        DownloadService::sendMessage, cancellationRequested::get);
+                if (cancellationRequested.get()) {
+                    return new DownloadResult(false, "Cancelled", null);
+                }
+                if (!fits) {
+                    return DownloadResult.failure(ErrorCategory.DISK_FULL, space.getShortage());
+                }
+                loadInfo = InfoJsonStore.isReusable(infoJson);
+            }
+            if (loadInfo) {
+                logger.info("Reusing stored info {} - skipping extraction.", infoJson.getFileName());
+                Metrics.infoJsonReuses.increment();
+            }
+            List<String> command = buildDownloadCommand(youtubeUrl, isPlaylist, formatId, outputDir, deferTranscode,
+                    proxyUrl, infoJson, loadInfo);
             ProcessBuilder processBuilder = new ProcessBuilder(command);
             Process process = null;
 
             try {
+                timeline.mark("spawn");
+                long spawnStart = System.nanoTime();
                 process = processBuilder.start();
+                Metrics.spawnLatencyMs.observe(Metrics.millisSince(spawnStart));
+                Metrics.activeProcesses.incrementAndGet();
                 currentProcess = process;
+                final Process spawned = process;
+                final long spawnedAt = System.nanoTime();
+                final AtomicBoolean firstProgressSeen = new AtomicBoolean(false);
 
-                StringBuilder errorOutput = new StringBuilder();
+                final ErrorLog errors = new ErrorLog();
                 final AtomicReference<String> finalFileName = new AtomicReference<>();
+                final AtomicReference<JsonNode> sourceInfo = new AtomicReference<>();
                 final AtomicBoolean isNetfreeBlocked = new AtomicBoolean(false);
-                final AtomicBoolean isCorruptedBinary = new AtomicBoolean(false);
+                final AtomicReference<DiskSpaceGuard.Verdict> spaceVerdict = new AtomicReference<>(DiskSpaceGuard.Verdict.OK);
+                final AtomicReference<String> sizedItem = new AtomicReference<>();
+                final ProcessLog processLog = new ProcessLog("yt-dlp");
+                final ConcurrentLinkedQueue<String> tagLines = new ConcurrentLinkedQueue<>();
 
                 StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), line -> {
 
                     if (line.startsWith("[debug] ")) {
                         return;
                     }
+                    if (line.startsWith("[youtube]") || line.startsWith("[info]")) {
+                        timeline.mark("extracting");
+                    }
+                    if (line.startsWith(Id3Tagger.TAGS_PREFIX)) {
+                        tagLines.add(line);
+                        return;
+                    }
+                    if (line.startsWith("MPS_SOURCE:")) {
+                        try {
+                            sourceInfo.set(objectMapper.readTree(line.substring("MPS_SOURCE:".length())));
+                        } catch (Exception e) {
+                            logger.error("Failed to parse source line: {}", line, e);
+                        }
+                        return;
+                    }
                     if (line.startsWith("MPS_METADATA:")) {
+                        timeline.mark("metadata");
                         try {
                             String data = line.substring("MPS_METADATA:".length());
                             int splitIndex = data.lastIndexOf("|");
@@ -377,41 +906,63 @@ public class DownloadService {
                                 String title = data.substring(0, splitIndex).trim();
                                 String thumbnail = data.substring(splitIndex + 1).trim();
                                 logger.info("Found metadata - Title: {}, Thumb: {}", title, thumbnail);
-                                sendMessage(session, DownloadMessage.metadata(title, thumbnail));
+                                sendMessage(DownloadMessage.metadata(title, thumbnail));
                             }
                         } catch (Exception e) {
                             logger.error("Failed to parse metadata line: {}", line, e);
                         }
                         return;
                     }
+                    if (line.startsWith(SIZE_PREFIX)) {
+                        checkDiskSpace(line, space, sizedItem, spaceVerdict, spawned);
+                        return;
+                    }
 
-                    logger.info("yt-dlp: {}", line);
+                    ProgressLine progress = ProgressLine.parse(line);
+                    if (progress != null) {
+                        processLog.progress(line, progress.isComplete());
+                        if (!firstProgressSeen.get() && firstProgressSeen.compareAndSet(false, true)) {
+                            Metrics.timeToFirstProgressMs.observe(Metrics.millisSince(spawnedAt));
+                        }
+                        timeline.mark("downloading");
+                        sendMessage(DownloadMessage.progress(progress));
+                        return;
+                    }
 
                     Matcher destinationMatcher = destinationFilePattern.matcher(line);
                     if (destinationMatcher.find()) {
                         finalFileName.set(Paths.get(destinationMatcher.group(1).trim()).getFileName().toString());
                     }
 
-                    Matcher progressMatcher = progressPattern.matcher(line);
-                    if (progressMatcher.find()) {
-                        sendMessage(session,
-                                DownloadMessage.progress(progressMatcher.group(1), progressMatcher.group(2).trim()));
+                    // גיבוי לגרסאות yt-dlp שמתעלמות מ-progress-template
+                    Matcher progressMatcher = line.startsWith("[download]") ? progressPattern.matcher(line) : null;
+                    if (progressMatcher != null && progressMatcher.find()) {
+                        processLog.progress(line, line.contains("100%"));
+                        if (!firstProgressSeen.get() && firstProgressSeen.compareAndSet(false, true)) {
+                            Metrics.timeToFirstProgressMs.observe(Metrics.millisSince(spawnedAt));
+                        }
+                        timeline.mark("downloading");
+                        sendMessage(DownloadMessage.progress(progressMatcher.group(1), progressMatcher.group(2).trim()));
+                    } else {
+                        processLog.line(line);
                     }
 
                     if (isPlaylist) {
                         Matcher playlistMatcher = playlistProgressPattern.matcher(line);
                         if (playlistMatcher.find()) {
-                            sendMessage(session, DownloadMessage.playlistProgress(playlistMatcher.group(1),
+                            sendMessage(DownloadMessage.playlistProgress(playlistMatcher.group(1),
                                     playlistMatcher.group(2)));
                         }
                     }
                     if (line.contains("[Merger] Merging formats")) {
-                        sendMessage(session, DownloadMessage.merging());
+                        timeline.mark("post_processing");
+                        sendMessage(DownloadMessage.merging());
                     } else if (line.startsWith("[ExtractAudio]")
                             || line.startsWith("[ffmpeg]")
                             || line.startsWith("[Metadata]")
                             || line.startsWith("[ThumbnailsConvertor]")) {
-                        sendMessage(session, DownloadMessage.processing());
+                        timeline.mark("post_processing");
+                        sendMessage(DownloadMessage.processing());
                     }
                 });
                 StreamGobbler errorGobbler = new StreamGobbler(process.getErrorStream(), line -> {
@@ -436,31 +987,31 @@ public class DownloadService {
                             || line.contains("Permission denied");
                     if (isStatusLine) {
 
-                        logger.info("yt-dlp-status: {}", line);
+                        processLog.line(line);
                     } else if (isErrorLine) {
 
+                        processLog.error(line);
                         logger.error("yt-dlp-error: {}", line);
-                        errorOutput.append(line).append("\n");
+                        errors.add(line);
+                    } else {
+                        errors.observe(line);
                     }
                     if (line.contains("[Merger] Merging formats")) {
-                        sendMessage(session, DownloadMessage.merging());
+                        timeline.mark("post_processing");
+                        sendMessage(DownloadMessage.merging());
                     } else if (line.startsWith("[ExtractAudio]")
                             || line.startsWith("[ffmpeg]")
                             || line.startsWith("[Metadata]")
                             || line.startsWith("[ThumbnailsConvertor]")) {
-                        sendMessage(session, DownloadMessage.processing());
+                        timeline.mark("post_processing");
+                        sendMessage(DownloadMessage.processing());
                     }
                     if (line.contains("418") || (line.contains("NetFree") && line.contains("Blocked"))) {
                         if (!isNetfreeBlocked.get()) {
                             isNetfreeBlocked.set(true);
-                            sendMessage(session, DownloadMessage.netfreeBlocked());
+                            sendMessage(DownloadMessage.netfreeBlocked());
                         }
                     }
-
-                    if (line.contains("zlib.error") || line.contains("Failed to execute script")
-                            || line.contains("Permission denied")) {
-                        isCorruptedBinary.set(true);
-                    }
                 });
                 ExecutorService gobblerExecutor = Executors.newFixedThreadPool(2);
                 gobblerExecutor.submit(outputGobbler);
@@ -468,48 +1019,154 @@ public class DownloadService {
 
                 int exitCode = process.waitFor();
                 gobblerExecutor.shutdown();
-                gobblerExecutor.awaitTermination(10, TimeUnit.SECONDS);
+                boolean drained = gobblerExecutor.awaitTermination(10, TimeUnit.SECONDS);
                 if (cancellationRequested.get()) {
                     return new DownloadResult(false, "Cancelled", null);
                 }
-                if (exitCode != 0 && (isCorruptedBinary.get() || App.isYtDlpUpdating)) {
-                    logger.warn("Download failed likely due to active update (Exit: {}, Corrupted: {}). Retrying...",
-                            exitCode, isCorruptedBinary.get());
-                    waitForUpdateIfNeeded(session);
-                    continue;
+                if (!drained) {
+                    gobblerExecutor.shutdownNow();
+                    space.drop(sizedItem.get());
+                    return DownloadResult.failure(ErrorCategory.UNKNOWN, OUTPUT_NOT_DRAINED);
                 }
-
-                if (isNetfreeBlocked.get()) {
-                    return new DownloadResult(false, "Blocked by NetFree", null);
+                applyTags(tagLines, timeline);
+                if (spaceVerdict.get() == DiskSpaceGuard.Verdict.NO_SPACE) {
+                    return DownloadResult.failure(ErrorCategory.DISK_FULL, space.getShortage());
+                }
+                if (spaceVerdict.get() == DiskSpaceGuard.Verdict.WAIT) {
+                    // ההורדה עוד לא התחילה - מחכים שעבודות אחרות יסתיימו ומנסים שוב בלי לספור ניסיון
+                    sendMessage(DownloadMessage.diskWait());
+                    if (!space.awaitRoom(cancellationRequested::get)) {
+                        return new DownloadResult(false, "Cancelled", null);
+                    }
+                    continue;
                 }
 
                 if (exitCode == 0) {
-                    return new DownloadResult(true, null, finalFileName.get());
+                    space.settle(sizedItem.get());
+                    InfoJsonStore.discard(infoJson);
+                    return new DownloadResult(true, null, finalFileName.get(), sourceInfo.get());
                 }
 
-                return new DownloadResult(false, errorOutput.toString(), null);
-
-            } catch (Exception e) {
-                if (App.isYtDlpUpdating || e.getMessage().contains("Access is denied")) {
-                    logger.warn("Failed to start process (locked file). Waiting for update...");
-                    waitForUpdateIfNeeded(session);
+                space.drop(sizedItem.get());
+                if (isNetfreeBlocked.get()) {
+                    return DownloadResult.failure(ErrorCategory.NETFREE_BLOCKED, "Blocked by NetFree");
+                }
+                if (loadInfo && !cancellationRequested.get() && InfoJsonStore.isRejection(errors.summary())) {
+                    // המידע השמור פג או לא תואם לפרוקסי הנוכחי - מחלצים מחדש מיד, בלי לספור ניסיון
+                    logger.warn("Stored info was rejected by yt-dlp. Extracting again.");
+                    Metrics.infoJsonRejections.increment();
+                    InfoJsonStore.discard(infoJson);
                     continue;
                 }
+                if (App.isYtDlpUpdating) {
+                    errors.record(ErrorCategory.BINARY_LOCKED);
+                }
+                return DownloadResult.failure(errors.primary(), errors.summary());
 
+            } catch (Exception e) {
                 if (cancellationRequested.get()) {
                     return new DownloadResult(false, "Cancelled", null);
                 }
-                return new DownloadResult(false, e.getMessage(), null);
+                return DownloadResult.failure(spawnFailureCategory(e), String.valueOf(e.getMessage()));
             } finally {
+                if (process != null) {
+                    Metrics.activeProcesses.decrementAndGet();
+                }
                 currentProcess = null;
             }
         }
+    }
 
-        return new DownloadResult(false, "Failed to complete download after retries.", null);
+    // nfmp3.downloader=native: ריצת yt-dlp ראשונה רק מחלצת (ושומרת את קובץ המידע), ה-JVM מוריד את המדיה
+    // במקטעים לשם שהיא הדפיסה, והריצה הרגילה טוענת את המידע, מוצאת את הקובץ וממשיכה לעיבוד בלבד.
+    // כל כשל כאן רק משאיר את ההורדה ל-yt-dlp - הריצה הרגילה היא שמדווחת על שגיאות
+    // false רק כשאין מקום בדיסק להורדה; בכל מקרה אחר ריצת yt-dlp הרגילה ממשיכה מכאן
+    private static boolean prefetchSegmented(List<String> command, String proxyUrl, Consumer<Process> onSpawn,
+            Consumer<DownloadMessage> send, BooleanSupplier cancelled) {
+        List<String> resolve = new ArrayList<>(command);
+        resolve.addAll(1, SegmentedDownloader.resolveArgs());
+        JobTimeline timeline = JobTimeline.current();
+        AtomicReference<String> resolved = new AtomicReference<>();
+        Process process = null;
+        try {
+            timeline.mark("resolving");
+            process = new ProcessBuilder(resolve).redirectErrorStream(true).start();
+            Metrics.activeProcesses.incrementAndGet();
+            onSpawn.accept(process);
+            new StreamGobbler(process.getInputStream(), line -> {
+                if (line.startsWith(SegmentedDownloader.RESOLVED_PREFIX)) {
+                    resolved.set(line);
+                } else if (line.contains("ERROR:")) {
+                    logger.warn("yt-dlp-resolve: {}", line);
+                }
+            }).run();
+            if (process.waitFor() != 0 || resolved.get() == null || cancelled.getAsBoolean()) {
+                return true;
+            }
+        } catch (IOException e) {
+            logger.warn("Could not resolve media URLs: {}", e.getMessage());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } finally {
+            if (process != null) {
+                Metrics.activeProcesses.decrementAndGet();
+            }
+            onSpawn.accept(null);
+        }
+        try {
+            timeline.mark("downloading");
+            return SegmentedDownloader.fetch(resolved.get(), proxyUrl,
+                    progress -> send.accept(DownloadMessage.progress(progress)),
+                    () -> send.accept(DownloadMessage.diskWait()), cancelled) != SegmentedDownloader.Outcome.NO_SPACE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    private static ErrorCategory spawnFailureCategory(Exception e) {
+        if (App.isYtDlpUpdating) {
+            logger.warn("Failed to start process while yt-dlp is updating (locked file).");
+            return ErrorCategory.BINARY_LOCKED;
+        }
+        ErrorCategory category = ErrorCategory.classify(String.valueOf(e.getMessage()));
+        return category != null ? category : ErrorCategory.UNKNOWN;
     }
 
-    private static boolean performUpdate(Session session) {
-        sendMessage(session, DownloadMessage.updateCheck());
+    // MPS_SIZE:<id>|<bytes> מודפס לפני תחילת ההורדה - אם אין מקום, התהליך נעצר לפני שירד משהו
+    private static void checkDiskSpace(String line, DiskSpaceGuard.Reservation space, AtomicReference<String> sizedItem,
+            AtomicReference<DiskSpaceGuard.Verdict> spaceVerdict, Process process) {
+        String data = line.substring(SIZE_PREFIX.length());
+        int splitIndex = data.lastIndexOf('|');
+        if (splitIndex == -1) {
+            return;
+        }
+        String itemKey = data.substring(0, splitIndex).trim();
+        long expectedBytes = 0;
+        try {
+            expectedBytes = (long) Double.parseDouble(data.substring(splitIndex + 1).trim());
+        } catch (NumberFormatException e) {
+            logger.info("No expected size reported for {}, skipping disk space reservation", itemKey);
+        }
+        // בפלייליסט הפריט הקודם כבר נכתב לדיסק
+        String previous = sizedItem.getAndSet(itemKey);
+        if (previous != null && !previous.equals(itemKey)) {
+            space.settle(previous);
+        }
+        DiskSpaceGuard.Verdict verdict = space.require(itemKey, expectedBytes);
+        if (verdict != DiskSpaceGuard.Verdict.OK) {
+            spaceVerdict.set(verdict);
+            killProcessTree(process);
+        }
+    }
+
+    private static boolean performUpdate() {
+        sendMessage(DownloadMessage.updateCheck());
+        if (YtDlpBinary.isUnpacked()) {
+            return YtDlpBinary.update(() -> sendMessage(DownloadMessage.updating()));
+        }
         List<String> command = buildUpdateCommand();
         logger.info("Executing update command: {}", String.join(" ", command));
         try {
@@ -522,7 +1179,7 @@ public class DownloadService {
             StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), line -> {
                 logger.info("yt-dlp-update: {}", line);
                 if (line.contains("Updating to")) {
-                    sendMessage(session, DownloadMessage.updating());
+                    sendMessage(DownloadMessage.updating());
                 }
                 commandOutput.append(line).append("\n");
             });
@@ -550,10 +1207,12 @@ public class DownloadService {
     }
 
     private static List<String> buildDownloadCommand(String youtubeUrl, boolean isPlaylist, String formatId,
-            Path tempOutputDir, String proxyUrl) {
+            Path tempOutputDir, boolean deferTranscode, String proxyUrl, Path infoJson, boolean loadInfo) {
         List<String> command = new ArrayList<>();
-        command.add(PathUtils.getBinDirectory().resolve("yt-dlp.exe").toString());
-        command.add("--verbose");
+        command.add(PathUtils.getYtDlpExecutable().toString());
+        if (ProcessLog.isVerbose()) {
+            command.add("--verbose");
+        }
 
         command.add("--encoding");
         command.add("utf-8");
@@ -566,11 +1225,33 @@ public class DownloadService {
 
         command.add("--no-check-certificates");
         command.add("--progress");
+        command.addAll(ProgressLine.commandArgs());
 
         command.add("--ffmpeg-location");
         command.add(PathUtils.getBinDirectory().resolve("ffmpeg.exe").toString());
         command.add("--print");
         command.add("before_dl:MPS_METADATA:%(title)s|%(thumbnail)s");
+        command.add("--print");
+        command.add("before_dl:" + SIZE_PREFIX + "%(id)s|%(filesize,filesize_approx)s");
+
+        if (deferTranscode && !isPlaylist) {
+            // הורדת מקור בלבד - ההמרה ל-MP3 מתבצעת במאגר ההמרות
+            command.add("--print");
+            command.add("after_move:MPS_SOURCE:%(.{filepath,title,uploader,upload_date,thumbnail,format_id,ext})j");
+            command.add("--output");
+            command.add("source.%(ext)s");
+            command.add("--no-playlist");
+            command.add("-f");
+            command.add("bestaudio");
+            command.add("--write-thumbnail");
+            command.add("--convert-thumbnails");
+            command.add("jpg");
+            command.add("-P");
+            command.add(tempOutputDir.toString());
+            addSource(command, youtubeUrl, infoJson, loadInfo);
+            return command;
+        }
+
         command.add("--output");
         command.add(isPlaylist ? "%(playlist)s/%(playlist_index)s - %(title)s.%(ext)s" : "%(title)s.%(ext)s");
 
@@ -578,8 +1259,7 @@ public class DownloadService {
 
         if (formatId != null && !formatId.isEmpty()) {
             command.add("-f");
-            final String[] fullMetadataFlags = {"--embed-thumbnail", "--embed-metadata", "--add-metadata"};
-            final String[] textOnlyMetadataFlags = {"--embed-metadata", "--add-metadata"};
+            // --add-metadata הוא כינוי של --embed-metadata; ב-MP3 התגיות והעטיפה נכתבות ב-Id3Tagger בלי מעברי ffmpeg נוספים
             switch (formatId) {
                 case "mp3_high":
                 case "mp3_medium":
@@ -597,16 +1277,16 @@ public class DownloadService {
                     } else {
                         command.add("9");
                     }
-                    command.addAll(List.of(fullMetadataFlags));
+                    command.addAll(Id3Tagger.commandArgs());
                     break;
                 case "raw_audio":
                     command.add("bestaudio");
-                    command.addAll(List.of(textOnlyMetadataFlags));
+                    command.add("--embed-metadata");
                     break;
                 default:
 
                     command.add(formatId);
-                    command.addAll(List.of(fullMetadataFlags));
+                    command.addAll(List.of("--embed-thumbnail", "--embed-metadata"));
                     break;
             }
         } else {
@@ -619,32 +1299,37 @@ public class DownloadService {
             command.add("mp3");
             command.add("--audio-quality");
             command.add("0");
-            command.addAll(List.of("--embed-thumbnail", "--embed-metadata", "--add-metadata"));
+            command.addAll(Id3Tagger.commandArgs());
         }
 
         command.add("-P");
         command.add(tempOutputDir.toString());
-        command.add(youtubeUrl);
+        addSource(command, youtubeUrl, infoJson, loadInfo);
         return command;
     }
 
+    // ניסיון ראשון שומר את תוצאת החילוץ; ניסיונות הבאים טוענים אותה ומדלגים ישר להורדת המדיה
+    private static void addSource(List<String> command, String youtubeUrl, Path infoJson, boolean loadInfo) {
+        if (infoJson == null) {
+            command.add(youtubeUrl);
+        } else if (loadInfo) {
+            command.addAll(InfoJsonStore.loadArgs(infoJson));
+        } else {
+            command.addAll(InfoJsonStore.writeArgs());
+            command.add(youtubeUrl);
+        }
+    }
+
     private static List<String> buildUpdateCommand() {
         List<String> command = new ArrayList<>();
-        command.add(PathUtils.getBinDirectory().resolve("yt-dlp.exe").toString());
+        command.add(PathUtils.getYtDlpExecutable().toString());
         command.add("-U");
         command.add("--no-check-certificates");
         return command;
     }
 
-    private static void sendMessage(Session session, DownloadMessage message) {
-        try {
-            if (session != null && session.isOpen()) {
-                String jsonMessage = objectMapper.writeValueAsString(message);
-                session.getRemote().sendString(jsonMessage);
-            }
-        } catch (Exception e) {
-            logger.warn("Failed to send WebSocket message", e);
-        }
+    private static void sendMessage(DownloadMessage message) {
+        JobRegistry.publish(message);
     }
 
     private static void deleteDirectoryRecursively(Path path) {
@@ -682,9 +1367,16 @@ public class DownloadService {
         }
 
         logger.error("Gave up deleting directory after multiple attempts: {}", path);
+        Metrics.tempCleanupFailures.increment();
     }
 
     public static void cancelAdvancedDownload(String downloadId) {
+        RunScheduler.forget(downloadId);
+        if (JobRegistry.detach(downloadId)) {
+            // רק הבקשה הכפולה מבוטלת - העבודה המקורית ממשיכה עבור מי שביקש אותה
+            sendAdvancedMessage(DownloadMessage.cancelled(), downloadId);
+            return;
+        }
         AdvancedContext ctx = advancedDownloadsMap.get(downloadId);
         if (ctx != null) {
 
@@ -701,11 +1393,18 @@ public class DownloadService {
                 logger.info("Cleaning up temp folder for a PAUSED download that was cancelled: {}", ctx.tempDir);
                 deleteDirectoryRecursively(ctx.tempDir);
                 advancedDownloadsMap.remove(downloadId);
+                JobRegistry.remove(downloadId);
             }
         }
     }
 
     public static void pauseAdvancedDownload(String downloadId) {
+        // השהיה ידנית גוברת על החלון - העבודה לא תתחדש לבד
+        RunScheduler.forget(downloadId);
+        pauseAdvanced(downloadId);
+    }
+
+    private static void pauseAdvanced(String downloadId) {
         AdvancedContext ctx = advancedDownloadsMap.get(downloadId);
         if (ctx != null) {
             ctx.pauseRequested.set(true);
@@ -717,11 +1416,52 @@ public class DownloadService {
         }
     }
 
-    public static void startAdvancedDownload(String downloadId, String youtubeUrl, String formatId, String destinationPath, boolean isNetfree, Session session, boolean isVideo, String playlistTitle) {
-        advancedDownloadExecutor.submit(() -> runAdvancedDownloadFlow(downloadId, youtubeUrl, formatId, destinationPath, isNetfree, session, isVideo, playlistTitle));
+    public static void startAdvancedDownload(String downloadId, String youtubeUrl, String formatId, String destinationPath, boolean isNetfree, boolean isVideo, String playlistTitle,
+            RunWindow window) {
+        if (window == null) {
+            startAdvancedDownload(downloadId, youtubeUrl, formatId, destinationPath, isNetfree, isVideo, playlistTitle);
+            return;
+        }
+        // מחוץ לחלון העבודה מושהית כמו בהשהיה רגילה; התיקייה הזמנית נשמרת וההורדה ממשיכה מאותה נקודה
+        RunScheduler.submit(downloadId, window,
+                () -> submitAdvancedDownload(downloadId, youtubeUrl, formatId, destinationPath, isNetfree, isVideo,
+                        playlistTitle, window),
+                () -> pauseAdvanced(downloadId),
+                () -> sendAdvancedMessage(DownloadMessage.scheduled(window.toString()), downloadId));
     }
 
-    private static void runAdvancedDownloadFlow(String downloadId, String youtubeUrl, String formatId, String destinationPath, boolean isNetfree, Session session, boolean isVideo, String playlistTitle) {
+    public static void startAdvancedDownload(String downloadId, String youtubeUrl, String formatId, String destinationPath, boolean isNetfree, boolean isVideo, String playlistTitle) {
+        submitAdvancedDownload(downloadId, youtubeUrl, formatId, destinationPath, isNetfree, isVideo, playlistTitle, null);
+    }
+
+    private static void submitAdvancedDownload(String downloadId, String youtubeUrl, String formatId, String destinationPath,
+            boolean isNetfree, boolean isVideo, String playlistTitle, RunWindow window) {
+        String url = YouTubeUrls.canonical(youtubeUrl);
+        String requestKey = requestKey(url, formatId, destinationPath) + "|" + playlistTitle;
+        String owner = inFlightRequests.putIfAbsent(requestKey, downloadId);
+        if (owner != null && !owner.equals(downloadId) && JobRegistry.attach(downloadId, owner)) {
+            return;
+        }
+        Map<String, Object> jobRequest = jobRequest(youtubeUrl, formatId, destinationPath);
+        jobRequest.put("isVideo", isVideo);
+        jobRequest.put("playlistTitle", playlistTitle);
+        jobRequest.put("isNetfree", isNetfree);
+        JobRegistry.begin(downloadId, "advanced", jobRequest);
+        advancedDownloadExecutor.submit(() -> {
+            try {
+                runAdvancedDownloadFlow(downloadId, url, formatId, destinationPath, isNetfree, isVideo, playlistTitle, window);
+            } finally {
+                inFlightRequests.remove(requestKey, downloadId);
+            }
+        });
+    }
+
+    private static void runAdvancedDownloadFlow(String downloadId, String youtubeUrl, String formatId, String destinationPath, boolean isNetfree, boolean isVideo, String playlistTitle,
+            RunWindow window) {
+        long jobStart = System.nanoTime();
+        JobTimeline timeline = JobTimeline.begin(downloadId, "advanced", youtubeUrl);
+        MDC.put("downloadId", downloadId);
+        String outcome = "error";
         AdvancedContext ctx = new AdvancedContext();
         advancedDownloadsMap.put(downloadId, ctx);
         Path tempDir = Paths.get(System.getProperty("user.home"), "Downloads", ".NFDownloader_Adv_" + downloadId);
@@ -731,101 +1471,231 @@ public class DownloadService {
             String safeTitle = playlistTitle.replaceAll("[\\\\/:*?\"<>|]", "_");
             destinationPath = base.resolve("Playlist - " + safeTitle).toString();
         }
+        DiskSpaceGuard.Reservation space = DiskSpaceGuard.open(downloadId, tempDir, destinationDir(destinationPath));
 
         try {
             Files.createDirectories(tempDir);
 
-            if (App.isYtDlpUpdating) {
-                int waitCounter = 0;
-                while (App.isYtDlpUpdating && waitCounter < 120 && !ctx.cancellationRequested.get()) {
-                    Thread.sleep(500);
-                    waitCounter++;
-                }
+            if (window != null && !window.isOpenNow()) {
+                // העבודה התקבלה בחלון אבל המתינה במאגר עד שנסגר - חונה כמושהית, ו-RunScheduler מפעיל אותה בפתיחה הבאה
+                ctx.pauseRequested.set(true);
+                ctx.cancellationRequested.set(true);
+                outcome = "paused";
+                logger.info("Run window {} closed before advanced download {} started. Parking it as paused.", window,
+                        downloadId);
+                return;
             }
 
+            awaitUpdate(ctx.cancellationRequested::get);
+
             if (ctx.cancellationRequested.get() && !ctx.pauseRequested.get()) {
                 return;
             }
 
-            String proxyUrl = isNetfree ? "http://8.8.8.8:80" : null;
-            DownloadResult result = performAdvancedDownloadAttempt(ctx, downloadId, youtubeUrl, formatId, tempDir, proxyUrl, session, isVideo);
-
-            if (isNetfree && !result.isSuccess() && !ctx.cancellationRequested.get() && !result.getErrorMessage().contains("Requested format is not available")) {
-                proxyUrl = "http://1.1.1.1:80";
-                result = performAdvancedDownloadAttempt(ctx, downloadId, youtubeUrl, formatId, tempDir, proxyUrl, session, isVideo);
+            String proxyUrl = isNetfree ? PRIMARY_PROXY : null;
+            // עדכון yt-dlp לא מופעל מכאן - הקובץ משותף להורדות מקבילות
+            RetryPolicy.Tracker retry = RetryPolicy.track(isNetfree, false);
+            DownloadResult result = performAdvancedDownloadWithSpace(ctx, space, downloadId, youtubeUrl, formatId, tempDir, proxyUrl, isVideo);
+            while (!result.isSuccess() && !ctx.cancellationRequested.get()) {
+                RetryPolicy.Action action = retry.next(result.getErrorCategory());
+                if (action == RetryPolicy.Action.FAIL) {
+                    break;
+                }
+                if (action == RetryPolicy.Action.SWITCH_PROXY) {
+                    Metrics.proxyFallbacks.increment();
+                    proxyUrl = FALLBACK_PROXY;
+                } else if (action == RetryPolicy.Action.WAIT_FOR_UPDATE) {
+                    Metrics.retries.increment();
+                    awaitUpdate(ctx.cancellationRequested::get);
+                } else if (action == RetryPolicy.Action.BACKOFF) {
+                    Metrics.retries.increment();
+                    sleepUnlessCancelled(retry.getBackoffMillis(), ctx.cancellationRequested::get);
+                }
+                if (ctx.cancellationRequested.get()) {
+                    break;
+                }
+                result = performAdvancedDownloadWithSpace(ctx, space, downloadId, youtubeUrl, formatId, tempDir, proxyUrl, isVideo);
             }
 
             if (ctx.pauseRequested.get()) {
+                outcome = "paused";
                 logger.info("Advanced download {} paused.", downloadId);
                 return;
             }
 
             if (ctx.cancellationRequested.get()) {
-                sendAdvancedMessage(session, DownloadMessage.cancelled(), downloadId);
+                outcome = "cancelled";
+                sendAdvancedMessage(DownloadMessage.cancelled(), downloadId);
             } else if (result.isSuccess()) {
+                outcome = "success";
+                recordJobSuccess(tempDir, jobStart);
+                timeline.mark("moving");
                 moveFinalFiles(tempDir, destinationPath);
                 Path finalDest = (destinationPath != null && !destinationPath.isEmpty()) ? Paths.get(destinationPath) : Paths.get(System.getProperty("user.home"), "Downloads");
-                sendAdvancedMessage(session, DownloadMessage.success(finalDest.toString()), downloadId);
+                sendAdvancedMessage(DownloadMessage.success(finalDest.toString()), downloadId);
             } else {
-                sendAdvancedMessage(session, DownloadMessage.error(result.getErrorMessage()), downloadId);
+                Metrics.jobsFailed.increment();
+                sendAdvancedMessage(DownloadMessage.error(result.getErrorMessage()), downloadId);
             }
         } catch (Exception e) {
             logger.error("Advanced download flow error", e);
-            sendAdvancedMessage(session, DownloadMessage.error("Critical error in advanced download"), downloadId);
+            sendAdvancedMessage(DownloadMessage.error("Critical error in advanced download"), downloadId);
         } finally {
             if (!ctx.pauseRequested.get()) {
+                RunScheduler.finished(downloadId);
+                timeline.mark("cleanup");
                 advancedDownloadsMap.remove(downloadId);
                 deleteDirectoryRecursively(tempDir);
+                JobRegistry.remove(downloadId);
+            } else {
+                JobRegistry.markPaused(downloadId);
+            }
+            timeline.finish(outcome);
+            space.close();
+            MDC.remove("downloadId");
+        }
+    }
+
+    private static void awaitUpdate(BooleanSupplier cancelled) throws InterruptedException {
+        int waitCounter = 0;
+        while (App.isYtDlpUpdating && waitCounter < 120 && !cancelled.getAsBoolean()) {
+            Thread.sleep(500);
+            waitCounter++;
+        }
+    }
+
+    private static DownloadResult performAdvancedDownloadWithSpace(AdvancedContext ctx, DiskSpaceGuard.Reservation space,
+            String downloadId, String youtubeUrl, String formatId, Path tempDir, String proxyUrl, boolean isVideo) {
+        Path infoJson = InfoJsonStore.locate(tempDir, youtubeUrl, false);
+        while (true) {
+            boolean loadInfo = InfoJsonStore.isReusable(infoJson);
+            if (SegmentedDownloader.isEnabled() && infoJson != null) {
+                boolean fits = prefetchSegmented(buildDownloadCommand(youtubeUrl, false, formatId, tempDir, false,
+                        proxyUrl, infoJson, loadInfo), proxyUrl, p -> ctx.process = p,
+                        m -> sendAdvancedMessage(m, downloadId), ctx.cancellationRequested::get);
+                if (ctx.cancellationRequested.get()) {
+                    return new DownloadResult(false, "Cancelled", null);
+                }
+                if (!fits) {
+                    return DownloadResult.failure(ErrorCategory.DISK_FULL, space.getShortage());
+                }
+                loadInfo = InfoJsonStore.isReusable(infoJson);
+            }
+            if (loadInfo) {
+                logger.info("Reusing stored info {} - skipping extraction.", infoJson.getFileName());
+                Metrics.infoJsonReuses.increment();
+            }
+            DownloadResult result = performAdvancedDownloadAttempt(ctx, downloadId, youtubeUrl, formatId, tempDir, proxyUrl, isVideo, infoJson, loadInfo);
+            if (loadInfo && !result.isSuccess() && !ctx.cancellationRequested.get()
+                    && InfoJsonStore.isRejection(result.getErrorMessage())) {
+                logger.warn("Stored info for {} was rejected by yt-dlp. Extracting again.", downloadId);
+                Metrics.infoJsonRejections.increment();
+                InfoJsonStore.discard(infoJson);
+                continue;
+            }
+            if (!DISK_WAIT.equals(result.getErrorMessage())) {
+                return result;
+            }
+            sendAdvancedMessage(DownloadMessage.diskWait(), downloadId);
+            if (!space.awaitRoom(ctx.cancellationRequested::get)) {
+                return new DownloadResult(false, "Cancelled", null);
             }
         }
     }
 
-    private static DownloadResult performAdvancedDownloadAttempt(AdvancedContext ctx, String downloadId, String youtubeUrl, String formatId, Path tempDir, String proxyUrl, Session session, boolean isVideo) {
+    private static DownloadResult performAdvancedDownloadAttempt(AdvancedContext ctx, String downloadId, String youtubeUrl, String formatId, Path tempDir, String proxyUrl, boolean isVideo,
+            Path infoJson, boolean loadInfo) {
 
-        List<String> command = buildDownloadCommand(youtubeUrl, false, formatId, tempDir, proxyUrl);
+        List<String> command = buildDownloadCommand(youtubeUrl, false, formatId, tempDir, false, proxyUrl, infoJson, loadInfo);
+        JobTimeline timeline = JobTimeline.current();
+        DiskSpaceGuard.Reservation space = DiskSpaceGuard.current();
 
         ProcessBuilder processBuilder = new ProcessBuilder(command);
+        boolean started = false;
         try {
+            timeline.mark("spawn");
+            long spawnStart = System.nanoTime();
             Process process = processBuilder.start();
+            Metrics.spawnLatencyMs.observe(Metrics.millisSince(spawnStart));
+            Metrics.activeProcesses.incrementAndGet();
+            started = true;
             ctx.process = process;
+            final long spawnedAt = System.nanoTime();
+            final AtomicBoolean firstProgressSeen = new AtomicBoolean(false);
 
-            StringBuilder errorOutput = new StringBuilder();
+            ErrorLog errors = new ErrorLog();
             AtomicReference<String> finalFileName = new AtomicReference<>();
             AtomicBoolean isNetfreeBlocked = new AtomicBoolean(false);
+            AtomicReference<DiskSpaceGuard.Verdict> spaceVerdict = new AtomicReference<>(DiskSpaceGuard.Verdict.OK);
+            AtomicReference<String> sizedItem = new AtomicReference<>();
+            ProcessLog processLog = new ProcessLog("yt-dlp");
+            ConcurrentLinkedQueue<String> tagLines = new ConcurrentLinkedQueue<>();
 
             StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), line -> {
                 if (line.startsWith("[debug] ")) {
                     return;
                 }
 
+                if (line.startsWith("[youtube]") || line.startsWith("[info]")) {
+                    timeline.mark("extracting");
+                }
+                if (line.startsWith(Id3Tagger.TAGS_PREFIX)) {
+                    tagLines.add(line);
+                    return;
+                }
                 if (line.startsWith("MPS_METADATA:")) {
+                    timeline.mark("metadata");
                     try {
                         String data = line.substring("MPS_METADATA:".length());
                         int splitIndex = data.lastIndexOf("|");
                         if (splitIndex != -1) {
                             String title = data.substring(0, splitIndex).trim();
                             String thumbnail = data.substring(splitIndex + 1).trim();
-                            sendAdvancedMessage(session, DownloadMessage.metadata(title, thumbnail), downloadId);
+                            sendAdvancedMessage(DownloadMessage.metadata(title, thumbnail), downloadId);
                         }
                     } catch (Exception e) {
                     }
                     return;
                 }
+                if (line.startsWith(SIZE_PREFIX)) {
+                    checkDiskSpace(line, space, sizedItem, spaceVerdict, process);
+                    return;
+                }
+
+                ProgressLine progress = ProgressLine.parse(line);
+                if (progress != null) {
+                    processLog.progress(line, progress.isComplete());
+                    if (!firstProgressSeen.get() && firstProgressSeen.compareAndSet(false, true)) {
+                        Metrics.timeToFirstProgressMs.observe(Metrics.millisSince(spawnedAt));
+                    }
+                    timeline.mark("downloading");
+                    sendAdvancedMessage(DownloadMessage.progress(progress), downloadId);
+                    return;
+                }
 
                 Matcher destinationMatcher = destinationFilePattern.matcher(line);
                 if (destinationMatcher.find()) {
                     finalFileName.set(Paths.get(destinationMatcher.group(1).trim()).getFileName().toString());
                 }
 
-                Matcher progressMatcher = progressPattern.matcher(line);
-                if (progressMatcher.find()) {
-                    sendAdvancedMessage(session, DownloadMessage.progress(progressMatcher.group(1), progressMatcher.group(2).trim()), downloadId);
+                Matcher progressMatcher = line.startsWith("[download]") ? progressPattern.matcher(line) : null;
+                if (progressMatcher != null && progressMatcher.find()) {
+                    processLog.progress(line, line.contains("100%"));
+                    if (!firstProgressSeen.get() && firstProgressSeen.compareAndSet(false, true)) {
+                        Metrics.timeToFirstProgressMs.observe(Metrics.millisSince(spawnedAt));
+                    }
+                    timeline.mark("downloading");
+                    sendAdvancedMessage(DownloadMessage.progress(progressMatcher.group(1), progressMatcher.group(2).trim()), downloadId);
+                } else {
+                    processLog.line(line);
                 }
 
                 if (line.contains("[Merger] Merging formats")) {
-                    sendAdvancedMessage(session, DownloadMessage.merging(), downloadId);
+                    timeline.mark("post_processing");
+                    sendAdvancedMessage(DownloadMessage.merging(), downloadId);
                 } else if (line.startsWith("[ExtractAudio]") || line.startsWith("[ffmpeg]") || line.startsWith("[Metadata]") || line.startsWith("[ThumbnailsConvertor]")) {
-                    sendAdvancedMessage(session, DownloadMessage.processing(), downloadId);
+                    timeline.mark("post_processing");
+                    sendAdvancedMessage(DownloadMessage.processing(), downloadId);
                 }
             });
 
@@ -835,14 +1705,20 @@ public class DownloadService {
                 }
                 boolean isErrorLine = line.contains("ERROR:") || line.contains("WARNING:") || line.contains("NetFree") || line.contains("418") || line.contains("Permission denied");
                 if (isErrorLine) {
-                    errorOutput.append(line).append("\n");
+                    errors.add(line);
+                    processLog.error(line);
                     logger.error("Adv-Error [{}]: {}", downloadId, line);
+                } else {
+                    errors.observe(line);
+                    processLog.line(line);
                 }
 
                 if (line.contains("[Merger]")) {
-                    sendAdvancedMessage(session, DownloadMessage.merging(), downloadId);
+                    timeline.mark("post_processing");
+                    sendAdvancedMessage(DownloadMessage.merging(), downloadId);
                 } else if (line.startsWith("[ExtractAudio]") || line.startsWith("[ffmpeg]") || line.startsWith("[Metadata]")) {
-                    sendAdvancedMessage(session, DownloadMessage.processing(), downloadId);
+                    timeline.mark("post_processing");
+                    sendAdvancedMessage(DownloadMessage.processing(), downloadId);
                 }
 
                 if (line.contains("418") || (line.contains("NetFree") && line.contains("Blocked"))) {
@@ -856,29 +1732,59 @@ public class DownloadService {
 
             int exitCode = process.waitFor();
             gobblerExecutor.shutdown();
+            // שורות השגיאה האחרונות קובעות את הסיווג - מחכים שייקראו עד הסוף
+            boolean drained = gobblerExecutor.awaitTermination(10, TimeUnit.SECONDS);
 
             if (ctx.cancellationRequested.get()) {
                 return new DownloadResult(false, "Cancelled", null);
             }
-            if (isNetfreeBlocked.get()) {
-                return new DownloadResult(false, "Blocked by NetFree", null);
+            if (!drained) {
+                gobblerExecutor.shutdownNow();
+                space.drop(sizedItem.get());
+                return DownloadResult.failure(ErrorCategory.UNKNOWN, OUTPUT_NOT_DRAINED);
+            }
+            applyTags(tagLines, timeline);
+            if (spaceVerdict.get() == DiskSpaceGuard.Verdict.NO_SPACE) {
+                return DownloadResult.failure(ErrorCategory.DISK_FULL, space.getShortage());
             }
-            if (exitCode == 0) {
+            if (spaceVerdict.get() == DiskSpaceGuard.Verdict.WAIT) {
+                return new DownloadResult(false, DISK_WAIT, null);
+            }
+            if (exitCode == 0 && !isNetfreeBlocked.get()) {
+                space.settle(sizedItem.get());
                 return new DownloadResult(true, null, finalFileName.get());
             }
-
-            return new DownloadResult(false, errorOutput.toString(), null);
+            space.drop(sizedItem.get());
+            if (isNetfreeBlocked.get()) {
+                return DownloadResult.failure(ErrorCategory.NETFREE_BLOCKED, "Blocked by NetFree");
+            }
+            if (App.isYtDlpUpdating) {
+                errors.record(ErrorCategory.BINARY_LOCKED);
+            }
+            return DownloadResult.failure(errors.primary(), errors.summary());
 
         } catch (Exception e) {
-            return new DownloadResult(false, e.getMessage(), null);
+            return DownloadResult.failure(spawnFailureCategory(e), String.valueOf(e.getMessage()));
         } finally {
+            if (started) {
+                Metrics.activeProcesses.decrementAndGet();
+            }
             ctx.process = null;
         }
     }
 
-    private static void sendAdvancedMessage(Session session, DownloadMessage message, String downloadId) {
+    // התיוג רץ בתהליכון ההורדה אחרי שכל הפלט נקרא - לא בזמן ש-yt-dlp עוד רץ, ולפני שהקובץ מועבר ליעד
+    private static void applyTags(ConcurrentLinkedQueue<String> tagLines, JobTimeline timeline) {
+        String line;
+        while ((line = tagLines.poll()) != null) {
+            timeline.mark("tagging");
+            Id3Tagger.apply(line);
+        }
+    }
+
+    private static void sendAdvancedMessage(DownloadMessage message, String downloadId) {
         message.setDownloadId(downloadId);
-        sendMessage(session, message);
+        sendMessage(message);
     }
 
     private static class AdvancedContext {
@@ -893,18 +1799,25 @@ public class DownloadService {
 
         private final BufferedReader reader;
         private final Consumer<String> consumer;
+        private final Map<String, String> mdcContext;
 
         public StreamGobbler(java.io.InputStream inputStream, Consumer<String> consumer) {
             this.reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
             this.consumer = consumer;
+            this.mdcContext = MDC.getCopyOfContextMap();
         }
 
         @Override
         public void run() {
+            if (mdcContext != null) {
+                MDC.setContextMap(mdcContext);
+            }
             try {
                 reader.lines().forEach(consumer);
             } catch (Exception e) {
                 logger.warn("StreamGobbler interrupted, likely due to process cancellation.");
+            } finally {
+                MDC.clear();
             }
         }
     }
@@ -914,11 +1827,28 @@ public class DownloadService {
         private final boolean success;
         private final String errorMessage;
         private final String finalFileName;
+        private final JsonNode sourceInfo;
+        private final ErrorCategory errorCategory;
 
         public DownloadResult(boolean success, String errorMessage, String finalFileName) {
+            this(success, errorMessage, finalFileName, null);
+        }
+
+        public DownloadResult(boolean success, String errorMessage, String finalFileName, JsonNode sourceInfo) {
+            this(success, errorMessage, finalFileName, sourceInfo, success ? null : ErrorCategory.UNKNOWN);
+        }
+
+        private DownloadResult(boolean success, String errorMessage, String finalFileName, JsonNode sourceInfo,
+                ErrorCategory errorCategory) {
             this.success = success;
             this.errorMessage = errorMessage == null ? "" : errorMessage;
             this.finalFileName = finalFileName;
+            this.sourceInfo = sourceInfo;
+            this.errorCategory = errorCategory;
+        }
+
+        static DownloadResult failure(ErrorCategory category, String errorMessage) {
+            return new DownloadResult(false, errorMessage, null, null, category);
         }
 
         public boolean isSuccess() {
@@ -932,5 +1862,13 @@ public class DownloadService {
         public String getFinalFileName() {
             return finalFileName;
         }
+
+        public JsonNode getSourceInfo() {
+            return sourceInfo;
+        }
+
+        public ErrorCategory getErrorCategory() {
+            return errorCategory;
+        }
     }
 }
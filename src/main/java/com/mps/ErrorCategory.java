@@ -0,0 +1,46 @@
+package com.mps;
+
+public enum ErrorCategory {
+
+    // הסדר קובע עדיפות: כשנראו כמה סוגי שגיאות, הראשון ברשימה הוא שקובע את המדיניות
+    DISK_FULL(false, "No space left on device", "Not enough disk space", "There is not enough space on the disk"),
+    CORRUPTED_BINARY(false, "zlib.error", "Failed to execute script", "Permission denied"),
+    BINARY_LOCKED(false, "Access is denied", "being used by another process"),
+    NETFREE_BLOCKED(false, "418", "Blocked by NetFree"),
+    OUTDATED_EXTRACTOR(true, "Requested format is not available", "Signature extraction failed",
+            "nsig extraction failed", "Unable to extract"),
+    VIDEO_UNAVAILABLE(true, "Video unavailable", "Private video", "This video has been removed", "members-only",
+            "Join this channel", "This live event will begin", "Sign in to confirm your age", "Unsupported URL",
+            "is not a valid URL", "Incomplete YouTube ID"),
+    RATE_LIMITED(true, "HTTP Error 429", "Too Many Requests", "not a bot"),
+    NETWORK(true, "timed out", "Connection reset", "Connection refused", "Unable to download webpage",
+            "getaddrinfo failed", "Temporary failure in name resolution", "HTTP Error 5", "IncompleteRead",
+            "Remote end closed connection", "Unable to connect to proxy"),
+    UNKNOWN(false);
+
+    private final boolean errorLinesOnly;
+    private final String[] needles;
+
+    ErrorCategory(boolean errorLinesOnly, String... needles) {
+        this.errorLinesOnly = errorLinesOnly;
+        this.needles = needles;
+    }
+
+    public static ErrorCategory classify(String line) {
+        if (line == null || line.isEmpty()) {
+            return null;
+        }
+        boolean isErrorLine = line.contains("ERROR:");
+        for (ErrorCategory category : values()) {
+            if (category.errorLinesOnly && !isErrorLine) {
+                continue;
+            }
+            for (String needle : category.needles) {
+                if (line.contains(needle)) {
+                    return category;
+                }
+            }
+        }
+        return null;
+    }
+}
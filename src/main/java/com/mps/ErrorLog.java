@@ -0,0 +1,57 @@
+package com.mps;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Set;
+
+public class ErrorLog {
+
+    private static final int CAPACITY = Integer.getInteger("nfmp3.errors.capacity", 40);
+    private static final int MAX_LINE_LENGTH = 500;
+
+    // שורות השגיאה האחרונות בלבד - תהליך שמציף את stderr לא מנפח את הזיכרון
+    private final ArrayDeque<String> lines = new ArrayDeque<>();
+    private final Set<ErrorCategory> seen = EnumSet.noneOf(ErrorCategory.class);
+    private int dropped = 0;
+
+    public synchronized ErrorCategory add(String line) {
+        lines.addLast(line.length() > MAX_LINE_LENGTH ? line.substring(0, MAX_LINE_LENGTH) + "..." : line);
+        if (lines.size() > CAPACITY) {
+            lines.removeFirst();
+            dropped++;
+        }
+        return observe(line);
+    }
+
+    // מסווג בלי לשמור - לשורות stdout שמעידות על סוג הכישלון
+    public synchronized ErrorCategory observe(String line) {
+        ErrorCategory category = ErrorCategory.classify(line);
+        if (category != null) {
+            seen.add(category);
+        }
+        return category;
+    }
+
+    public synchronized void record(ErrorCategory category) {
+        seen.add(category);
+    }
+
+    public synchronized boolean has(ErrorCategory category) {
+        return seen.contains(category);
+    }
+
+    public synchronized ErrorCategory primary() {
+        return seen.isEmpty() ? ErrorCategory.UNKNOWN : seen.iterator().next();
+    }
+
+    public synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        if (dropped > 0) {
+            sb.append("(").append(dropped).append(" earlier error lines omitted)\n");
+        }
+        for (String line : lines) {
+            sb.append(line).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,209 @@
+package com.mps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// כותב תגיות ID3v2.3 ותמונת עטיפה ל-MP3 בתוך ה-JVM, במקום שני מעברי ffmpeg של yt-dlp
+// (--embed-metadata ו---embed-thumbnail) שכל אחד מהם כותב מחדש את כל הקובץ.
+// אם לתגית הקיימת יש מספיק מקום (כולל ריפוד) רק אזור הכותרת נכתב; אחרת הקובץ מועתק פעם אחת עם ריפוד לפעם הבאה
+public class Id3Tagger {
+
+    private static final Logger logger = LoggerFactory.getLogger(Id3Tagger.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    public static final String TAGS_PREFIX = "MPS_TAGS:";
+    private static final int PADDING = 2048;
+    private static final int HEADER_SIZE = 10;
+    // הערכה: מספר מעברי ffmpeg על הקובץ כולו שהתיוג הזה מחליף (נכון ל-embed-thumbnail + embed-metadata)
+    private static final int REPLACED_PASSES = 2;
+
+    private static final Map<String, String> FRAMES = new LinkedHashMap<>();
+
+    static {
+        FRAMES.put("title", "TIT2");
+        FRAMES.put("artist", "TPE1");
+        FRAMES.put("album", "TALB");
+        FRAMES.put("date", "TYER");
+    }
+
+    // במקום --embed-thumbnail/--embed-metadata/--add-metadata: התמונה נשמרת ליד הקובץ והשדות מודפסים אחרי ההעברה
+    public static List<String> commandArgs() {
+        return List.of("--write-thumbnail", "--convert-thumbnails", "jpg",
+                "--print", "after_move:" + TAGS_PREFIX + "%(.{filepath,title,uploader,upload_date,album})j");
+    }
+
+    // נקרא משורת MPS_TAGS של yt-dlp; התמונה נמחקת בכל מקרה כדי שלא תועבר ליעד
+    public static void apply(String line) {
+        JsonNode info;
+        try {
+            info = objectMapper.readTree(line.substring(TAGS_PREFIX.length()));
+        } catch (IOException e) {
+            logger.error("Failed to parse tags line: {}", line, e);
+            return;
+        }
+        String filepath = info.path("filepath").asText(null);
+        if (filepath == null || !filepath.toLowerCase().endsWith(".mp3")) {
+            return;
+        }
+        Path mp3 = Paths.get(filepath);
+        Path cover = mp3.resolveSibling(mp3.getFileName().toString().replaceAll("(?i)\\.mp3$", ".jpg"));
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("title", info.path("title").asText(null));
+        tags.put("artist", info.path("uploader").asText(null));
+        tags.put("album", info.path("album").asText(null));
+        tags.put("date", info.path("upload_date").asText(null));
+        try {
+            long start = System.nanoTime();
+            long size = Files.size(mp3);
+            long written = write(mp3, tags, Files.isRegularFile(cover) ? cover : null);
+            long estimatedSaving = REPLACED_PASSES * size - written;
+            Metrics.id3Tagged.increment();
+            Metrics.id3BytesSavedEstimate.add(Math.max(0, estimatedSaving));
+            logger.info("Tagged {} in {} ms: wrote {} of {} bytes ({}), an estimated {} bytes less than {} ffmpeg passes",
+                    mp3.getFileName(), (long) Metrics.millisSince(start), written, size,
+                    written < size ? "header only" : "one copy", estimatedSaving, REPLACED_PASSES);
+        } catch (IOException e) {
+            logger.error("Failed to write ID3 tags to {}", mp3, e);
+        } finally {
+            try {
+                Files.deleteIfExists(cover);
+            } catch (IOException e) {
+                logger.warn("Could not delete thumbnail {}", cover);
+            }
+        }
+    }
+
+    // מחזיר כמה בתים נכתבו בפועל
+    public static long write(Path mp3, Map<String, String> tags, Path cover) throws IOException {
+        byte[] frames = buildFrames(tags, cover != null ? Files.readAllBytes(cover) : null);
+        long region;
+        try (FileChannel channel = FileChannel.open(mp3, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            region = existingTagRegion(channel);
+            if (HEADER_SIZE + frames.length <= region) {
+                // נכנס במקום הקיים - הריפוד משלים לאותו גודל והאודיו לא זז
+                ByteBuffer tag = tag(frames, (int) region - HEADER_SIZE);
+                channel.write(tag, 0);
+                Metrics.id3InPlace.increment();
+                return region;
+            }
+        }
+        Path tmp = mp3.resolveSibling("." + mp3.getFileName() + ".id3tmp");
+        try {
+            long written;
+            try (FileChannel source = FileChannel.open(mp3, StandardOpenOption.READ);
+                    FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer tag = tag(frames, frames.length + PADDING);
+                int tagLength = tag.remaining();
+                target.write(tag);
+                long position = region;
+                long size = source.size();
+                while (position < size) {
+                    position += source.transferTo(position, size - position, target);
+                }
+                target.force(true);
+                written = tagLength + size - region;
+            }
+            // ב-Windows אי אפשר להחליף קובץ שעדיין פתוח - ההעברה רק אחרי ששני הערוצים נסגרו
+            Files.move(tmp, mp3, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return written;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // גודל התגית שבתחילת הקובץ כולל ריפוד ו-footer, או 0 אם אין
+    private static long existingTagRegion(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        byte[] b = header.array();
+        if (header.position() < HEADER_SIZE || b[0] != 'I' || b[1] != 'D' || b[2] != '3') {
+            return 0;
+        }
+        long size = ((b[6] & 0x7f) << 21) | ((b[7] & 0x7f) << 14) | ((b[8] & 0x7f) << 7) | (b[9] & 0x7f);
+        boolean footer = b[3] == 4 && (b[5] & 0x10) != 0;
+        return HEADER_SIZE + size + (footer ? HEADER_SIZE : 0);
+    }
+
+    private static ByteBuffer tag(byte[] frames, int bodySize) {
+        ByteBuffer tag = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        tag.put(new byte[] { 'I', 'D', '3', 3, 0, 0 });
+        tag.put((byte) ((bodySize >> 21) & 0x7f));
+        tag.put((byte) ((bodySize >> 14) & 0x7f));
+        tag.put((byte) ((bodySize >> 7) & 0x7f));
+        tag.put((byte) (bodySize & 0x7f));
+        tag.put(frames);
+        // השאר אפסים = ריפוד
+        tag.position(0);
+        return tag;
+    }
+
+    private static byte[] buildFrames(Map<String, String> tags, byte[] cover) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> frame : FRAMES.entrySet()) {
+            String value = tags.get(frame.getKey());
+            if (value == null || value.trim().isEmpty()) {
+                continue;
+            }
+            if ("date".equals(frame.getKey())) {
+                if (value.length() < 4) {
+                    continue;
+                }
+                value = value.substring(0, 4);
+            }
+            writeFrame(out, frame.getValue(), text(value.trim()));
+        }
+        if (cover != null && cover.length > 0) {
+            ByteArrayOutputStream apic = new ByteArrayOutputStream();
+            apic.write(0);
+            apic.write("image/jpeg".getBytes(StandardCharsets.ISO_8859_1));
+            apic.write(0);
+            apic.write(3); // עטיפה קדמית
+            apic.write(0); // תיאור ריק
+            apic.write(cover);
+            writeFrame(out, "APIC", apic.toByteArray());
+        }
+        return out.toByteArray();
+    }
+
+    // ISO-8859-1 כשאפשר, אחרת UTF-16 עם BOM (עברית) - ב-ID3v2.3 אין UTF-8
+    private static byte[] text(String value) {
+        if (StandardCharsets.ISO_8859_1.newEncoder().canEncode(value)) {
+            byte[] latin = value.getBytes(StandardCharsets.ISO_8859_1);
+            byte[] data = new byte[latin.length + 1];
+            System.arraycopy(latin, 0, data, 1, latin.length);
+            return data;
+        }
+        byte[] utf16 = value.getBytes(StandardCharsets.UTF_16LE);
+        byte[] data = new byte[utf16.length + 3];
+        data[0] = 1;
+        data[1] = (byte) 0xff;
+        data[2] = (byte) 0xfe;
+        System.arraycopy(utf16, 0, data, 3, utf16.length);
+        return data;
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, String id, byte[] data) throws IOException {
+        out.write(id.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(ByteBuffer.allocate(4).putInt(data.length).array());
+        out.write(0);
+        out.write(0);
+        out.write(data);
+    }
+}
@@ -0,0 +1,248 @@
+package com.mps;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ImageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageCache.class);
+    private static final long MAX_MEMORY_BYTES = Long.getLong("nfmp3.imageCache.memoryBytes", 32L * 1024 * 1024);
+    private static final long MAX_DISK_BYTES = Long.getLong("nfmp3.imageCache.diskBytes", 128L * 1024 * 1024);
+    private static final int MAX_DIMENSION = 4096;
+
+    private static final LinkedHashMap<String, Variant> memoryCache = new LinkedHashMap<>(16, 0.75f, true);
+    private static long memoryBytes = 0;
+
+    public static Variant getVariant(Path source, int maxWidth, int maxHeight) throws IOException {
+        long lastModified = Files.getLastModifiedTime(source).toMillis();
+        long size = Files.size(source);
+        String mimeType = mimeTypeOf(source);
+        String key = hash(source.toAbsolutePath() + "|" + size + "|" + lastModified + "|" + maxWidth + "x" + maxHeight);
+
+        if (maxWidth <= 0 && maxHeight <= 0) {
+            return new Variant(key, mimeType, lastModified, null, source);
+        }
+
+        synchronized (ImageCache.class) {
+            Variant cached = memoryCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        for (String ext : new String[]{"jpg", "png"}) {
+            Path diskFile = getCacheDirectory().resolve(key + "." + ext);
+            if (Files.exists(diskFile)) {
+                Variant variant = new Variant(key, "png".equals(ext) ? "image/png" : "image/jpeg", lastModified,
+                        Files.readAllBytes(diskFile), null);
+                Files.setLastModifiedTime(diskFile, FileTime.fromMillis(System.currentTimeMillis()));
+                remember(variant);
+                return variant;
+            }
+        }
+
+        Variant variant = resize(source, key, mimeType, lastModified, maxWidth, maxHeight);
+        if (variant.data != null) {
+            String ext = "image/png".equals(variant.mimeType) ? "png" : "jpg";
+            writeToDisk(getCacheDirectory().resolve(key + "." + ext), variant);
+            remember(variant);
+        }
+        return variant;
+    }
+
+    public static Path getCacheDirectory() {
+        return PathUtils.getAppDataDirectory().resolve("NFmp3Downloader").resolve("cache").resolve("images");
+    }
+
+    public static String mimeTypeOf(Path path) throws IOException {
+        String mimeType = Files.probeContentType(path);
+        if (mimeType != null) {
+            return mimeType;
+        }
+        String lowerPath = path.toString().toLowerCase();
+        if (lowerPath.endsWith(".png")) {
+            return "image/png";
+        } else if (lowerPath.endsWith(".gif")) {
+            return "image/gif";
+        } else if (lowerPath.endsWith(".webp")) {
+            return "image/webp";
+        }
+        return "image/jpeg";
+    }
+
+    private static Variant resize(Path source, String key, String mimeType, long lastModified, int maxWidth,
+            int maxHeight) throws IOException {
+        BufferedImage original = ImageIO.read(source.toFile());
+        if (original == null) {
+            // פורמט שאינו נתמך ע"י ImageIO (למשל webp) - מגישים את המקור
+            return new Variant(key, mimeType, lastModified, null, source);
+        }
+        int width = original.getWidth();
+        int height = original.getHeight();
+        double scale = 1.0;
+        if (maxWidth > 0 && width > maxWidth) {
+            scale = Math.min(scale, (double) maxWidth / width);
+        }
+        if (maxHeight > 0 && height > maxHeight) {
+            scale = Math.min(scale, (double) maxHeight / height);
+        }
+        if (scale >= 1.0) {
+            return new Variant(key, mimeType, lastModified, null, source);
+        }
+
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        boolean hasAlpha = original.getColorModel().hasAlpha();
+        BufferedImage scaled = new BufferedImage(targetWidth, targetHeight,
+                hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(original, 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            g.dispose();
+        }
+
+        String format = hasAlpha ? "png" : "jpg";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(scaled, format, out);
+        logger.info("Generated {}x{} variant of {} ({} bytes)", targetWidth, targetHeight, source.getFileName(), out.size());
+        return new Variant(key, hasAlpha ? "image/png" : "image/jpeg", lastModified, out.toByteArray(), null);
+    }
+
+    private static synchronized void remember(Variant variant) {
+        if (variant.data.length > MAX_MEMORY_BYTES) {
+            return;
+        }
+        Variant previous = memoryCache.put(variant.etag, variant);
+        if (previous != null) {
+            memoryBytes -= previous.data.length;
+        }
+        memoryBytes += variant.data.length;
+        Iterator<Variant> it = memoryCache.values().iterator();
+        while (memoryBytes > MAX_MEMORY_BYTES && it.hasNext()) {
+            memoryBytes -= it.next().data.length;
+            it.remove();
+        }
+    }
+
+    private static void writeToDisk(Path diskFile, Variant variant) {
+        try {
+            Files.createDirectories(diskFile.getParent());
+            Path tmp = diskFile.resolveSibling(diskFile.getFileName() + ".tmp");
+            Files.write(tmp, variant.data);
+            Files.move(tmp, diskFile, StandardCopyOption.REPLACE_EXISTING);
+            trimDiskCache();
+        } catch (IOException e) {
+            logger.warn("Failed to write image variant to disk cache", e);
+        }
+    }
+
+    private static synchronized void trimDiskCache() throws IOException {
+        Map<Path, Long> files = new LinkedHashMap<>();
+        long total = 0;
+        try (Stream<Path> stream = Files.list(getCacheDirectory())) {
+            Iterator<Path> it = stream.filter(p -> !p.getFileName().toString().endsWith(".tmp"))
+                    .sorted((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()))
+                    .iterator();
+            while (it.hasNext()) {
+                Path p = it.next();
+                long size = Files.size(p);
+                files.put(p, size);
+                total += size;
+            }
+        }
+        for (Map.Entry<Path, Long> entry : files.entrySet()) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            Files.deleteIfExists(entry.getKey());
+            total -= entry.getValue();
+        }
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static int clampDimension(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Math.min(MAX_DIMENSION, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static class Variant {
+
+        private final String etag;
+        private final String mimeType;
+        private final long lastModified;
+        private final byte[] data;
+        private final Path file;
+
+        Variant(String etag, String mimeType, long lastModified, byte[] data, Path file) {
+            this.etag = etag;
+            this.mimeType = mimeType;
+            this.lastModified = lastModified;
+            this.data = data;
+            this.file = file;
+        }
+
+        public String getETag() {
+            return "\"" + etag + "\"";
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getLength() throws IOException {
+            return data != null ? data.length : Files.size(file);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.mps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class InfoJsonStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(InfoJsonStore.class);
+    private static final String DIR = ".info";
+    // כתובות המדיה של יוטיוב פגות אחרי כמה שעות; מעבר לזה עדיף לחלץ מחדש
+    private static final long MAX_AGE_MS = TimeUnit.MINUTES
+            .toMillis(Long.getLong("nfmp3.infoJson.maxAgeMinutes", 60));
+    private static final String[] REJECTION_NEEDLES = { "HTTP Error 403", "HTTP Error 404", "HTTP Error 410",
+            "Requested format is not available", "Failed to load JSON", "JSONDecodeError" };
+
+    // קובץ המידע נשמר בתיקייה מוסתרת בתוך התיקייה הזמנית של העבודה, כך ש-moveFinalFiles מדלג עליו
+    public static Path locate(Path outputDir, String youtubeUrl, boolean isPlaylist) {
+        String videoId = YouTubeUrls.videoId(youtubeUrl);
+        if (isPlaylist || videoId == null || MAX_AGE_MS <= 0) {
+            return null;
+        }
+        return outputDir.resolve(DIR).resolve(videoId + ".info.json");
+    }
+
+    public static boolean isReusable(Path infoFile) {
+        if (infoFile == null) {
+            return false;
+        }
+        try {
+            if (!Files.isRegularFile(infoFile) || Files.size(infoFile) == 0) {
+                return false;
+            }
+            long age = System.currentTimeMillis() - Files.getLastModifiedTime(infoFile).toMillis();
+            if (age > MAX_AGE_MS) {
+                logger.info("Stored info {} is {} min old, extracting again.", infoFile.getFileName(),
+                        TimeUnit.MILLISECONDS.toMinutes(age));
+                discard(infoFile);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static List<String> writeArgs() {
+        return List.of("--write-info-json", "-o", "infojson:" + DIR + "/%(id)s");
+    }
+
+    public static List<String> loadArgs(Path infoFile) {
+        return List.of("--load-info-json", infoFile.toString());
+    }
+
+    // כשל אחרי טעינה שנראה כמו מידע שפג תוקפו (403/410, פורמט שנעלם) - לא כשל רשת רגיל
+    public static boolean isRejection(String errorText) {
+        if (errorText == null) {
+            return false;
+        }
+        for (String needle : REJECTION_NEEDLES) {
+            if (errorText.contains(needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void discard(Path infoFile) {
+        if (infoFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(infoFile);
+        } catch (IOException e) {
+            logger.warn("Could not delete stored info {}", infoFile, e);
+        }
+    }
+}
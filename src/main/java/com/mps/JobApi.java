@@ -0,0 +1,249 @@
+package com.mps;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
+import io.javalin.http.HandlerType;
+import io.javalin.http.UnauthorizedResponse;
+import io.javalin.http.sse.SseClient;
+import io.javalin.websocket.WsConnectContext;
+
+// ממשק REST לשליטה בעבודות בלי הדפדפן (מצב daemon): הגשה, רשימה, השהיה, המשך, ביטול,
+// וזרם אירועים ב-SSE שמקבל בדיוק את אותן הודעות שנשלחות ל-WebSocket
+public class JobApi {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobApi.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // ריק - בלי אימות, כמו ה-WebSocket
+    private static final String TOKEN = System.getProperty("nfmp3.api.token", "");
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final AtomicInteger subscriberCounter = new AtomicInteger();
+    private static final Map<String, SseClient> eventClients = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sse-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static void register(Javalin app) {
+        if (guardsAllRoutes()) {
+            // שרת ללא משגיח: הטוקן נדרש בכל נתיב - גם /metrics, /timelines ו-/local-image (ול-/ws דרך admit)
+            app.before(JobApi::authorize);
+        } else {
+            app.before("/api/*", JobApi::authorize);
+        }
+        app.get("/api/jobs", ctx -> ctx.contentType("application/json").result(JobRegistry.snapshot()));
+        app.post("/api/jobs", JobApi::submit);
+        app.post("/api/jobs/{id}/pause", JobApi::pause);
+        app.post("/api/jobs/{id}/resume", JobApi::resume);
+        app.post("/api/jobs/{id}/cancel", JobApi::cancel);
+        app.delete("/api/jobs/{id}", JobApi::cancel);
+        app.sse("/api/events", JobApi::stream);
+
+        // בלי תעבורה Jetty סוגר חיבור פתוח אחרי 30 שניות
+        heartbeat.scheduleWithFixedDelay(() -> eventClients.values().forEach(client -> client.sendComment("ping")),
+                HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // בקשת השדרוג של /ws לא עוברת ב-before של HTTP, לכן App בודק ב-onConnect לפני שהוא רושם את החיבור
+    public static boolean admit(WsConnectContext ctx) {
+        if (!guardsAllRoutes() || isAuthorized(ctx.header("Authorization"), ctx.queryParam("token"))) {
+            return true;
+        }
+        logger.warn("Rejected unauthorized WebSocket connection from {}", ctx.session.getRemoteAddress());
+        ctx.closeSession(1008, "Unauthorized");
+        return false;
+    }
+
+    public static boolean hasToken() {
+        return !TOKEN.isEmpty();
+    }
+
+    private static boolean guardsAllRoutes() {
+        return App.isDaemonMode() && !TOKEN.isEmpty();
+    }
+
+    private static void authorize(Context ctx) {
+        if (!isAuthorized(ctx.header("Authorization"), ctx.queryParam("token"))) {
+            throw new UnauthorizedResponse();
+        }
+        // בלי טוקן כל דף בדפדפן של המשתמש יכול לשלוח POST ל-localhost (text/plain לא עובר preflight),
+        // לכן בקשה שמשנה מצב ומגיעה מדפדפן חייבת להגיע מהשרת עצמו. curl וסקריפטים לא שולחים Origin
+        if (TOKEN.isEmpty() && !isReadOnly(ctx.method()) && !isSameOrigin(ctx.header("Origin"), ctx.host())) {
+            logger.warn("Rejected {} {} from origin {}", ctx.method(), ctx.path(), ctx.header("Origin"));
+            throw new ForbiddenResponse("Cross-origin requests need -Dnfmp3.api.token");
+        }
+    }
+
+    private static boolean isReadOnly(HandlerType method) {
+        return method == HandlerType.GET || method == HandlerType.HEAD || method == HandlerType.OPTIONS;
+    }
+
+    private static boolean isSameOrigin(String origin, String host) {
+        if (origin == null) {
+            return true;
+        }
+        try {
+            String authority = URI.create(origin).getRawAuthority();
+            return authority != null && authority.equalsIgnoreCase(host);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Authorization: Bearer <token>, או ?token=<token> למי שלא יכול לשלוח כותרת (WebSocket מהדפדפן, EventSource)
+    private static boolean isAuthorized(String header, String queryToken) {
+        if (TOKEN.isEmpty()) {
+            return true;
+        }
+        return matches(header, "Bearer " + TOKEN) || matches(queryToken, TOKEN);
+    }
+
+    private static boolean matches(String given, String expected) {
+        return given != null && MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8),
+                expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // אותו מבנה כמו הודעות ה-WebSocket: type, url / urls, formatId, destinationPath, isNetfreeUser ...
+    private static void submit(Context ctx) throws Exception {
+        JsonNode json = objectMapper.readTree(ctx.body());
+        String type = json.path("type").asText("download");
+        String destinationPath = json.path("destinationPath").asText(null);
+        String formatId = json.path("formatId").asText(null);
+        boolean isNetfree = json.path("isNetfreeUser").asBoolean(false);
+        String playlistTitle = json.path("playlistTitle").asText(null);
+        String language = json.path("language").asText("en");
+        RunWindow runWindow = RunWindow.parse(json.path("runWindow").asText(null));
+
+        String jobId;
+        if ("download_queue".equals(type)) {
+            List<String> urls = objectMapper.convertValue(json.get("urls"), new TypeReference<>() {
+            });
+            if (urls == null || urls.isEmpty()) {
+                ctx.status(400).result("Missing urls");
+                return;
+            }
+            DownloadService.startDownloadQueue(urls, formatId, destinationPath, isNetfree, playlistTitle, language, null,
+                    runWindow);
+            jobId = JobRegistry.MAIN_JOB_ID;
+        } else if ("download".equals(type) || "download_video".equals(type)) {
+            String url = json.path("url").asText(null);
+            if (url == null) {
+                ctx.status(400).result("Missing url");
+                return;
+            }
+            DownloadService.startDownload(url, false, formatId, destinationPath, isNetfree);
+            jobId = JobRegistry.MAIN_JOB_ID;
+        } else if ("download_advanced".equals(type) || "download_video_advanced".equals(type)) {
+            String url = json.path("url").asText(null);
+            if (url == null) {
+                ctx.status(400).result("Missing url");
+                return;
+            }
+            jobId = json.path("downloadId").asText("api-" + UUID.randomUUID().toString().substring(0, 8));
+            DownloadService.startAdvancedDownload(jobId, url, formatId, destinationPath, isNetfree,
+                    "download_video_advanced".equals(type), playlistTitle, runWindow);
+        } else {
+            ctx.status(400).result("Unknown job type: " + type);
+            return;
+        }
+        logger.info("API submitted {} job {}", type, jobId);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", jobId);
+        ctx.status(202).contentType("application/json").result(objectMapper.writeValueAsString(response));
+    }
+
+    // רק הורדות מתקדמות ניתנות להשהיה; ההורדה הראשית רק מבוטלת
+    private static void pause(Context ctx) throws IOException {
+        String id = ctx.pathParam("id");
+        if (isShared(id)) {
+            // עבודה משותפת מושהית בקובץ העבודה, לא רק במופע הזה - אחרת מופע אחר היה לוקח אותה מההתחלה
+            if (SharedQueue.pause(id)) {
+                ctx.status(202);
+            } else {
+                ctx.status(404).result("Unknown shared job");
+            }
+            return;
+        }
+        if (JobRegistry.MAIN_JOB_ID.equals(id) || JobRegistry.getState(id) == null) {
+            ctx.status(409).result("Job cannot be paused");
+            return;
+        }
+        DownloadService.pauseAdvancedDownload(id);
+        ctx.status(202);
+    }
+
+    // המשך = הפעלה מחדש של אותה בקשה עם אותו מזהה; התיקייה הזמנית נשמרה וההורדה ממשיכה ממנה
+    private static void resume(Context ctx) throws IOException {
+        String id = ctx.pathParam("id");
+        if (isShared(id)) {
+            if (SharedQueue.resume(id)) {
+                ctx.status(202);
+            } else {
+                ctx.status(409).result("Job is not paused");
+            }
+            return;
+        }
+        Map<String, Object> request = JobRegistry.getRequest(id);
+        if (!"paused".equals(JobRegistry.getState(id)) || request == null) {
+            ctx.status(409).result("Job is not paused");
+            return;
+        }
+        DownloadService.startAdvancedDownload(id, (String) request.get("url"), (String) request.get("formatId"),
+                (String) request.get("destinationPath"), Boolean.TRUE.equals(request.get("isNetfree")),
+                Boolean.TRUE.equals(request.get("isVideo")), (String) request.get("playlistTitle"));
+        ctx.status(202);
+    }
+
+    private static void cancel(Context ctx) throws IOException {
+        String id = ctx.pathParam("id");
+        if (JobRegistry.MAIN_JOB_ID.equals(id)) {
+            DownloadService.cancelCurrentDownload();
+        } else {
+            if (isShared(id)) {
+                SharedQueue.cancelPaused(id);
+            }
+            DownloadService.cancelAdvancedDownload(id);
+        }
+        ctx.status(202);
+    }
+
+    private static boolean isShared(String id) {
+        return SharedQueue.isEnabled() && id.startsWith(SharedQueue.JOB_PREFIX);
+    }
+
+    // האירוע הראשון הוא תמונת מצב (jobs_snapshot), ואחריו כל העדכונים החיים
+    private static void stream(SseClient client) {
+        String subscriberId = "sse-" + subscriberCounter.incrementAndGet();
+        client.keepAlive();
+        client.onClose(() -> {
+            eventClients.remove(subscriberId);
+            JobRegistry.unsubscribe(subscriberId);
+            logger.info("Event stream {} closed", subscriberId);
+        });
+        eventClients.put(subscriberId, client);
+        JobRegistry.subscribe(subscriberId, client::sendEvent);
+        logger.info("Event stream {} opened", subscriberId);
+    }
+}
@@ -0,0 +1,326 @@
+package com.mps;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class JobRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobRegistry.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // ההורדה הראשית (בודדת / תור) - יש רק אחת בכל רגע
+    public static final String MAIN_JOB_ID = "main";
+
+    private static final Map<String, Job> jobs = new LinkedHashMap<>();
+    // תור יוצא לכל מנוי; השליחה החוסמת (WebSocket / SSE) נעשית בתהליכון שליחה ולא בתהליכון שפרסם
+    private static final int SUBSCRIBER_QUEUE = Integer.getInteger("nfmp3.subscriber.queue", 512);
+    private static final AtomicInteger senderCounter = new AtomicInteger();
+    private static final ThreadPoolExecutor senders = (ThreadPoolExecutor) Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "subscriber-send-" + senderCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        Metrics.registerExecutor("subscribers", senders);
+    }
+
+    private static final Map<String, Subscriber> subscribers = new LinkedHashMap<>();
+    // בקשות כפולות שהוצמדו לעבודה קיימת: מזהה העבודה -> מזהי הבקשות שמקבלות את האירועים שלה
+    private static final Map<String, List<String>> aliases = new LinkedHashMap<>();
+
+    public static synchronized void begin(String jobId, String kind, Map<String, Object> request) {
+        Job job = new Job(jobId, kind, request);
+        jobs.put(jobId, job);
+    }
+
+    public static synchronized void markPaused(String jobId) {
+        List<String> ids = new ArrayList<>(aliases.getOrDefault(jobId, List.of()));
+        ids.add(jobId);
+        for (String id : ids) {
+            Job job = jobs.get(id);
+            if (job != null) {
+                job.state = "paused";
+            }
+        }
+    }
+
+    public static synchronized void remove(String jobId) {
+        jobs.remove(jobId);
+        List<String> attached = aliases.remove(jobId);
+        if (attached != null) {
+            attached.forEach(jobs::remove);
+        }
+    }
+
+    public static synchronized String getState(String jobId) {
+        Job job = jobs.get(jobId);
+        return job != null ? job.state : null;
+    }
+
+    public static synchronized Map<String, Object> getRequest(String jobId) {
+        Job job = jobs.get(jobId);
+        return job != null && job.request != null ? new LinkedHashMap<>(job.request) : null;
+    }
+
+    public static synchronized boolean hasActiveJobs() {
+        return !jobs.isEmpty();
+    }
+
+    public static void publish(DownloadMessage message) {
+        String jobId = message.getDownloadId() != null ? message.getDownloadId() : MAIN_JOB_ID;
+        List<String> outgoing = new ArrayList<>();
+        synchronized (JobRegistry.class) {
+            List<String> ids = new ArrayList<>();
+            ids.add(jobId);
+            List<String> attached = isTerminal(message.getType()) ? aliases.remove(jobId) : aliases.get(jobId);
+            if (attached != null) {
+                ids.addAll(attached);
+            }
+            for (String id : ids) {
+                if (!id.equals(jobId)) {
+                    message.setDownloadId(id);
+                }
+                String json = serialize(message);
+                if (json != null) {
+                    record(id, message.getType(), json);
+                    outgoing.add(json);
+                }
+            }
+            if (attached != null) {
+                message.setDownloadId(MAIN_JOB_ID.equals(jobId) ? null : jobId);
+            }
+            // ההודעה מומרת ל-JSON פעם אחת ונכנסת לתור של כל לשונית; ההכנסה תחת הנעילה שומרת על הסדר
+            for (String json : outgoing) {
+                for (Subscriber subscriber : subscribers.values()) {
+                    subscriber.enqueue(message.getType(), json);
+                }
+            }
+        }
+    }
+
+    // בקשה כפולה מקבלת את המצב הנוכחי של העבודה הקיימת ומכאן והלאה את כל האירועים שלה
+    public static synchronized boolean attach(String aliasId, String ownerId) {
+        Job owner = jobs.get(ownerId);
+        if (owner == null) {
+            return false;
+        }
+        aliases.computeIfAbsent(ownerId, k -> new ArrayList<>()).add(aliasId);
+        Job job = new Job(aliasId, owner.kind, owner.request);
+        job.state = owner.state;
+        jobs.put(aliasId, job);
+        for (String json : owner.lastMessages.values()) {
+            try {
+                ObjectNode node = (ObjectNode) objectMapper.readTree(json);
+                node.put("downloadId", aliasId);
+                String relabeled = objectMapper.writeValueAsString(node);
+                job.remember(node.path("type").asText(), relabeled);
+                for (Subscriber subscriber : subscribers.values()) {
+                    subscriber.enqueue(node.path("type").asText(), relabeled);
+                }
+            } catch (Exception e) {
+                logger.warn("Could not replay message of job {} to {}", ownerId, aliasId);
+            }
+        }
+        logger.info("Request {} attached to in-flight job {}", aliasId, ownerId);
+        return true;
+    }
+
+    public static synchronized boolean detach(String aliasId) {
+        for (List<String> attached : aliases.values()) {
+            if (attached.remove(aliasId)) {
+                jobs.remove(aliasId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void record(String jobId, String type, String json) {
+        Job job = jobs.get(jobId);
+        if (isTerminal(type)) {
+            jobs.remove(jobId);
+            return;
+        }
+        if (job == null) {
+            job = new Job(jobId, MAIN_JOB_ID.equals(jobId) ? "single" : "advanced", null);
+            jobs.put(jobId, job);
+        }
+        job.state = "running";
+        job.remember(type, json);
+    }
+
+    private static String serialize(DownloadMessage message) {
+        try {
+            return objectMapper.writeValueAsString(message);
+        } catch (Exception e) {
+            logger.warn("Failed to serialize message of type {}", message.getType(), e);
+            return null;
+        }
+    }
+
+    // התמונה נכנסת ראשונה לתור של המנוי, כך שעדכונים חיים תמיד מגיעים אחריה
+    public static synchronized void subscribe(String subscriberId, Consumer<String> sink) {
+        Subscriber subscriber = new Subscriber(subscriberId, sink);
+        subscriber.enqueue("jobs_snapshot", snapshot());
+        Subscriber previous = subscribers.put(subscriberId, subscriber);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    public static synchronized void unsubscribe(String subscriberId) {
+        Subscriber subscriber = subscribers.remove(subscriberId);
+        if (subscriber != null) {
+            subscriber.close();
+        }
+    }
+
+    public static synchronized String snapshot() {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("type", "jobs_snapshot");
+        ArrayNode list = root.putArray("jobs");
+        for (Job job : jobs.values()) {
+            ObjectNode node = list.addObject();
+            node.put("id", job.id);
+            node.put("kind", job.kind);
+            node.put("state", job.state);
+            if (job.request != null) {
+                node.set("request", objectMapper.valueToTree(job.request));
+            }
+            ArrayNode messages = node.putArray("messages");
+            for (String json : job.lastMessages.values()) {
+                try {
+                    messages.add(objectMapper.readTree(json));
+                } catch (Exception e) {
+                    logger.warn("Skipping unreadable message in snapshot of job {}", job.id);
+                }
+            }
+        }
+        try {
+            return objectMapper.writeValueAsString(root);
+        } catch (Exception e) {
+            logger.error("Failed to serialize jobs snapshot", e);
+            return "{\"type\":\"jobs_snapshot\",\"jobs\":[]}";
+        }
+    }
+
+    private static boolean isTerminal(String type) {
+        return "success".equals(type) || "error".equals(type) || "cancelled".equals(type)
+                || "queue_complete".equals(type) || "sync_complete".equals(type);
+    }
+
+    private static class Subscriber {
+
+        final String id;
+        final Consumer<String> sink;
+        final ArrayBlockingQueue<Outgoing> queue = new ArrayBlockingQueue<>(SUBSCRIBER_QUEUE);
+        final AtomicBoolean draining = new AtomicBoolean(false);
+        volatile boolean closed = false;
+
+        Subscriber(String id, Consumer<String> sink) {
+            this.id = id;
+            this.sink = sink;
+        }
+
+        // נקרא תחת הנעילה של JobRegistry - רק הכנסה לתור, בלי לגעת בחיבור
+        void enqueue(String type, String json) {
+            if (closed) {
+                return;
+            }
+            if (!queue.offer(new Outgoing(type, json))) {
+                resync();
+                queue.offer(new Outgoing(type, json));
+            }
+            if (draining.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        // לקוח שלא עומד בקצב: העדכונים שבתור מוחלפים בתמונת מצב עדכנית; הודעות סיום נשמרות
+        // כי עבודה שהסתיימה כבר לא מופיעה בתמונה
+        private void resync() {
+            List<Outgoing> kept = new ArrayList<>();
+            for (Outgoing pending : queue) {
+                if (isTerminal(pending.type)) {
+                    kept.add(pending);
+                }
+            }
+            queue.clear();
+            queue.offer(new Outgoing("jobs_snapshot", snapshot()));
+            kept.forEach(queue::offer);
+            Metrics.subscriberResyncs.increment();
+            logger.warn("Subscriber {} fell {} messages behind; sending a fresh snapshot", id, SUBSCRIBER_QUEUE);
+        }
+
+        private void drain() {
+            while (true) {
+                Outgoing next;
+                while (!closed && (next = queue.poll()) != null) {
+                    try {
+                        sink.accept(next.json);
+                    } catch (RuntimeException e) {
+                        logger.warn("Subscriber {} failed to receive a message", id, e);
+                    }
+                }
+                draining.set(false);
+                // הודעה שנכנסה אחרי הלולאה ולפני השחרור לא תישאר בתור בלי שולח
+                if (closed || queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            closed = true;
+            queue.clear();
+        }
+    }
+
+    private static class Outgoing {
+
+        final String type;
+        final String json;
+
+        Outgoing(String type, String json) {
+            this.type = type;
+            this.json = json;
+        }
+    }
+
+    private static class Job {
+
+        final String id;
+        final String kind;
+        final Map<String, Object> request;
+        // ההודעה האחרונה מכל סוג, לפי סדר העדכון - זה מה שמשוחזר בחיבור מחדש
+        final LinkedHashMap<String, String> lastMessages = new LinkedHashMap<>();
+        String state = "queued";
+
+        Job(String id, String kind, Map<String, Object> request) {
+            this.id = id;
+            this.kind = kind;
+            this.request = request;
+        }
+
+        void remember(String type, String json) {
+            lastMessages.remove(type);
+            lastMessages.put(type, json);
+        }
+    }
+}
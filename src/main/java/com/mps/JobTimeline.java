@@ -0,0 +1,161 @@
+package com.mps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class JobTimeline {
+
+    private static final int CAPACITY = Integer.getInteger("nfmp3.timeline.capacity", 200);
+    private static final ArrayDeque<JobTimeline> completed = new ArrayDeque<>();
+    private static final Map<String, JobTimeline> active = new ConcurrentHashMap<>();
+    private static final ThreadLocal<JobTimeline> current = new ThreadLocal<>();
+    private static final JobTimeline NOOP = new JobTimeline(null, null, null);
+
+    private final String id;
+    private final String kind;
+    private final String label;
+    private final long startMicros;
+    private final long startNanos;
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> offsetsMicros = new ArrayList<>();
+    private volatile String lastPhase = null;
+    private volatile String outcome = null;
+    private volatile long endOffsetMicros = -1;
+
+    private JobTimeline(String id, String kind, String label) {
+        this.id = id;
+        this.kind = kind;
+        this.label = label;
+        this.startMicros = System.currentTimeMillis() * 1000;
+        this.startNanos = System.nanoTime();
+    }
+
+    public static JobTimeline begin(String id, String kind, String label) {
+        JobTimeline timeline = new JobTimeline(id, kind, label);
+        active.put(id, timeline);
+        current.set(timeline);
+        return timeline;
+    }
+
+    public static JobTimeline current() {
+        JobTimeline timeline = current.get();
+        return timeline != null ? timeline : NOOP;
+    }
+
+    public void mark(String phase) {
+        if (id == null || outcome != null || phase == lastPhase) {
+            return;
+        }
+        synchronized (this) {
+            if (phase.equals(lastPhase)) {
+                return;
+            }
+            lastPhase = phase;
+            phases.add(phase);
+            offsetsMicros.add((System.nanoTime() - startNanos) / 1000);
+        }
+    }
+
+    public void finish(String result) {
+        if (id == null || outcome != null) {
+            return;
+        }
+        synchronized (this) {
+            endOffsetMicros = (System.nanoTime() - startNanos) / 1000;
+            outcome = result;
+        }
+        active.remove(id);
+        if (current.get() == this) {
+            current.remove();
+        }
+        synchronized (completed) {
+            completed.addLast(this);
+            while (completed.size() > CAPACITY) {
+                completed.removeFirst();
+            }
+        }
+    }
+
+    public static List<Map<String, Object>> recent(int limit) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (JobTimeline timeline : select(limit)) {
+            result.add(timeline.toMap());
+        }
+        return result;
+    }
+
+    public static Map<String, Object> traceEvents(int limit) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        int tid = 1;
+        for (JobTimeline timeline : select(limit)) {
+            Map<String, Object> threadName = new LinkedHashMap<>();
+            threadName.put("name", "thread_name");
+            threadName.put("ph", "M");
+            threadName.put("pid", 1);
+            threadName.put("tid", tid);
+            threadName.put("args", Map.of("name", timeline.kind + " " + timeline.id));
+            events.add(threadName);
+
+            synchronized (timeline) {
+                long end = timeline.endOffsetMicros >= 0 ? timeline.endOffsetMicros
+                        : (System.nanoTime() - timeline.startNanos) / 1000;
+                for (int i = 0; i < timeline.phases.size(); i++) {
+                    long phaseStart = timeline.offsetsMicros.get(i);
+                    long phaseEnd = i + 1 < timeline.phases.size() ? timeline.offsetsMicros.get(i + 1) : end;
+                    Map<String, Object> event = new LinkedHashMap<>();
+                    event.put("name", timeline.phases.get(i));
+                    event.put("cat", timeline.kind);
+                    event.put("ph", "X");
+                    event.put("ts", timeline.startMicros + phaseStart);
+                    event.put("dur", Math.max(0, phaseEnd - phaseStart));
+                    event.put("pid", 1);
+                    event.put("tid", tid);
+                    event.put("args", Map.of("job", timeline.id, "label", String.valueOf(timeline.label),
+                            "outcome", String.valueOf(timeline.outcome)));
+                    events.add(event);
+                }
+            }
+            tid++;
+        }
+        Map<String, Object> trace = new LinkedHashMap<>();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        return trace;
+    }
+
+    private static List<JobTimeline> select(int limit) {
+        List<JobTimeline> selected = new ArrayList<>(active.values());
+        synchronized (completed) {
+            Iterator<JobTimeline> it = completed.descendingIterator();
+            while (it.hasNext() && selected.size() < limit) {
+                selected.add(it.next());
+            }
+        }
+        selected.sort((a, b) -> Long.compare(a.startMicros, b.startMicros));
+        return selected.size() > limit ? selected.subList(selected.size() - limit, selected.size()) : selected;
+    }
+
+    private synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", id);
+        map.put("kind", kind);
+        map.put("label", label);
+        map.put("startedAt", startMicros / 1000);
+        map.put("outcome", outcome);
+        map.put("durationMs", (endOffsetMicros >= 0 ? endOffsetMicros : (System.nanoTime() - startNanos) / 1000) / 1000);
+        List<Map<String, Object>> marks = new ArrayList<>();
+        for (int i = 0; i < phases.size(); i++) {
+            Map<String, Object> mark = new LinkedHashMap<>();
+            mark.put("phase", phases.get(i));
+            mark.put("atMs", offsetsMicros.get(i) / 1000);
+            marks.add(mark);
+        }
+        map.put("phases", marks);
+        return map;
+    }
+}
@@ -0,0 +1,262 @@
+package com.mps;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class MediaCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaCache.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final long MAX_BYTES = Long.getLong("nfmp3.cache.maxBytes", 2L * 1024 * 1024 * 1024);
+    private static final String INDEX_FILE = "index.json";
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalBytes = 0;
+    private static boolean loaded = false;
+
+    public static synchronized JsonNode lookup(String videoId, String selector) {
+        if (videoId == null || MAX_BYTES <= 0) {
+            return null;
+        }
+        ensureLoaded();
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            if (!entry.videoId.equals(videoId)
+                    || !(selector.equals(entry.selector) || selector.equals(entry.formatId))) {
+                continue;
+            }
+            Path file = getCacheDirectory().resolve(entry.file);
+            if (!Files.exists(file)) {
+                removeEntry(entry);
+                persistIndex();
+                return null;
+            }
+            entries.get(entry.key);
+            entry.lastAccess = System.currentTimeMillis();
+            persistIndex();
+            logger.info("Media cache hit for {} ({} / {})", videoId, selector, entry.formatId);
+            return toSourceInfo(entry);
+        }
+        return null;
+    }
+
+    public static synchronized void store(String videoId, String selector, JsonNode sourceInfo, Path source, Path cover) {
+        if (videoId == null || MAX_BYTES <= 0 || source == null || !Files.exists(source)) {
+            return;
+        }
+        ensureLoaded();
+        String formatId = sourceInfo.path("format_id").asText(selector);
+        String key = contentKey(videoId, formatId);
+        String ext = sourceInfo.path("ext").asText("bin");
+        try {
+            Path cacheDir = getCacheDirectory();
+            Files.createDirectories(cacheDir);
+
+            Entry previous = entries.get(key);
+            if (previous != null) {
+                removeEntry(previous);
+            }
+
+            Entry entry = new Entry();
+            entry.key = key;
+            entry.videoId = videoId;
+            entry.selector = selector;
+            entry.formatId = formatId;
+            entry.ext = ext;
+            entry.file = key + "." + ext;
+            entry.title = sourceInfo.path("title").asText(null);
+            entry.uploader = sourceInfo.path("uploader").asText(null);
+            entry.uploadDate = sourceInfo.path("upload_date").asText(null);
+            entry.thumbnail = sourceInfo.path("thumbnail").asText(null);
+            linkOrCopy(source, cacheDir.resolve(entry.file));
+            entry.size = Files.size(cacheDir.resolve(entry.file));
+            if (cover != null && Files.exists(cover)) {
+                entry.cover = key + ".jpg";
+                linkOrCopy(cover, cacheDir.resolve(entry.cover));
+                entry.size += Files.size(cacheDir.resolve(entry.cover));
+            }
+            entry.lastAccess = System.currentTimeMillis();
+
+            entries.put(key, entry);
+            totalBytes += entry.size;
+            evictIfNeeded();
+            persistIndex();
+            logger.info("Stored {} ({}) in media cache. Cache size: {} bytes", videoId, formatId, totalBytes);
+        } catch (IOException e) {
+            logger.warn("Failed to store {} in media cache", videoId, e);
+        }
+    }
+
+    public static Path getCacheDirectory() {
+        return PathUtils.getAppDataDirectory().resolve("NFmp3Downloader").resolve("cache").resolve("media");
+    }
+
+    private static JsonNode toSourceInfo(Entry entry) {
+        ObjectNode info = objectMapper.createObjectNode();
+        info.put("filepath", getCacheDirectory().resolve(entry.file).toString());
+        if (entry.cover != null) {
+            info.put("cover", getCacheDirectory().resolve(entry.cover).toString());
+        }
+        info.put("title", entry.title);
+        info.put("uploader", entry.uploader);
+        info.put("upload_date", entry.uploadDate);
+        info.put("thumbnail", entry.thumbnail);
+        info.put("format_id", entry.formatId);
+        info.put("ext", entry.ext);
+        info.put("cache_hit", true);
+        return info;
+    }
+
+    private static void evictIfNeeded() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            Entry eldest = it.next();
+            logger.info("Evicting {} ({}) from media cache", eldest.videoId, eldest.formatId);
+            it.remove();
+            totalBytes -= eldest.size;
+            deleteEntryFiles(eldest);
+        }
+    }
+
+    private static void removeEntry(Entry entry) {
+        entries.remove(entry.key);
+        totalBytes -= entry.size;
+        deleteEntryFiles(entry);
+    }
+
+    private static void deleteEntryFiles(Entry entry) {
+        try {
+            Files.deleteIfExists(getCacheDirectory().resolve(entry.file));
+            if (entry.cover != null) {
+                Files.deleteIfExists(getCacheDirectory().resolve(entry.cover));
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete cached file {} (likely in use). It will be removed on next start.", entry.file);
+        }
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        Path cacheDir = getCacheDirectory();
+        Path indexPath = cacheDir.resolve(INDEX_FILE);
+        if (Files.exists(indexPath)) {
+            try {
+                List<Entry> stored = objectMapper.readValue(indexPath.toFile(), new TypeReference<List<Entry>>() {
+                });
+                stored.sort((a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+                for (Entry entry : stored) {
+                    if (Files.exists(cacheDir.resolve(entry.file))) {
+                        entries.put(entry.key, entry);
+                        totalBytes += entry.size;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Media cache index is unreadable. Starting with an empty cache.", e);
+            }
+        }
+        removeOrphans(cacheDir);
+        evictIfNeeded();
+        logger.info("Media cache loaded: {} entries, {} bytes (limit {} bytes)", entries.size(), totalBytes, MAX_BYTES);
+    }
+
+    private static void removeOrphans(Path cacheDir) {
+        if (!Files.exists(cacheDir)) {
+            return;
+        }
+        Set<String> known = new HashSet<>();
+        known.add(INDEX_FILE);
+        for (Entry entry : entries.values()) {
+            known.add(entry.file);
+            if (entry.cover != null) {
+                known.add(entry.cover);
+            }
+        }
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            stream.filter(p -> !known.contains(p.getFileName().toString())).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    logger.warn("Could not delete orphaned cache file {}", p);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Could not scan media cache directory {}", cacheDir, e);
+        }
+    }
+
+    private static void persistIndex() {
+        try {
+            Path cacheDir = getCacheDirectory();
+            Files.createDirectories(cacheDir);
+            Path tmp = cacheDir.resolve(INDEX_FILE + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), new ArrayList<>(entries.values()));
+            Files.move(tmp, cacheDir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Failed to persist media cache index", e);
+        }
+    }
+
+    private static String contentKey(String videoId, String formatId) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((videoId + "|" + formatId).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", hash[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Entry {
+
+        public String key;
+        public String videoId;
+        public String selector;
+        public String formatId;
+        public String ext;
+        public String file;
+        public String cover;
+        public String title;
+        public String uploader;
+        public String uploadDate;
+        public String thumbnail;
+        public long size;
+        public long lastAccess;
+    }
+}
@@ -0,0 +1,195 @@
+package com.mps;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// מחלץ מראש את המידע של K הפריטים הבאים בתור בזמן שהפריט הנוכחי יורד.
+// yt-dlp כותב את קובץ המידע למקום ש-InfoJsonStore מחפש, כך שההורדה עצמה טוענת אותו ומדלגת על החילוץ
+public class MetadataLookahead implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataLookahead.class);
+    private static final int DEPTH = Integer.getInteger("nfmp3.queue.lookahead", 2);
+    private static final long EXTRACT_TIMEOUT_SECONDS = 120;
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadPoolExecutor lookaheadExecutor = (ThreadPoolExecutor) Executors
+            .newFixedThreadPool(Math.max(1, DEPTH), r -> {
+                Thread t = new Thread(r, "lookahead-" + threadCounter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+    static {
+        Metrics.registerExecutor("lookahead", lookaheadExecutor);
+    }
+
+    private final QueueSource source;
+    private final IntFunction<Path> outputDirs;
+    private final String proxyUrl;
+    private final Consumer<DownloadMessage> sink;
+    private final Map<Integer, Future<?>> pending = new ConcurrentHashMap<>();
+    private final Map<Integer, Process> processes = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public MetadataLookahead(QueueSource source, IntFunction<Path> outputDirs, String proxyUrl,
+            Consumer<DownloadMessage> sink) {
+        this.source = source;
+        this.outputDirs = outputDirs;
+        this.proxyUrl = proxyUrl;
+        this.sink = sink;
+    }
+
+    public static boolean isEnabled() {
+        return DEPTH > 0;
+    }
+
+    // נקרא אחרי שפריט current נלקח מהמקור; מתזמן חילוץ לפריטים שכבר ידועים אחריו
+    public void advance(int current) {
+        for (int ahead = 1; ahead <= DEPTH && !closed; ahead++) {
+            String url = source.peek(ahead);
+            if (url == null) {
+                return;
+            }
+            final int index = current + ahead;
+            pending.computeIfAbsent(index, k -> lookaheadExecutor.submit(() -> prefetch(index, url)));
+        }
+    }
+
+    // לפני שפריט מתחיל - אם החילוץ שלו עוד רץ מחכים לו, כדי לא לחלץ פעמיים ולא לקרוא קובץ חצי כתוב
+    public void await(int index, BooleanSupplier cancelled) {
+        Future<?> future = pending.remove(index);
+        if (future == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(EXTRACT_TIMEOUT_SECONDS);
+        while (!future.isDone() && !cancelled.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            try {
+                future.get(250, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // ממשיכים לבדוק ביטול
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                return;
+            }
+        }
+        if (!future.isDone()) {
+            future.cancel(true);
+            kill(processes.get(index));
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pending.values().forEach(future -> future.cancel(true));
+        pending.clear();
+        processes.values().forEach(MetadataLookahead::kill);
+    }
+
+    private static void kill(Process process) {
+        if (process != null) {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+    }
+
+    private void prefetch(int index, String url) {
+        if (closed || App.isYtDlpUpdating) {
+            return;
+        }
+        Path outputDir = outputDirs.apply(index);
+        Path infoJson = InfoJsonStore.locate(outputDir, url, false);
+        if (infoJson == null || InfoJsonStore.isReusable(infoJson)) {
+            return;
+        }
+        long start = System.nanoTime();
+        Process process = null;
+        try {
+            Files.createDirectories(outputDir);
+            process = new ProcessBuilder(buildCommand(url, outputDir)).redirectErrorStream(true).start();
+            processes.put(index, process);
+            Metrics.activeProcesses.incrementAndGet();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("MPS_METADATA:")) {
+                        String data = line.substring("MPS_METADATA:".length());
+                        int splitIndex = data.lastIndexOf("|");
+                        if (splitIndex != -1 && !closed) {
+                            sink.accept(DownloadMessage.itemMetadata(String.valueOf(index + 1),
+                                    data.substring(0, splitIndex).trim(), data.substring(splitIndex + 1).trim()));
+                        }
+                    }
+                }
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0 || closed) {
+                InfoJsonStore.discard(infoJson);
+                logger.info("Lookahead for item {} did not finish (exit {}); it will be extracted in place.",
+                        index + 1, exitCode);
+                return;
+            }
+            logger.info("Lookahead extracted item {} in {} ms", index + 1, (long) Metrics.millisSince(start));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InfoJsonStore.discard(infoJson);
+        } catch (Exception e) {
+            logger.warn("Lookahead for item {} failed: {}", index + 1, e.getMessage());
+            InfoJsonStore.discard(infoJson);
+        } finally {
+            if (process != null) {
+                if (process.isAlive()) {
+                    process.destroyForcibly();
+                }
+                processes.remove(index);
+                Metrics.activeProcesses.decrementAndGet();
+            }
+        }
+    }
+
+    // חילוץ בלבד: --no-simulate נדרש כי --print מפעיל simulate, שמדלג על כתיבת קובץ המידע
+    private List<String> buildCommand(String url, Path outputDir) {
+        List<String> command = new ArrayList<>();
+        command.add(PathUtils.getYtDlpExecutable().toString());
+        command.add("--encoding");
+        command.add("utf-8");
+        if (proxyUrl != null && !proxyUrl.isEmpty()) {
+            command.add("--proxy");
+            command.add(proxyUrl);
+        }
+        command.add("--no-check-certificates");
+        command.add("--no-playlist");
+        command.add("--no-simulate");
+        command.add("--skip-download");
+        command.add("-f");
+        command.add("bestaudio/best");
+        command.add("--print");
+        command.add("MPS_METADATA:%(title)s|%(thumbnail)s");
+        command.add("-P");
+        command.add(outputDir.toString());
+        command.addAll(InfoJsonStore.writeArgs());
+        command.add(url);
+        return command;
+    }
+}
@@ -0,0 +1,168 @@
+package com.mps;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Metrics {
+
+    private static final double[] LATENCY_MS_BUCKETS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+    private static final double[] SEND_MS_BUCKETS = {0.1, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 1000};
+    private static final double[] BYTES_BUCKETS = {1e5, 1e6, 5e6, 1e7, 5e7, 1e8, 5e8, 1e9, 5e9};
+    private static final double[] THROUGHPUT_BUCKETS = {1e4, 1e5, 5e5, 1e6, 2.5e6, 5e6, 1e7, 2.5e7, 1e8};
+
+    public static final Histogram spawnLatencyMs = new Histogram("nfmp3_process_spawn_latency_ms",
+            "Time to start a yt-dlp or ffmpeg process", LATENCY_MS_BUCKETS);
+    public static final Histogram timeToFirstProgressMs = new Histogram("nfmp3_time_to_first_progress_ms",
+            "Time from process start to the first progress line", LATENCY_MS_BUCKETS);
+    public static final Histogram jobBytes = new Histogram("nfmp3_job_bytes",
+            "Size of the files produced by a successful job", BYTES_BUCKETS);
+    public static final Histogram jobThroughput = new Histogram("nfmp3_job_throughput_bytes_per_second",
+            "Bytes produced per second of job wall time", THROUGHPUT_BUCKETS);
+    public static final Histogram wsSendLatencyMs = new Histogram("nfmp3_ws_send_latency_ms",
+            "Time spent sending one WebSocket message", SEND_MS_BUCKETS);
+
+    public static final LongAdder retries = new LongAdder();
+    public static final LongAdder proxyFallbacks = new LongAdder();
+    public static final LongAdder updateRetries = new LongAdder();
+    public static final LongAdder infoJsonReuses = new LongAdder();
+    public static final LongAdder infoJsonRejections = new LongAdder();
+    public static final LongAdder ingestedUrls = new LongAdder();
+    public static final LongAdder sharedClaims = new LongAdder();
+    public static final LongAdder sharedTakeovers = new LongAdder();
+    public static final LongAdder id3Tagged = new LongAdder();
+    public static final LongAdder id3InPlace = new LongAdder();
+    public static final LongAdder id3BytesSavedEstimate = new LongAdder();
+    public static final LongAdder subscriberResyncs = new LongAdder();
+    public static final LongAdder segmentedDownloads = new LongAdder();
+    public static final LongAdder segmentedBytes = new LongAdder();
+    public static final LongAdder segmentRetries = new LongAdder();
+    public static final LongAdder segmentedFallbacks = new LongAdder();
+    public static final LongAdder tempCleanupFailures = new LongAdder();
+    public static final LongAdder jobsSucceeded = new LongAdder();
+    public static final LongAdder jobsFailed = new LongAdder();
+    public static final AtomicInteger activeProcesses = new AtomicInteger();
+
+    private static final Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    public static void registerExecutor(String name, ThreadPoolExecutor executor) {
+        executors.put(name, executor);
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP nfmp3_executor_queue_depth Tasks waiting in each executor queue\n");
+        sb.append("# TYPE nfmp3_executor_queue_depth gauge\n");
+        executors.forEach((name, executor) -> sb.append("nfmp3_executor_queue_depth{executor=\"").append(name)
+                .append("\"} ").append(executor.getQueue().size()).append('\n'));
+        sb.append("# HELP nfmp3_executor_active_threads Threads currently running a task in each executor\n");
+        sb.append("# TYPE nfmp3_executor_active_threads gauge\n");
+        executors.forEach((name, executor) -> sb.append("nfmp3_executor_active_threads{executor=\"").append(name)
+                .append("\"} ").append(executor.getActiveCount()).append('\n'));
+
+        gauge(sb, "nfmp3_active_processes", "Child processes currently running", activeProcesses.get());
+        gauge(sb, "nfmp3_disk_reserved_bytes", "Disk space reserved by in-flight jobs", DiskSpaceGuard.reservedBytes());
+        gauge(sb, "nfmp3_jobs_held_by_window", "Bulk jobs waiting for their run window", RunScheduler.heldCount());
+        gauge(sb, "nfmp3_jvm_threads", "Live JVM threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        gauge(sb, "nfmp3_jvm_heap_used_bytes", "JVM heap currently in use",
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        counter(sb, "nfmp3_retries_total", "Download attempts retried after a failed start or locked binary", retries.sum());
+        counter(sb, "nfmp3_proxy_fallbacks_total", "Downloads retried with the fallback proxy", proxyFallbacks.sum());
+        counter(sb, "nfmp3_update_retries_total", "Downloads retried after a yt-dlp update", updateRetries.sum());
+        counter(sb, "nfmp3_info_json_reuses_total", "Attempts that loaded stored info instead of extracting again", infoJsonReuses.sum());
+        counter(sb, "nfmp3_info_json_rejections_total", "Stored info discarded because yt-dlp rejected it", infoJsonRejections.sum());
+        counter(sb, "nfmp3_ingested_urls_total", "URLs received through the bulk ingest endpoint", ingestedUrls.sum());
+        counter(sb, "nfmp3_shared_claims_total", "Jobs this worker claimed from the shared queue", sharedClaims.sum());
+        counter(sb, "nfmp3_shared_takeovers_total", "Shared jobs taken over from an expired lease", sharedTakeovers.sum());
+        counter(sb, "nfmp3_id3_tagged_total", "MP3 files tagged in the JVM instead of by ffmpeg passes", id3Tagged.sum());
+        counter(sb, "nfmp3_id3_in_place_total", "ID3 tags written over the existing header without moving audio", id3InPlace.sum());
+        counter(sb, "nfmp3_id3_rewrite_bytes_saved_estimate_total", "Estimated file bytes not rewritten, assuming two full-file ffmpeg tagging passes", id3BytesSavedEstimate.sum());
+        counter(sb, "nfmp3_subscriber_resyncs_total", "Slow subscribers whose backlog was replaced by a snapshot", subscriberResyncs.sum());
+        counter(sb, "nfmp3_segmented_downloads_total", "Media files fetched by the segmented HTTP downloader", segmentedDownloads.sum());
+        counter(sb, "nfmp3_segmented_bytes_total", "Bytes fetched by the segmented HTTP downloader", segmentedBytes.sum());
+        counter(sb, "nfmp3_segment_retries_total", "Range requests retried after a failed or stalled segment", segmentRetries.sum());
+        counter(sb, "nfmp3_segmented_fallbacks_total", "Downloads handed back to yt-dlp's own downloader", segmentedFallbacks.sum());
+        counter(sb, "nfmp3_temp_cleanup_failures_total", "Temp directories that could not be deleted", tempCleanupFailures.sum());
+        counter(sb, "nfmp3_jobs_succeeded_total", "Jobs that finished successfully", jobsSucceeded.sum());
+        counter(sb, "nfmp3_jobs_failed_total", "Jobs that finished with an error", jobsFailed.sum());
+
+        spawnLatencyMs.render(sb);
+        timeToFirstProgressMs.render(sb);
+        jobBytes.render(sb);
+        jobThroughput.render(sb);
+        wsSendLatencyMs.render(sb);
+        return sb.toString();
+    }
+
+    public static void recordJob(long bytes, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        jobBytes.observe(bytes);
+        if (seconds > 0) {
+            jobThroughput.observe(bytes / seconds);
+        }
+    }
+
+    public static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    public static class Histogram {
+
+        private final String name;
+        private final String help;
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(String name, String help, double[] bounds) {
+            this.name = name;
+            this.help = help;
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            for (int i = 0; i < bounds.length; i++) {
+                if (value <= bounds[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+        }
+
+        void render(StringBuilder sb) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                sb.append(name).append("_bucket{le=\"").append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(name).append("_bucket{le=\"+Inf\"} ").append(count.sum()).append('\n');
+            sb.append(name).append("_sum ").append(sum.sum()).append('\n');
+            sb.append(name).append("_count ").append(count.sum()).append('\n');
+        }
+    }
+}
@@ -40,9 +40,20 @@ public class PathUtils {
     }
 
     public static Path getBinDirectory() {
+        // מאפשר להריץ מול yt-dlp ו-ffmpeg מדומים (LoadHarness)
+        String override = System.getProperty("nfmp3.bin.dir");
+        if (override != null && !override.isEmpty()) {
+            return Paths.get(override);
+        }
         return getAppDataDirectory().resolve(APP_NAME).resolve("bin");
     }
 
+    // ההפצה הפרוסה (YtDlpBinary) אם הותקנה, אחרת הקובץ היחיד
+    public static Path getYtDlpExecutable() {
+        Path unpacked = YtDlpBinary.activeExecutable();
+        return unpacked != null ? unpacked : getBinDirectory().resolve("yt-dlp.exe");
+    }
+
 public static Path getIconPath() {
         Path appDataDir = getAppDataDirectory().resolve(APP_NAME);
         Path iconDest = appDataDir.resolve("icon.ico");
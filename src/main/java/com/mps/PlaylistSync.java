@@ -0,0 +1,181 @@
+package com.mps;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class PlaylistSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlaylistSync.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    public static final String MANIFEST_NAME = ".nfmp3-sync.json";
+    private static final AtomicInteger syncCounter = new AtomicInteger();
+
+    // לסנכרון יש מזהה עבודה משלו: ההודעות שלו (שגיאה / sync_complete) סופיות, ואם היו נשלחות כ-main
+    // הן היו מוציאות מ-JobRegistry הורדה ראשית שרצה באותו זמן
+    public static void start(String playlistUrl, String formatId, String destinationPath, boolean isNetfree,
+            String language) {
+        String syncId = "sync-" + syncCounter.incrementAndGet();
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("url", playlistUrl);
+        request.put("formatId", formatId);
+        request.put("destinationPath", destinationPath);
+        JobRegistry.begin(syncId, "sync", request);
+        Thread syncThread = new Thread(() -> {
+            String playlistId = YouTubeUrls.playlistId(playlistUrl);
+            if (playlistId == null) {
+                publish(syncId, DownloadMessage.error("Invalid Playlist URL"));
+                return;
+            }
+            try {
+                sync(syncId, playlistId, formatId, destinationPath, isNetfree, language);
+            } catch (Exception e) {
+                logger.error("Playlist sync failed for {}", playlistId, e);
+                publish(syncId, DownloadMessage.error("Playlist sync failed"));
+            }
+        });
+        syncThread.setName("Playlist-Sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    private static void sync(String syncId, String playlistId, String formatId, String destinationPath, boolean isNetfree,
+            String language) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        JsonNode details = App.fetchPlaylistDetails(playlistId, Duration.ZERO);
+        JsonNode items = details.path("items");
+        if (!items.isArray()) {
+            publish(syncId, DownloadMessage.error("Failed to fetch playlist (Server Error)"));
+            return;
+        }
+        String title = details.path("title").asText("Unknown Playlist");
+        Path finalDir = DownloadService.resolveQueueFinalDir(destinationPath, title, language);
+        Path manifestPath = finalDir.resolve(MANIFEST_NAME);
+        ObjectNode manifest = loadManifest(manifestPath);
+        ObjectNode synced = (ObjectNode) manifest.get("items");
+
+        // השוואה לפי מזהה הסרטון - פריט שכבר ירד ושהקובץ שלו עדיין קיים מדולג
+        List<String> newUrls = new ArrayList<>();
+        Map<String, JsonNode> newItems = new LinkedHashMap<>();
+        Set<String> currentIds = new HashSet<>();
+        int skipped = 0;
+        for (JsonNode item : items) {
+            String url = item.path("url").asText(null);
+            String videoId = YouTubeUrls.videoId(url);
+            if (videoId == null || !currentIds.add(videoId)) {
+                continue;
+            }
+            JsonNode entry = synced.get(videoId);
+            String file = entry != null ? entry.path("file").asText(null) : null;
+            if (entry != null && (file == null || Files.exists(finalDir.resolve(file)))) {
+                skipped++;
+            } else {
+                newUrls.add(url);
+                newItems.put(videoId, item);
+            }
+        }
+        int removed = 0;
+        for (Iterator<String> it = synced.fieldNames(); it.hasNext();) {
+            if (!currentIds.contains(it.next())) {
+                removed++;
+            }
+        }
+        logger.info("Sync plan for playlist {} ({}): {} new, {} already synced, {} removed from playlist ({} ms)",
+                playlistId, title, newUrls.size(), skipped, removed, (System.nanoTime() - start) / 1_000_000);
+
+        manifest.put("playlistId", playlistId);
+        manifest.put("title", title);
+        if (newUrls.isEmpty()) {
+            manifest.put("checkedAt", System.currentTimeMillis());
+            saveManifest(manifestPath, manifest);
+            publish(syncId, DownloadMessage.syncComplete(0, skipped, removed, 0, finalDir.toString()));
+            return;
+        }
+
+        final int skippedCount = skipped;
+        final int removedCount = removed;
+        // עם חלון הרצה התור רץ בכמה מקטעים: הקובץ נשמר אחרי כל מקטע, והסיכום נשלח רק כשהתור הסתיים באמת
+        AtomicInteger addedCount = new AtomicInteger();
+        DownloadService.startDownloadQueue(newUrls, formatId, destinationPath, isNetfree, title, language,
+                (queueDir, saved, outcome) -> {
+                    long now = System.currentTimeMillis();
+                    saved.forEach((videoId, file) -> {
+                        JsonNode item = newItems.get(videoId);
+                        if (item == null) {
+                            return;
+                        }
+                        ObjectNode entry = synced.putObject(videoId);
+                        entry.put("title", item.path("title").asText(null));
+                        entry.put("file", file);
+                        entry.put("formatId", formatId);
+                        entry.put("syncedAt", now);
+                        addedCount.incrementAndGet();
+                    });
+                    manifest.put("checkedAt", now);
+                    try {
+                        saveManifest(manifestPath, manifest);
+                    } catch (IOException e) {
+                        logger.error("Failed to save sync manifest {}", manifestPath, e);
+                    }
+                    if ("held".equals(outcome)) {
+                        return;
+                    }
+                    if ("cancelled".equals(outcome) || "error".equals(outcome)) {
+                        // התור כבר שלח הודעת ביטול / שגיאה משלו
+                        logger.info("Sync {} ended ({}) after {} of {} new items", syncId, outcome, addedCount.get(),
+                                newUrls.size());
+                        JobRegistry.remove(syncId);
+                        return;
+                    }
+                    publish(syncId, DownloadMessage.syncComplete(addedCount.get(), skippedCount, removedCount,
+                            newUrls.size() - addedCount.get(), queueDir.toString()));
+                });
+    }
+
+    private static void publish(String syncId, DownloadMessage message) {
+        message.setDownloadId(syncId);
+        JobRegistry.publish(message);
+    }
+
+    private static ObjectNode loadManifest(Path manifestPath) {
+        if (Files.exists(manifestPath)) {
+            try {
+                JsonNode node = objectMapper.readTree(manifestPath.toFile());
+                if (node.isObject() && node.path("items").isObject()) {
+                    return (ObjectNode) node;
+                }
+            } catch (IOException e) {
+                logger.warn("Sync manifest {} is unreadable, starting a new one", manifestPath, e);
+            }
+        }
+        ObjectNode manifest = objectMapper.createObjectNode();
+        manifest.putObject("items");
+        return manifest;
+    }
+
+    private static void saveManifest(Path manifestPath, ObjectNode manifest) throws IOException {
+        Files.createDirectories(manifestPath.getParent());
+        Path tmp = manifestPath.resolveSibling(MANIFEST_NAME + ".tmp");
+        Files.write(tmp, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(manifest)
+                .getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,46 @@
+package com.mps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ProcessLog {
+
+    // הלוגר הזה מנותב ב-logback.xml לקובץ נפרד לכל הורדה (לפי downloadId ב-MDC)
+    private static final Logger processLogger = LoggerFactory.getLogger("yt-dlp");
+    private static final long PROGRESS_SAMPLE_NANOS = Long.getLong("nfmp3.log.progressSampleMs", 5000L) * 1_000_000L;
+
+    private final String source;
+    private long lastProgressNanos = 0;
+    private int suppressedProgress = 0;
+
+    public ProcessLog(String source) {
+        this.source = source;
+    }
+
+    public static boolean isVerbose() {
+        return Boolean.getBoolean("nfmp3.ytdlp.verbose");
+    }
+
+    public void line(String line) {
+        processLogger.info("{}: {}", source, line);
+    }
+
+    public void error(String line) {
+        processLogger.error("{}: {}", source, line);
+    }
+
+    public void progress(String line, boolean complete) {
+        long now = System.nanoTime();
+        if (!complete && lastProgressNanos != 0 && now - lastProgressNanos < PROGRESS_SAMPLE_NANOS) {
+            suppressedProgress++;
+            return;
+        }
+        lastProgressNanos = now;
+        if (suppressedProgress > 0) {
+            processLogger.info("{}: {} (+{} progress lines skipped)", source, line, suppressedProgress);
+            suppressedProgress = 0;
+        } else {
+            processLogger.info("{}: {}", source, line);
+        }
+    }
+}
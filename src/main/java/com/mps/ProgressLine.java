@@ -0,0 +1,126 @@
+package com.mps;
+
+import java.util.List;
+import java.util.Locale;
+
+public class ProgressLine {
+
+    public static final String PREFIX = "MPS_PROGRESS:";
+
+    // downloaded|total|total_estimate|speed|eta - yt-dlp מדפיס NA לשדות חסרים
+    public static final String TEMPLATE = "download:" + PREFIX
+            + "%(progress.downloaded_bytes)s|%(progress.total_bytes)s|%(progress.total_bytes_estimate)s"
+            + "|%(progress.speed)s|%(progress.eta)s";
+
+    private static final String[] UNITS = {"B", "KiB", "MiB", "GiB", "TiB"};
+
+    private final long downloadedBytes;
+    private final Long totalBytes;
+    private final Double speedBytes;
+    private final Long etaSeconds;
+
+    private ProgressLine(long downloadedBytes, Long totalBytes, Double speedBytes, Long etaSeconds) {
+        this.downloadedBytes = downloadedBytes;
+        this.totalBytes = totalBytes;
+        this.speedBytes = speedBytes;
+        this.etaSeconds = etaSeconds;
+    }
+
+    // התקדמות שלא הגיעה מ-yt-dlp (SegmentedDownloader)
+    public static ProgressLine of(long downloadedBytes, Long totalBytes, Double speedBytes, Long etaSeconds) {
+        return new ProgressLine(downloadedBytes, totalBytes, speedBytes, etaSeconds);
+    }
+
+    public static List<String> commandArgs() {
+        return List.of("--newline", "--progress-template", TEMPLATE);
+    }
+
+    public static ProgressLine parse(String line) {
+        if (!line.startsWith(PREFIX)) {
+            return null;
+        }
+        int start = PREFIX.length();
+        Double[] fields = new Double[5];
+        for (int i = 0; i < fields.length; i++) {
+            int end = line.indexOf('|', start);
+            if (end == -1) {
+                end = line.length();
+            }
+            fields[i] = parseNumber(line, start, end);
+            start = end + 1;
+            if (start > line.length()) {
+                break;
+            }
+        }
+        if (fields[0] == null) {
+            return null;
+        }
+        Double total = fields[1] != null ? fields[1] : fields[2];
+        return new ProgressLine(fields[0].longValue(),
+                total != null && total > 0 ? total.longValue() : null,
+                fields[3],
+                fields[4] != null ? fields[4].longValue() : null);
+    }
+
+    private static Double parseNumber(String line, int start, int end) {
+        if (end <= start || line.startsWith("NA", start) || line.startsWith("None", start)) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(line.substring(start, end).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public Long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public Double getSpeedBytes() {
+        return speedBytes;
+    }
+
+    public Long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public Double getPercent() {
+        if (totalBytes == null) {
+            return null;
+        }
+        return Math.min(100.0, downloadedBytes * 100.0 / totalBytes);
+    }
+
+    public boolean isComplete() {
+        return totalBytes != null && downloadedBytes >= totalBytes;
+    }
+
+    public String formatPercent() {
+        Double percent = getPercent();
+        return percent == null ? "0" : String.format(Locale.ROOT, "%.1f", percent);
+    }
+
+    public String formatSpeed() {
+        if (speedBytes == null) {
+            return "";
+        }
+        double value = speedBytes;
+        int unit = 0;
+        while (value >= 1024 && unit < UNITS.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.2f%s/s", value, UNITS[unit]);
+    }
+
+    @Override
+    public String toString() {
+        return formatPercent() + "% of " + (totalBytes != null ? totalBytes : "?") + " bytes at " + formatSpeed()
+                + (etaSeconds != null ? " ETA " + etaSeconds + "s" : "");
+    }
+}
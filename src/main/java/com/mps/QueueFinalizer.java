@@ -0,0 +1,102 @@
+package com.mps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// מעביר כל פריט שהסתיים לתיקיית היעד מיד, על תהליכון נפרד, בזמן שהפריט הבא כבר יורד
+public class QueueFinalizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueueFinalizer.class);
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadPoolExecutor finalizeExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1, r -> {
+        Thread t = new Thread(r, "finalize-" + threadCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        Metrics.registerExecutor("finalize", finalizeExecutor);
+    }
+
+    private final Path targetDir;
+    private final DiskSpaceGuard.Reservation space;
+    private final List<Future<Long>> moves = new ArrayList<>();
+    // פריטים שהגיעו ליעד: מפתח הפריט -> שם הקובץ
+    private final Map<String, String> moved = new LinkedHashMap<>();
+
+    public QueueFinalizer(Path targetDir, DiskSpaceGuard.Reservation space) {
+        this.targetDir = targetDir;
+        this.space = space;
+    }
+
+    // נקרא גם מתהליכוני ההמרה, לכן מסונכרן. itemKey הוא מפתח השמירה של הפריט ב-DiskSpaceGuard (מזהה הסרטון)
+    public synchronized void submit(Path file, String itemKey) {
+        moves.add(finalizeExecutor.submit(() -> move(file, itemKey)));
+    }
+
+    // מחכה להעברות שעוד רצות ומחזיר את סך הבתים שהועברו עד עכשיו
+    public long awaitAll() {
+        List<Future<Long>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(moves);
+        }
+        long bytes = 0;
+        for (Future<Long> move : snapshot) {
+            try {
+                bytes += Math.max(0, move.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return bytes;
+            } catch (ExecutionException e) {
+                logger.error("Finalizing a queue item failed", e.getCause());
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized int getSubmitted() {
+        return moves.size();
+    }
+
+    public synchronized Map<String, String> getMoved() {
+        return new LinkedHashMap<>(moved);
+    }
+
+    private long move(Path file, String itemKey) {
+        // שם קובץ שלא זוהה נכון (למשל אחרי מיזוג) נשאר בתיקייה הזמנית ויועבר בסוף התור
+        if (!Files.isRegularFile(file)) {
+            return -1;
+        }
+        try {
+            long size = Files.size(file);
+            Path target = targetDir.resolve(file.getFileName());
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            logger.info("Moved final file {} to {}", file, target);
+            // הקובץ כבר ביעד ונספר בשטח הפנוי שלו - השמירה עליו הייתה נספרת פעמיים עד סוף התור
+            if (itemKey != null) {
+                space.drop(itemKey);
+                synchronized (this) {
+                    moved.put(itemKey, target.getFileName().toString());
+                }
+            }
+            return size;
+        } catch (IOException e) {
+            logger.error("Failed to move final file {}", file, e);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.mps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// מקור הקישורים של תור: רשימה בזיכרון, או קובץ שהרשימה נשמרה אליו
+public abstract class QueueSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueueSource.class);
+
+    public static QueueSource of(List<String> urls) {
+        return new ListSource(urls);
+    }
+
+    public static QueueSource spooled(Path file, int count) {
+        return new SpooledSource(file, count);
+    }
+
+    // הפריט הבא, או null כשהמקור נגמר
+    public abstract String next();
+
+    // הפריט שנמצא ahead מקומות אחרי האחרון שנלקח, בלי לצרוך אותו; null אם עוד לא ידוע
+    public abstract String peek(int ahead);
+
+    public abstract int total();
+
+    public void close() {
+    }
+
+    private static class ListSource extends QueueSource {
+
+        private final List<String> urls;
+        private int position = 0;
+
+        ListSource(List<String> urls) {
+            this.urls = urls;
+        }
+
+        @Override
+        public synchronized String next() {
+            return position < urls.size() ? urls.get(position++) : null;
+        }
+
+        @Override
+        public synchronized String peek(int ahead) {
+            int index = position + ahead - 1;
+            return index < urls.size() ? urls.get(index) : null;
+        }
+
+        @Override
+        public int total() {
+            return urls.size();
+        }
+    }
+
+    // רשימה שנשמרה לקובץ (BulkIngest) - נקראת שורה אחרי שורה, כך שרשימה ענקית לא נטענת לזיכרון.
+    // הקובץ נמחק כשהתור נסגר (הסתיים או בוטל)
+    private static class SpooledSource extends QueueSource {
+
+        private final Path file;
+        private final int count;
+        private final ArrayDeque<String> lookahead = new ArrayDeque<>();
+        private BufferedReader reader;
+        private boolean closed = false;
+
+        SpooledSource(Path file, int count) {
+            this.file = file;
+            this.count = count;
+        }
+
+        @Override
+        public synchronized String next() {
+            return fill(1) ? lookahead.removeFirst() : null;
+        }
+
+        @Override
+        public synchronized String peek(int ahead) {
+            return fill(ahead) ? lookahead.stream().skip(ahead - 1).findFirst().orElse(null) : null;
+        }
+
+        @Override
+        public int total() {
+            return count;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lookahead.clear();
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Could not delete spooled list {}", file, e);
+            }
+        }
+
+        // קורא מהקובץ עד שיש לפחות size פריטים בהמתנה; false אם הקובץ נגמר לפני כן או שהמקור נסגר
+        private boolean fill(int size) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (reader == null) {
+                    reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                }
+                String line;
+                while (lookahead.size() < size && (line = reader.readLine()) != null) {
+                    lookahead.addLast(line);
+                }
+            } catch (IOException e) {
+                logger.error("Could not read spooled list {}", file, e);
+                return false;
+            }
+            return lookahead.size() >= size;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.mps;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RetryPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("nfmp3.retry.maxAttempts", 6);
+
+    public enum Action {
+        FAIL, SWITCH_PROXY, UPDATE, WAIT_FOR_UPDATE, BACKOFF
+    }
+
+    private static final Map<ErrorCategory, Rule> rules = new EnumMap<>(ErrorCategory.class);
+
+    static {
+        rules.put(ErrorCategory.DISK_FULL, Rule.permanent());
+        rules.put(ErrorCategory.VIDEO_UNAVAILABLE, Rule.permanent());
+        rules.put(ErrorCategory.CORRUPTED_BINARY, Rule.retries(2).waitForUpdate());
+        rules.put(ErrorCategory.BINARY_LOCKED, Rule.retries(2).waitForUpdate());
+        rules.put(ErrorCategory.NETFREE_BLOCKED, Rule.retries(1).switchProxy());
+        rules.put(ErrorCategory.OUTDATED_EXTRACTOR, Rule.retries(1).update());
+        rules.put(ErrorCategory.RATE_LIMITED, Rule.retries(2).switchProxy().backoff(5000));
+        rules.put(ErrorCategory.NETWORK, Rule.retries(2).switchProxy().backoff(2000));
+        rules.put(ErrorCategory.UNKNOWN, Rule.retries(1).switchProxy());
+    }
+
+    public static Tracker track(boolean hasFallbackProxy, boolean updatesAllowed) {
+        return new Tracker(hasFallbackProxy, updatesAllowed);
+    }
+
+    private static class Rule {
+
+        final boolean permanent;
+        final int retries;
+        boolean switchProxy = false;
+        boolean update = false;
+        boolean waitForUpdate = false;
+        long backoffMs = 0;
+
+        private Rule(boolean permanent, int retries) {
+            this.permanent = permanent;
+            this.retries = retries;
+        }
+
+        static Rule permanent() {
+            return new Rule(true, 0);
+        }
+
+        static Rule retries(int retries) {
+            return new Rule(false, retries);
+        }
+
+        Rule switchProxy() {
+            switchProxy = true;
+            return this;
+        }
+
+        Rule update() {
+            update = true;
+            return this;
+        }
+
+        Rule waitForUpdate() {
+            waitForUpdate = true;
+            return this;
+        }
+
+        Rule backoff(long baseMs) {
+            backoffMs = baseMs;
+            return this;
+        }
+    }
+
+    // מצב הניסיונות של עבודה אחת
+    public static class Tracker {
+
+        private final boolean hasFallbackProxy;
+        private final boolean updatesAllowed;
+        private final Map<ErrorCategory, Integer> retriesUsed = new EnumMap<>(ErrorCategory.class);
+        private int attempts = 1;
+        private boolean proxySwitched = false;
+        private boolean updated = false;
+        private long backoffMillis = 0;
+
+        private Tracker(boolean hasFallbackProxy, boolean updatesAllowed) {
+            this.hasFallbackProxy = hasFallbackProxy;
+            this.updatesAllowed = updatesAllowed;
+        }
+
+        public Action next(ErrorCategory category) {
+            Rule rule = rules.get(category);
+            int used = retriesUsed.merge(category, 1, Integer::sum);
+            int attempt = attempts;
+            Action action = decide(rule, used);
+            if (action != Action.FAIL) {
+                attempts++;
+            }
+            logger.info("Attempt {} failed with {} -> {}", attempt, category, action);
+            return action;
+        }
+
+        private Action decide(Rule rule, int used) {
+            if (rule.permanent || used > rule.retries || attempts >= MAX_ATTEMPTS) {
+                return Action.FAIL;
+            }
+            if (rule.switchProxy && hasFallbackProxy && !proxySwitched) {
+                proxySwitched = true;
+                return Action.SWITCH_PROXY;
+            }
+            if (rule.update) {
+                if (updated || !updatesAllowed) {
+                    return Action.FAIL;
+                }
+                updated = true;
+                return Action.UPDATE;
+            }
+            if (rule.waitForUpdate) {
+                return Action.WAIT_FOR_UPDATE;
+            }
+            if (rule.backoffMs > 0) {
+                backoffMillis = rule.backoffMs << (used - 1);
+                return Action.BACKOFF;
+            }
+            return Action.FAIL;
+        }
+
+        public long getBackoffMillis() {
+            return backoffMillis;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.mps;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// מחזיק עבודות בתפזורת עד שחלון ההרצה שלהן נפתח, ומשהה עבודות פעילות כשהוא נסגר.
+// הורדות בודדות אינטראקטיביות לא עוברות כאן בכלל
+public class RunScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RunScheduler.class);
+    private static final long TICK_SECONDS = Long.getLong("nfmp3.schedule.tickSeconds", 15);
+    private static final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "run-window");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Map<String, Entry> held = new LinkedHashMap<>();
+    private static final Map<String, Entry> active = new LinkedHashMap<>();
+    private static ScheduledFuture<?> tickTask = null;
+
+    // pause יכול להיות null - העבודה עוצרת בעצמה בגבול החלון (תור)
+    public static void submit(String jobId, RunWindow window, Runnable start, Runnable pause, Runnable onHeld) {
+        Entry entry = new Entry(window, start, pause, onHeld);
+        synchronized (RunScheduler.class) {
+            if (!window.isOpenNow()) {
+                held.put(jobId, entry);
+                logger.info("Job {} held until its run window {} opens (in {} min)", jobId, window,
+                        window.untilOpen(LocalDateTime.now()).toMinutes());
+                ensureTicking();
+                entry = null;
+            } else if (pause != null) {
+                active.put(jobId, entry);
+                ensureTicking();
+            }
+        }
+        if (entry == null) {
+            onHeld.run();
+        } else {
+            start.run();
+        }
+    }
+
+    public static synchronized boolean forget(String jobId) {
+        boolean wasHeld = held.remove(jobId) != null;
+        return active.remove(jobId) != null || wasHeld;
+    }
+
+    // true אם הייתה עבודה שממתינה לחלון
+    public static synchronized boolean forgetPrefixed(String prefix) {
+        boolean wasHeld = held.keySet().removeIf(id -> id.startsWith(prefix));
+        active.keySet().removeIf(id -> id.startsWith(prefix));
+        return wasHeld;
+    }
+
+    // העבודה הסתיימה (לא הושהתה על ידי החלון) - מפסיקים לעקוב אחריה. ייתכן שכבר הועברה ל-held אם החלון
+    // נסגר בזמן שחיכתה במאגר, ואז היא לא אמורה להתחיל שוב בפתיחה הבאה
+    public static synchronized void finished(String jobId) {
+        held.remove(jobId);
+        active.remove(jobId);
+    }
+
+    public static synchronized int heldCount() {
+        return held.size();
+    }
+
+    private static void ensureTicking() {
+        if (tickTask == null) {
+            tickTask = ticker.scheduleWithFixedDelay(RunScheduler::tick, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void tick() {
+        List<Runnable> actions = new ArrayList<>();
+        synchronized (RunScheduler.class) {
+            for (Iterator<Map.Entry<String, Entry>> it = held.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Entry> e = it.next();
+                Entry entry = e.getValue();
+                if (entry.window.isOpenNow()) {
+                    it.remove();
+                    logger.info("Run window {} opened. Starting job {}", entry.window, e.getKey());
+                    if (entry.pause != null) {
+                        active.put(e.getKey(), entry);
+                    }
+                    actions.add(entry.start);
+                }
+            }
+            for (Iterator<Map.Entry<String, Entry>> it = active.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Entry> e = it.next();
+                Entry entry = e.getValue();
+                if (!entry.window.isOpenNow()) {
+                    it.remove();
+                    held.put(e.getKey(), entry);
+                    logger.info("Run window {} closed. Pausing job {} until it opens again", entry.window, e.getKey());
+                    actions.add(entry.pause);
+                    actions.add(entry.onHeld);
+                }
+            }
+            if (held.isEmpty() && active.isEmpty()) {
+                tickTask.cancel(false);
+                tickTask = null;
+            }
+        }
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (Exception e) {
+                logger.error("Run window action failed", e);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final RunWindow window;
+        final Runnable start;
+        final Runnable pause;
+        final Runnable onHeld;
+
+        Entry(RunWindow window, Runnable start, Runnable pause, Runnable onHeld) {
+            this.window = window;
+            this.start = start;
+            this.pause = pause;
+            this.onHeld = onHeld;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.mps;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// חלון הרצה יומי, למשל 01:00-06:00. חלון שבו ההתחלה מאוחרת מהסוף עובר את חצות (22:00-06:00)
+public class RunWindow {
+
+    private static final Pattern windowPattern = Pattern
+            .compile("^\\s*(\\d{1,2}:\\d{2})\\s*[-–—]\\s*(\\d{1,2}:\\d{2})\\s*$");
+
+    private final LocalTime start;
+    private final LocalTime end;
+
+    private RunWindow(LocalTime start, LocalTime end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    // null כשאין חלון או שהטקסט לא תקין - העבודה רצה מיד כמו קודם
+    public static RunWindow parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return null;
+        }
+        Matcher matcher = windowPattern.matcher(text);
+        if (!matcher.matches()) {
+            return null;
+        }
+        try {
+            LocalTime start = LocalTime.parse(pad(matcher.group(1)));
+            LocalTime end = LocalTime.parse(pad(matcher.group(2)));
+            return start.equals(end) ? null : new RunWindow(start, end);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String pad(String time) {
+        return time.length() == 4 ? "0" + time : time;
+    }
+
+    public boolean isOpen(LocalTime now) {
+        if (start.isBefore(end)) {
+            return !now.isBefore(start) && now.isBefore(end);
+        }
+        return !now.isBefore(start) || now.isBefore(end);
+    }
+
+    public boolean isOpenNow() {
+        return isOpen(LocalTime.now());
+    }
+
+    public Duration untilOpen(LocalDateTime now) {
+        if (isOpen(now.toLocalTime())) {
+            return Duration.ZERO;
+        }
+        LocalDateTime next = now.toLocalDate().atTime(start);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        return Duration.between(now, next);
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
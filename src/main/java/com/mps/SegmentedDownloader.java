@@ -0,0 +1,552 @@
+package com.mps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// מוריד את כתובות המדיה ש-yt-dlp חילץ בכמה חיבורי HTTP Range במקביל.
+// כל מקטע נכתב במיקום שלו (FileChannel) לקובץ שהוקצה מראש בגודל המלא ומנסה שוב לבד מהבית שבו נעצר;
+// הקובץ מקבל את השם ש-yt-dlp מצפה לו, כך שריצת yt-dlp שאחריו מדלגת על ההורדה ועוברת לעיבוד
+public class SegmentedDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedDownloader.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    public static final String RESOLVED_PREFIX = "MPS_RESOLVED:";
+    // ytdlp = המוריד של yt-dlp (ברירת מחדל), native = המוריד הזה
+    private static final String BACKEND = System.getProperty("nfmp3.downloader", "ytdlp");
+    private static final int CONNECTIONS = Math.max(1, Integer.getInteger("nfmp3.segments", 4));
+    private static final long MIN_SEGMENT_BYTES = Long.getLong("nfmp3.segment.minBytes", 1024 * 1024);
+    private static final int SEGMENT_RETRIES = Integer.getInteger("nfmp3.segment.retries", 3);
+    private static final long STALL_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("nfmp3.segment.stallSeconds", 20));
+    private static final long PROGRESS_MILLIS = 500;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final String PART_SUFFIX = ".segments";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(?:\\d+|\\*)",
+            Pattern.CASE_INSENSITIVE);
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadPoolExecutor segmentExecutor = (ThreadPoolExecutor) Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "segment-" + threadCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        Metrics.registerExecutor("segments", segmentExecutor);
+    }
+
+    // לקוח HTTP/1.1 לכל פרוקסי - ב-HTTP/2 כל המקטעים היו חולקים חיבור אחד
+    private static final Map<String, HttpClient> clients = new ConcurrentHashMap<>();
+
+    // FALLBACK = ההורדה נשארת ל-yt-dlp: פרוטוקול שאינו http(s), שרת בלי Range, כשל, או ביטול.
+    // בביטול (גם השהיה) הקובץ החלקי והמצב נשמרים כדי להמשיך מהם. NO_SPACE = אין מקום בדיסק גם בלי עבודות אחרות
+    public enum Outcome {
+        FETCHED, FALLBACK, NO_SPACE
+    }
+
+    public static boolean isEnabled() {
+        return "native".equals(BACKEND);
+    }
+
+    // מתווסף לפקודת ההורדה הרגילה: yt-dlp מחלץ, שומר את קובץ המידע ומדפיס את הכתובות בלי להוריד.
+    // downloader_options.http_chunk_size (ביוטיוב 10MiB) הוא הגודל המרבי של בקשה אחת - שרת שמקבל טווח גדול יותר מאט אותו
+    public static List<String> resolveArgs() {
+        return List.of("--no-simulate", "--skip-download", "--print", "video:" + RESOLVED_PREFIX
+                + "%(.{filename,url,protocol,http_headers,downloader_options,requested_formats})j");
+    }
+
+    public static Outcome fetch(String resolvedLine, String proxyUrl, Consumer<ProgressLine> progress,
+            Runnable onDiskWait, BooleanSupplier cancelled) throws InterruptedException {
+        List<Target> targets;
+        try {
+            targets = targets(objectMapper.readTree(resolvedLine.substring(RESOLVED_PREFIX.length())));
+        } catch (IOException e) {
+            logger.error("Failed to parse resolved line", e);
+            targets = null;
+        }
+        if (targets == null) {
+            Metrics.segmentedFallbacks.increment();
+            return Outcome.FALLBACK;
+        }
+        HttpClient client = clients.computeIfAbsent(proxyUrl == null ? "" : proxyUrl,
+                key -> SharedHttp.newClient(HttpClient.Version.HTTP_1_1, proxyUrl));
+        DiskSpaceGuard.Reservation space = DiskSpaceGuard.current();
+        String spaceKey = targets.get(0).file.getFileName().toString();
+        try {
+            long total = 0;
+            long allocate = 0;
+            for (Target target : targets) {
+                if (Files.isRegularFile(target.file)) {
+                    // ניסיון קודם כבר הוריד אותו והכשל היה בעיבוד
+                    target.length = Files.size(target.file);
+                    target.complete = true;
+                } else {
+                    target.length = probe(client, target);
+                    if (target.length <= 0) {
+                        logger.info("{} does not serve byte ranges; leaving the download to yt-dlp",
+                                URI.create(target.url).getHost());
+                        Metrics.segmentedFallbacks.increment();
+                        return Outcome.FALLBACK;
+                    }
+                    if (!Files.exists(part(target))) {
+                        allocate += target.length;
+                    }
+                }
+                total += target.length;
+            }
+            // ההקצאה מראש תופסת את כל הגודל מיד - קודם מוודאים שיש מקום, כמו MPS_SIZE בהורדה הרגילה
+            DiskSpaceGuard.Verdict verdict;
+            while ((verdict = space.require(spaceKey, allocate)) == DiskSpaceGuard.Verdict.WAIT) {
+                onDiskWait.run();
+                if (!space.awaitRoom(cancelled)) {
+                    return Outcome.FALLBACK;
+                }
+            }
+            if (verdict == DiskSpaceGuard.Verdict.NO_SPACE) {
+                logger.warn("Not enough disk space to preallocate {} bytes for {}", allocate, spaceKey);
+                return Outcome.NO_SPACE;
+            }
+            Transfer transfer = new Transfer(total, progress, cancelled);
+            for (Target target : targets) {
+                if (target.complete) {
+                    transfer.downloaded.addAndGet(target.length);
+                } else if (!download(client, target, transfer)) {
+                    return Outcome.FALLBACK;
+                }
+            }
+            return Outcome.FETCHED;
+        } catch (IOException e) {
+            logger.warn("Segmented download failed ({}); leaving it to yt-dlp", e.getMessage());
+            Metrics.segmentedFallbacks.increment();
+            for (Target target : targets) {
+                discard(target);
+            }
+            return Outcome.FALLBACK;
+        } finally {
+            // מה שהורד כבר על הדיסק ונספר בשטח הפנוי; ריצת yt-dlp שאחרי שומרת מקום לעיבוד דרך MPS_SIZE
+            space.drop(spaceKey);
+        }
+    }
+
+    // פורמט יחיד, או כמה פורמטים למיזוג שכל אחד נשמר כ-<שם>.f<format_id>.<ext> כמו אצל yt-dlp
+    private static List<Target> targets(JsonNode resolved) {
+        String filename = resolved.path("filename").asText(null);
+        if (filename == null) {
+            return null;
+        }
+        Path file = Paths.get(filename);
+        List<Target> targets = new ArrayList<>();
+        JsonNode formats = resolved.path("requested_formats");
+        if (formats.isArray() && formats.size() > 0) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String stem = dot == -1 ? name : name.substring(0, dot);
+            for (JsonNode format : formats) {
+                Path formatFile = file.resolveSibling(
+                        stem + ".f" + format.path("format_id").asText() + "." + format.path("ext").asText());
+                Target target = Target.of(format, formatFile);
+                if (target == null) {
+                    return null;
+                }
+                targets.add(target);
+            }
+        } else {
+            Target target = Target.of(resolved, file);
+            if (target == null) {
+                return null;
+            }
+            targets.add(target);
+        }
+        return targets;
+    }
+
+    // Range של בית אחד: 206 עם Content-Range נותן את הגודל המלא; 0 אם השרת לא תומך בטווחים
+    private static long probe(HttpClient client, Target target) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = client.send(target.request(0, 0), HttpResponse.BodyHandlers.ofInputStream());
+        // בלי 206 השרת שולח את כל הקובץ - סוגרים בלי לקרוא אותו
+        response.body().close();
+        if (response.statusCode() != 206) {
+            return 0;
+        }
+        String range = response.headers().firstValue("Content-Range").orElse("");
+        int slash = range.lastIndexOf('/');
+        try {
+            return slash == -1 ? 0 : Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean download(HttpClient client, Target target, Transfer transfer)
+            throws IOException, InterruptedException {
+        Path part = part(target);
+        Path state = part.resolveSibling(part.getFileName() + ".json");
+        List<Segment> segments = resume(part, state, target.length);
+        if (segments == null) {
+            segments = split(target.length);
+            try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw")) {
+                file.setLength(target.length);
+            }
+        } else {
+            logger.info("Resuming {} from {} of {} bytes", target.file.getFileName(), done(segments), target.length);
+        }
+        transfer.downloaded.addAndGet(done(segments));
+        logger.info("Fetching {} ({} bytes) over {} connections", target.file.getFileName(), target.length,
+                segments.stream().filter(s -> !s.isDone()).count());
+
+        long start = System.nanoTime();
+        AtomicBoolean stop = new AtomicBoolean(false);
+        List<Future<?>> futures = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+            for (Segment segment : segments) {
+                if (!segment.isDone()) {
+                    futures.add(segmentExecutor.submit(() -> {
+                        runSegment(client, target, segment, channel, transfer.downloaded, stop);
+                        return null;
+                    }));
+                }
+            }
+            try {
+                while (!futures.stream().allMatch(Future::isDone)) {
+                    Thread.sleep(PROGRESS_MILLIS);
+                    if (transfer.cancelled.getAsBoolean()) {
+                        stopAll(stop, segments, futures);
+                        saveState(state, target.length, segments);
+                        return false;
+                    }
+                    failFast(futures, stop, segments);
+                    watchStalls(target, segments);
+                    transfer.report();
+                }
+                failFast(futures, stop, segments);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                stopAll(stop, segments, futures);
+                throw e;
+            }
+            channel.force(false);
+        }
+        Files.move(part, target.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(state);
+        transfer.report();
+        Metrics.segmentedDownloads.increment();
+        Metrics.segmentedBytes.add(target.length);
+        logger.info("Fetched {} in {} ms", target.file.getFileName(), (long) Metrics.millisSince(start));
+        return true;
+    }
+
+    // כל מקטע ממשיך מהבית האחרון שנכתב, בבקשות של עד http_chunk_size בתים; ניסיון שהתקדם לא נספר מול המגבלה
+    private static void runSegment(HttpClient client, Target target, Segment segment, FileChannel channel,
+            AtomicLong downloaded, AtomicBoolean stop) throws IOException, InterruptedException {
+        int attempt = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        while (!segment.isDone() && !stop.get()) {
+            long before = segment.position;
+            long to = target.chunkSize > 0 ? Math.min(segment.end, segment.position + target.chunkSize - 1) : segment.end;
+            try {
+                HttpResponse<InputStream> response = client.send(target.request(segment.position, to),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream in = response.body()) {
+                    if (response.statusCode() != 206) {
+                        throw new SharedHttp.StatusException(target.url, response.statusCode());
+                    }
+                    checkRange(response.headers().firstValue("Content-Range").orElse(""), segment.position, to);
+                    segment.stream = in;
+                    segment.lastActivity = System.currentTimeMillis();
+                    int read;
+                    while (!stop.get() && segment.position <= to && (read = in.read(buffer, 0,
+                            (int) Math.min(buffer.length, to - segment.position + 1))) != -1) {
+                        wrapped.clear().limit(read);
+                        while (wrapped.hasRemaining()) {
+                            segment.position += channel.write(wrapped, segment.position);
+                        }
+                        downloaded.addAndGet(read);
+                        segment.lastActivity = System.currentTimeMillis();
+                    }
+                } finally {
+                    segment.stream = null;
+                }
+                if (segment.position <= to && !stop.get()) {
+                    throw new IOException("Connection closed at byte " + segment.position);
+                }
+            } catch (IOException e) {
+                if (stop.get()) {
+                    return;
+                }
+                attempt = segment.position > before ? 1 : attempt + 1;
+                if (attempt > SEGMENT_RETRIES) {
+                    throw e;
+                }
+                Metrics.segmentRetries.increment();
+                logger.warn("Segment {}-{} of {} failed ({}), retry {} from byte {}", segment.start, segment.end,
+                        target.file.getFileName(), e.getMessage(), attempt, segment.position);
+                Thread.sleep(500L * attempt);
+            }
+        }
+    }
+
+    // שרת (או מטמון בדרך) שמחזיר טווח אחר ממה שביקשנו היה כותב בתים לא נכונים למיקום הזה
+    private static void checkRange(String contentRange, long from, long to) throws IOException {
+        Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+        if (!matcher.matches() || Long.parseLong(matcher.group(1)) != from || Long.parseLong(matcher.group(2)) > to) {
+            throw new IOException("Unexpected Content-Range '" + contentRange + "' for bytes " + from + "-" + to);
+        }
+    }
+
+    private static void failFast(List<Future<?>> futures, AtomicBoolean stop, List<Segment> segments)
+            throws IOException, InterruptedException {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                continue;
+            }
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                stopAll(stop, segments, futures);
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+    }
+
+    // סגירת הזרם משחררת קריאה תקועה; המקטע ינסה שוב מאותו מקום
+    private static void watchStalls(Target target, List<Segment> segments) {
+        long now = System.currentTimeMillis();
+        for (Segment segment : segments) {
+            InputStream stream = segment.stream;
+            if (stream != null && now - segment.lastActivity > STALL_MILLIS) {
+                logger.warn("Segment {}-{} of {} stalled at byte {}, reconnecting", segment.start, segment.end,
+                        target.file.getFileName(), segment.position);
+                segment.lastActivity = now;
+                closeQuietly(stream);
+            }
+        }
+    }
+
+    private static void stopAll(AtomicBoolean stop, List<Segment> segments, List<Future<?>> futures)
+            throws InterruptedException {
+        stop.set(true);
+        for (Segment segment : segments) {
+            InputStream stream = segment.stream;
+            if (stream != null) {
+                closeQuietly(stream);
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                // כבר מטופל או שהמקטע נתקע - הערוץ נסגר בכל מקרה
+            }
+        }
+    }
+
+    private static List<Segment> split(long length) {
+        int count = (int) Math.max(1, Math.min(CONNECTIONS, length / MIN_SEGMENT_BYTES));
+        long size = length / count;
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            long end = i == count - 1 ? length - 1 : start + size - 1;
+            segments.add(new Segment(start, start, end));
+        }
+        return segments;
+    }
+
+    private static long done(List<Segment> segments) {
+        long done = 0;
+        for (Segment segment : segments) {
+            done += segment.position - segment.start;
+        }
+        return done;
+    }
+
+    private static void saveState(Path state, long length, List<Segment> segments) {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("length", length);
+        ArrayNode array = root.putArray("segments");
+        for (Segment segment : segments) {
+            array.addArray().add(segment.start).add(segment.position).add(segment.end);
+        }
+        try {
+            objectMapper.writeValue(state.toFile(), root);
+        } catch (IOException e) {
+            logger.warn("Could not save segment state {}", state, e);
+        }
+    }
+
+    private static List<Segment> resume(Path part, Path state, long length) {
+        try {
+            if (!Files.isRegularFile(part) || !Files.isRegularFile(state) || Files.size(part) != length) {
+                return null;
+            }
+            JsonNode root = objectMapper.readTree(state.toFile());
+            if (root.path("length").asLong() != length) {
+                return null;
+            }
+            List<Segment> segments = new ArrayList<>();
+            for (JsonNode segment : root.path("segments")) {
+                segments.add(new Segment(segment.get(0).asLong(), segment.get(1).asLong(), segment.get(2).asLong()));
+            }
+            return segments.isEmpty() ? null : segments;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Path part(Target target) {
+        return target.file.resolveSibling("." + target.file.getFileName() + PART_SUFFIX);
+    }
+
+    private static void discard(Target target) {
+        Path part = part(target);
+        try {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(part.resolveSibling(part.getFileName() + ".json"));
+        } catch (IOException e) {
+            logger.warn("Could not delete partial file {}", part, e);
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // הקריאה תיכשל בכל מקרה
+        }
+    }
+
+    private static class Target {
+
+        final Path file;
+        final String url;
+        final Map<String, String> headers;
+        // 0 = בלי הגבלה
+        final long chunkSize;
+        long length;
+        boolean complete = false;
+
+        private Target(Path file, String url, Map<String, String> headers, long chunkSize) {
+            this.file = file;
+            this.url = url;
+            this.headers = headers;
+            this.chunkSize = chunkSize;
+        }
+
+        static Target of(JsonNode format, Path file) {
+            String protocol = format.path("protocol").asText("");
+            String url = format.path("url").asText(null);
+            if (url == null || !(protocol.equals("https") || protocol.equals("http"))) {
+                logger.info("Protocol '{}' is not handled by the segmented downloader", protocol);
+                return null;
+            }
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (Iterator<Map.Entry<String, JsonNode>> it = format.path("http_headers").fields(); it.hasNext();) {
+                Map.Entry<String, JsonNode> header = it.next();
+                headers.put(header.getKey(), header.getValue().asText());
+            }
+            long chunkSize = Math.max(0, format.path("downloader_options").path("http_chunk_size").asLong(0));
+            return new Target(file, url, headers, chunkSize);
+        }
+
+        HttpRequest request(long from, long to) {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).GET();
+            headers.forEach((name, value) -> {
+                try {
+                    builder.header(name, value);
+                } catch (IllegalArgumentException e) {
+                    // כותרות כמו Host ו-Connection נקבעות על ידי הלקוח
+                }
+            });
+            return builder.header("Range", "bytes=" + from + "-" + to).build();
+        }
+    }
+
+    private static class Segment {
+
+        final long start;
+        final long end;
+        volatile long position;
+        volatile long lastActivity;
+        volatile InputStream stream;
+
+        Segment(long start, long position, long end) {
+            this.start = start;
+            this.position = position;
+            this.end = end;
+        }
+
+        boolean isDone() {
+            return position > end;
+        }
+    }
+
+    // התקדמות משותפת לכל הקבצים של אותה הורדה (וידאו + שמע)
+    private static class Transfer {
+
+        final long total;
+        final Consumer<ProgressLine> progress;
+        final BooleanSupplier cancelled;
+        final AtomicLong downloaded = new AtomicLong();
+        long lastBytes = -1;
+        long lastNanos = System.nanoTime();
+        Double speed = null;
+
+        Transfer(long total, Consumer<ProgressLine> progress, BooleanSupplier cancelled) {
+            this.total = total;
+            this.progress = progress;
+            this.cancelled = cancelled;
+        }
+
+        void report() {
+            long bytes = downloaded.get();
+            long now = System.nanoTime();
+            if (lastBytes >= 0 && now > lastNanos) {
+                speed = (bytes - lastBytes) * 1e9 / (now - lastNanos);
+            }
+            lastBytes = bytes;
+            lastNanos = now;
+            Long eta = speed != null && speed > 0 ? (long) ((total - bytes) / speed) : null;
+            progress.accept(ProgressLine.of(bytes, total, speed, eta));
+        }
+    }
+}
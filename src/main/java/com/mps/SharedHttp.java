@@ -0,0 +1,187 @@
+package com.mps;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SharedHttp {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedHttp.class);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    // לקוח אחד לכל האפליקציה - שומר חיבורי TLS/HTTP2 פתוחים בין קריאות
+    private static final HttpClient client = buildClient();
+
+    private static final Map<String, CachedResponse> cache = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public static HttpClient client() {
+        return client;
+    }
+
+    public static String get(String url, Duration ttl, String... headers) throws IOException, InterruptedException {
+        CachedResponse cached = cache.get(url);
+        if (cached != null && !cached.isOlderThan(ttl)) {
+            return cached.body;
+        }
+
+        // בקשה אחת בלבד לכל כתובת בו זמנית - שאר הקוראים מחכים לתשובה שלה
+        CompletableFuture<CachedResponse> mine = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> existing = inFlight.putIfAbsent(url, mine);
+        if (existing != null) {
+            return await(existing).body;
+        }
+        try {
+            CachedResponse fresh = fetch(url, cached, headers);
+            mine.complete(fresh);
+            return fresh.body;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(url, mine);
+        }
+    }
+
+    public static void invalidate(String url) {
+        cache.remove(url);
+    }
+
+    private static CachedResponse fetch(String url, CachedResponse cached, String... headers)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url)).timeout(REQUEST_TIMEOUT).GET();
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            builder.header(headers[i], headers[i + 1]);
+        }
+        if (cached != null && cached.etag != null) {
+            builder.header("If-None-Match", cached.etag);
+        }
+        if (cached != null && cached.lastModified != null) {
+            builder.header("If-Modified-Since", cached.lastModified);
+        }
+
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 304 && cached != null) {
+            logger.info("{} not modified ({}), reusing cached response", url, response.version());
+            CachedResponse revalidated = cached.touch();
+            cache.put(url, revalidated);
+            return revalidated;
+        }
+        if (response.statusCode() != 200) {
+            throw new StatusException(url, response.statusCode());
+        }
+        CachedResponse fresh = new CachedResponse(response.body(),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null),
+                System.nanoTime());
+        cache.put(url, fresh);
+        return fresh;
+    }
+
+    private static CachedResponse await(CompletableFuture<CachedResponse> future)
+            throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static HttpClient buildClient() {
+        return newClient(HttpClient.Version.HTTP_2, null);
+    }
+
+    // לקוח נפרד עם אותן הגדרות SSL; ב-HTTP/1.1 כל בקשה במקביל מקבלת חיבור משלה
+    public static HttpClient newClient(HttpClient.Version version, String proxyUrl) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.ALWAYS);
+        if (proxyUrl != null && !proxyUrl.isEmpty()) {
+            URI proxy = URI.create(proxyUrl);
+            builder.proxy(ProxySelector.of(new InetSocketAddress(proxy.getHost(), proxy.getPort())));
+        }
+        try {
+            TrustManager[] trustAllCerts = new TrustManager[]{new X509TrustManager() {
+                public X509Certificate[] getAcceptedIssuers() {
+                    return null;
+                }
+
+                public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                }
+
+                public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                }
+            }};
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustAllCerts, new SecureRandom());
+            builder.sslContext(sslContext);
+        } catch (Exception e) {
+            logger.warn("Could not install trust-all SSL context, using default trust store", e);
+        }
+        return builder.build();
+    }
+
+    public static class StatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+        private final int statusCode;
+
+        public StatusException(String url, int statusCode) {
+            super("HTTP " + statusCode + " from " + url);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    private static class CachedResponse {
+
+        final String body;
+        final String etag;
+        final String lastModified;
+        final long fetchedAtNanos;
+
+        CachedResponse(String body, String etag, String lastModified, long fetchedAtNanos) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAtNanos = fetchedAtNanos;
+        }
+
+        boolean isOlderThan(Duration ttl) {
+            return System.nanoTime() - fetchedAtNanos >= ttl.toNanos();
+        }
+
+        CachedResponse touch() {
+            return new CachedResponse(body, etag, lastModified, System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.mps;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+// תור עבודות משותף לכמה מופעים (על אותו מחשב או על כמה מחשבים) דרך תיקייה משותפת:
+//   jobs/<id>.json    עבודה ממתינה (או מושהית - "paused": true, ואז אף מופע לא לוקח אותה עד שממשיכים אותה)
+//   leases/<id>.lease מי מחזיק בה ועד מתי (owner, expires)
+//   done/, failed/    עבודות שהסתיימו
+// כל שינוי נעשה תחת נעילת .lock (FileChannel) וכל כתיבה היא קובץ זמני + rename אטומי.
+// חכירה שלא חודשה עד expires שייכת למופע שמת - מופע אחר לוקח אותה. נדרש שעון מסונכרן (NTP) בין המחשבים
+public class SharedQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedQueue.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String DIR = System.getProperty("nfmp3.shared.dir", "");
+    private static final int SLOTS = Integer.getInteger("nfmp3.shared.slots", 2);
+    private static final long LEASE_MILLIS = Long.getLong("nfmp3.shared.leaseSeconds", 60) * 1000;
+    private static final long POLL_MILLIS = Long.getLong("nfmp3.shared.pollMillis", 2000);
+    private static final int MAX_ATTEMPTS = 3;
+    public static final String JOB_PREFIX = "shared-";
+    private static final String WORKER_ID = workerId();
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "shared-queue");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static Path root;
+    // עבודות שהמופע הזה מחזיק כרגע -> זמן התחלה
+    private static final Map<String, Long> leased = new ConcurrentHashMap<>();
+    // עבודות שהושהו כאן: התיקייה הזמנית נשמרת כדי שאם המופע הזה ייקח אותן שוב, ההורדה תמשיך ממנה
+    private static final Set<String> pausedHere = ConcurrentHashMap.newKeySet();
+
+    private interface LockedAction {
+        void run() throws IOException;
+    }
+
+    public static boolean isEnabled() {
+        return !DIR.isEmpty();
+    }
+
+    public static void start(Javalin app) {
+        if (!isEnabled()) {
+            return;
+        }
+        root = Paths.get(DIR);
+        try {
+            for (String sub : new String[] { "jobs", "leases", "done", "failed" }) {
+                Files.createDirectories(root.resolve(sub));
+            }
+        } catch (IOException e) {
+            logger.error("Shared queue directory {} is not usable", root, e);
+            return;
+        }
+        app.post("/api/shared/jobs", SharedQueue::handleEnqueue);
+        app.get("/api/shared", ctx -> ctx.contentType("application/json").result(objectMapper.writeValueAsString(counts())));
+
+        JobRegistry.subscribe("shared-queue", SharedQueue::onMessage);
+        scheduler.scheduleWithFixedDelay(() -> guarded(SharedQueue::claimWork), 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> guarded(SharedQueue::heartbeat), LEASE_MILLIS / 3, LEASE_MILLIS / 3,
+                TimeUnit.MILLISECONDS);
+        logger.info("Worker {} joined shared queue {} ({} slots, lease {} s)", WORKER_ID, root, SLOTS, LEASE_MILLIS / 1000);
+    }
+
+    // חריגה במשימה מתוזמנת מבטלת אותה בשקט - והמופע היה מפסיק לקחת עבודה או לחדש חכירות
+    private static void guarded(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            logger.error("Shared queue task failed", e);
+        }
+    }
+
+    private static String workerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "unknown";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    // גוף כמו download_advanced, או urls עם אותן אפשרויות לכל הקישורים
+    private static void handleEnqueue(Context ctx) throws Exception {
+        JsonNode json = objectMapper.readTree(ctx.body());
+        List<String> urls = json.has("urls") ? objectMapper.convertValue(json.get("urls"), new TypeReference<>() {
+        }) : new ArrayList<>();
+        if (json.hasNonNull("url")) {
+            urls.add(json.get("url").asText());
+        }
+        if (urls.isEmpty()) {
+            ctx.status(400).result("Missing url");
+            return;
+        }
+        List<String> ids = new ArrayList<>();
+        for (String url : urls) {
+            Map<String, Object> job = new LinkedHashMap<>();
+            job.put("url", url);
+            job.put("formatId", json.path("formatId").asText(null));
+            job.put("destinationPath", json.path("destinationPath").asText(null));
+            job.put("isNetfree", json.path("isNetfreeUser").asBoolean(false));
+            job.put("isVideo", "download_video_advanced".equals(json.path("type").asText()));
+            job.put("attempts", 0);
+            ids.add(enqueue(job));
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("ids", ids);
+        ctx.status(202).contentType("application/json").result(objectMapper.writeValueAsString(response));
+    }
+
+    // המזהה מתחיל בזמן ההגשה כך שמיון לפי שם הוא סדר ההגשה
+    public static String enqueue(Map<String, Object> job) throws IOException {
+        String id = String.format("%013d-%s", System.currentTimeMillis(), UUID.randomUUID().toString().substring(0, 8));
+        writeAtomically(root.resolve("jobs").resolve(id + ".json"), job);
+        return id;
+    }
+
+    public static Map<String, Object> counts() throws IOException {
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("worker", WORKER_ID);
+        counts.put("running", leased.keySet());
+        for (String sub : new String[] { "jobs", "leases", "done", "failed" }) {
+            try (Stream<Path> files = Files.list(root.resolve(sub))) {
+                counts.put(sub, files.filter(p -> !p.getFileName().toString().startsWith(".")).count());
+            }
+        }
+        try (Stream<Path> files = Files.list(root.resolve("jobs"))) {
+            counts.put("paused", files.filter(p -> p.getFileName().toString().endsWith(".json")).filter(SharedQueue::isPaused)
+                    .count());
+        }
+        return counts;
+    }
+
+    // ההשהיה נכתבת לקובץ העבודה, כך שהיא נשמרת גם כשהמופע שהריץ אותה לא זה שקיבל את הבקשה.
+    // המופע שמחזיק את החכירה משחרר אותה (כאן או בפעימה הבאה) ועוצר את ההורדה המקומית בלי למחוק אותה
+    public static boolean pause(String jobId) throws IOException {
+        String id = jobId.substring(JOB_PREFIX.length());
+        boolean[] found = { false };
+        boolean[] ownLease = { false };
+        withLock(() -> {
+            Map<String, Object> job = readJob(id);
+            if (job == null) {
+                return;
+            }
+            found[0] = true;
+            job.put("paused", true);
+            writeAtomically(jobFile(id), job);
+            if (leased.remove(id) != null) {
+                ownLease[0] = true;
+                Files.deleteIfExists(leaseFile(id));
+            }
+        });
+        if (ownLease[0]) {
+            pauseLocal(id);
+        }
+        return found[0];
+    }
+
+    // מחזיר את העבודה לתור. אם היא הושהתה כאן ויש מקום פנוי, המופע הזה לוקח אותה מיד וממשיך מהתיקייה הזמנית
+    public static boolean resume(String jobId) throws IOException {
+        String id = jobId.substring(JOB_PREFIX.length());
+        boolean[] resumed = { false };
+        boolean[] claimHere = { false };
+        withLock(() -> {
+            Map<String, Object> job = readJob(id);
+            if (job == null || !Boolean.TRUE.equals(job.get("paused"))) {
+                return;
+            }
+            job.remove("paused");
+            writeAtomically(jobFile(id), job);
+            resumed[0] = true;
+            if (pausedHere.contains(id) && leased.size() < SLOTS) {
+                writeLease(id, System.currentTimeMillis());
+                claimHere[0] = true;
+            }
+        });
+        if (claimHere[0]) {
+            run(id);
+        }
+        return resumed[0];
+    }
+
+    // ביטול של עבודה מושהית: אף מופע לא מריץ אותה, ולכן אף אחד לא היה מעביר אותה ל-failed
+    public static void cancelPaused(String jobId) throws IOException {
+        String id = jobId.substring(JOB_PREFIX.length());
+        withLock(() -> {
+            Map<String, Object> job = readJob(id);
+            if (job == null || !Boolean.TRUE.equals(job.get("paused"))) {
+                return;
+            }
+            job.put("lastError", "cancelled");
+            writeAtomically(jobFile(id), job);
+            moveQuietly(jobFile(id), root.resolve("failed").resolve(id + ".json"));
+        });
+        logger.info("Cancelled paused shared job {}", id);
+    }
+
+    private static void pauseLocal(String id) {
+        pausedHere.add(id);
+        logger.info("Job {} was paused; released its lease and kept the partial download", id);
+        DownloadService.pauseAdvancedDownload(JOB_PREFIX + id);
+    }
+
+    private static void claimWork() {
+        int free = SLOTS - leased.size();
+        if (free <= 0) {
+            return;
+        }
+        List<String> claimed = new ArrayList<>();
+        try {
+            withLock(() -> {
+                List<Path> pending;
+                try (Stream<Path> files = Files.list(root.resolve("jobs"))) {
+                    pending = files.filter(p -> p.getFileName().toString().endsWith(".json")).sorted()
+                            .collect(Collectors.toList());
+                }
+                long now = System.currentTimeMillis();
+                for (Path job : pending) {
+                    if (claimed.size() >= free) {
+                        break;
+                    }
+                    String id = job.getFileName().toString().replace(".json", "");
+                    if (leased.containsKey(id) || isPaused(job)) {
+                        continue;
+                    }
+                    JsonNode lease = readJson(leaseFile(id));
+                    if (lease != null && lease.path("expires").asLong() > now) {
+                        continue;
+                    }
+                    if (lease != null) {
+                        logger.warn("Taking over job {} from {} (lease expired {} ms ago)", id,
+                                lease.path("owner").asText(), now - lease.path("expires").asLong());
+                        Metrics.sharedTakeovers.increment();
+                    }
+                    writeLease(id, now);
+                    claimed.add(id);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Could not claim shared work: {}", e.getMessage());
+            return;
+        }
+        for (String id : claimed) {
+            run(id);
+        }
+    }
+
+    private static void run(String id) {
+        JsonNode job;
+        try {
+            job = readJson(jobFile(id));
+        } catch (IOException e) {
+            job = null;
+        }
+        if (job == null) {
+            // הושלמה על ידי מופע אחר בין הרשימה לקריאה
+            releaseQuietly(id);
+            return;
+        }
+        leased.put(id, System.nanoTime());
+        // הושהתה כאן: startAdvancedDownload עם אותו מזהה ממשיך מהתיקייה הזמנית שנשמרה
+        pausedHere.remove(id);
+        Metrics.sharedClaims.increment();
+        logger.info("Worker {} claimed job {} ({})", WORKER_ID, id, job.path("url").asText());
+        DownloadService.startAdvancedDownload(JOB_PREFIX + id, job.path("url").asText(), job.path("formatId").asText(null),
+                job.path("destinationPath").asText(null), job.path("isNetfree").asBoolean(false),
+                job.path("isVideo").asBoolean(false), null);
+    }
+
+    private static void heartbeat() {
+        List<String> lost = new ArrayList<>();
+        List<String> paused = new ArrayList<>();
+        List<String> stale = new ArrayList<>();
+        try {
+            withLock(() -> {
+                long now = System.currentTimeMillis();
+                for (String id : leased.keySet()) {
+                    JsonNode lease = readJson(leaseFile(id));
+                    if (lease == null || !WORKER_ID.equals(lease.path("owner").asText())) {
+                        lost.add(id);
+                    } else if (isPaused(jobFile(id))) {
+                        // הושהתה דרך מופע אחר
+                        Files.deleteIfExists(leaseFile(id));
+                        paused.add(id);
+                    } else {
+                        writeLease(id, now);
+                    }
+                }
+                // עבודה שהושהתה כאן והמשיכה אצל מופע אחר (או הסתיימה / בוטלה) - העותק המקומי כבר לא נחוץ
+                for (String id : pausedHere) {
+                    if (!leased.containsKey(id) && !isPaused(jobFile(id))
+                            && (!Files.exists(jobFile(id)) || Files.exists(leaseFile(id)))) {
+                        stale.add(id);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Shared lease heartbeat failed: {}", e.getMessage());
+        }
+        for (String id : paused) {
+            leased.remove(id);
+            pauseLocal(id);
+        }
+        for (String id : stale) {
+            pausedHere.remove(id);
+            logger.info("Paused job {} continued elsewhere; dropping the local partial download", id);
+            DownloadService.cancelAdvancedDownload(JOB_PREFIX + id);
+        }
+        // מופע אחר לקח את העבודה (למשל אחרי שהמופע הזה נתקע) - לא ממשיכים אותה במקביל
+        for (String id : lost) {
+            leased.remove(id);
+            logger.warn("Lost lease on job {}; cancelling the local copy", id);
+            DownloadService.cancelAdvancedDownload(JOB_PREFIX + id);
+        }
+    }
+
+    // נקרא מתהליכון השליחה של JobRegistry - העבודה עם הנעילה והקבצים עוברת לתהליכון של התור
+    private static void onMessage(String json) {
+        if (json.contains("\"downloadId\":\"" + JOB_PREFIX)) {
+            scheduler.execute(() -> guarded(() -> finish(json)));
+        }
+    }
+
+    private static void finish(String json) {
+        try {
+            JsonNode node = objectMapper.readTree(json);
+            String type = node.path("type").asText();
+            if (!"success".equals(type) && !"error".equals(type) && !"cancelled".equals(type)) {
+                return;
+            }
+            String id = node.path("downloadId").asText().substring(JOB_PREFIX.length());
+            Long started = leased.remove(id);
+            if (started != null) {
+                complete(id, type, node.path("error").asText(null), started);
+            }
+        } catch (Exception e) {
+            logger.warn("Could not process shared job message: {}", e.getMessage());
+        }
+    }
+
+    private static void complete(String id, String type, String error, long started) throws IOException {
+        withLock(() -> {
+            JsonNode lease = readJson(leaseFile(id));
+            if (lease == null || !WORKER_ID.equals(lease.path("owner").asText())) {
+                logger.warn("Job {} finished ({}) after its lease moved to another worker; leaving it to them", id, type);
+                return;
+            }
+            Path jobFile = jobFile(id);
+            if ("success".equals(type)) {
+                moveQuietly(jobFile, root.resolve("done").resolve(id + ".json"));
+            } else {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> job = objectMapper.readValue(jobFile.toFile(), Map.class);
+                int attempts = ((Number) job.getOrDefault("attempts", 0)).intValue() + 1;
+                job.put("attempts", attempts);
+                job.put("lastError", "cancelled".equals(type) ? "cancelled" : error);
+                writeAtomically(jobFile, job);
+                // ביטול ידני לא מנוסה שוב; שגיאה חוזרת לתור עד MAX_ATTEMPTS
+                if ("cancelled".equals(type) || attempts >= MAX_ATTEMPTS) {
+                    moveQuietly(jobFile, root.resolve("failed").resolve(id + ".json"));
+                }
+            }
+            Files.deleteIfExists(leaseFile(id));
+        });
+        logger.info("Shared job {} finished as {} in {} ms", id, type, (long) Metrics.millisSince(started));
+    }
+
+    private static void releaseQuietly(String id) {
+        try {
+            withLock(() -> Files.deleteIfExists(leaseFile(id)));
+        } catch (IOException e) {
+            logger.warn("Could not release lease of {}: {}", id, e.getMessage());
+        }
+    }
+
+    // נעילת קובץ בין תהליכים; synchronized כי שני תהליכונים באותו JVM לא יכולים להחזיק את אותה נעילה
+    private static synchronized void withLock(LockedAction action) throws IOException {
+        try (FileChannel channel = FileChannel.open(root.resolve(".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                action.run();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static Path jobFile(String id) {
+        return root.resolve("jobs").resolve(id + ".json");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readJob(String id) throws IOException {
+        try {
+            return objectMapper.readValue(jobFile(id).toFile(), Map.class);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static boolean isPaused(Path job) {
+        try {
+            JsonNode node = readJson(job);
+            return node != null && node.path("paused").asBoolean(false);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Path leaseFile(String id) {
+        return root.resolve("leases").resolve(id + ".lease");
+    }
+
+    private static void writeLease(String id, long now) throws IOException {
+        Map<String, Object> lease = new LinkedHashMap<>();
+        lease.put("owner", WORKER_ID);
+        lease.put("expires", now + LEASE_MILLIS);
+        writeAtomically(leaseFile(id), lease);
+    }
+
+    private static JsonNode readJson(Path file) throws IOException {
+        try {
+            return objectMapper.readTree(file.toFile());
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static void writeAtomically(Path target, Object value) throws IOException {
+        Path tmp = target.resolveSibling("." + target.getFileName() + "." + WORKER_ID + ".tmp");
+        objectMapper.writeValue(tmp.toFile(), value);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void moveQuietly(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            logger.warn("Shared job file {} was already gone", from);
+        }
+    }
+}
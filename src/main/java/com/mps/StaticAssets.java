@@ -0,0 +1,198 @@
+package com.mps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+public class StaticAssets {
+
+    private static final Logger logger = LoggerFactory.getLogger(StaticAssets.class);
+    private static final String IMMUTABLE_CACHE = "public, max-age=31536000, immutable";
+
+    private static final Map<String, Asset> assets = new ConcurrentHashMap<>();
+    private static volatile Asset index = null;
+
+    public static void register(Javalin app, Path webDir) {
+        long start = System.nanoTime();
+        try {
+            load(webDir);
+        } catch (IOException e) {
+            logger.error("Failed to prepare web assets from {}", webDir, e);
+            return;
+        }
+        logger.info("Prepared {} web assets (+ index.html) from {} in {} ms", assets.size(), webDir,
+                (System.nanoTime() - start) / 1_000_000);
+
+        app.get("/", ctx -> serve(ctx, index, false));
+        app.get("/index.html", ctx -> serve(ctx, index, false));
+        app.get("/assets/{hash}/{name}", ctx -> {
+            Asset asset = assets.get(ctx.pathParam("name"));
+            if (asset == null || !asset.hash.equals(ctx.pathParam("hash"))) {
+                ctx.status(404).result("Not found");
+                return;
+            }
+            serve(ctx, asset, true);
+        });
+    }
+
+    public static boolean isAvailable() {
+        return index != null;
+    }
+
+    private static void load(Path webDir) throws IOException {
+        Path indexPath = webDir.resolve("index.html");
+        if (!Files.exists(indexPath)) {
+            throw new IOException("index.html not found in " + webDir);
+        }
+        try (Stream<Path> stream = Files.list(webDir)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                String name = path.getFileName().toString();
+                if (Files.isDirectory(path) || name.equals("index.html") || name.endsWith(".gz") || name.endsWith(".br")) {
+                    continue;
+                }
+                assets.put(name, Asset.of(path, name, Files.readAllBytes(path)));
+            }
+        }
+
+        String html = new String(Files.readAllBytes(indexPath), StandardCharsets.UTF_8);
+        for (Asset asset : assets.values()) {
+            // מפנים כל נכס לכתובת עם hash של התוכן כדי לאפשר שמירה ארוכת טווח במטמון הדפדפן
+            Pattern reference = Pattern.compile("(?<!download=)([\"'(])" + Pattern.quote(asset.name) + "([\"')])");
+            html = reference.matcher(html)
+                    .replaceAll("$1" + Matcher.quoteReplacement("/assets/" + asset.hash + "/" + asset.name) + "$2");
+        }
+        index = Asset.of(indexPath, "index.html", html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void serve(Context ctx, Asset asset, boolean immutable) {
+        if (asset == null) {
+            ctx.status(404).result("Not found");
+            return;
+        }
+        ctx.header("ETag", asset.etag);
+        ctx.header("Vary", "Accept-Encoding");
+        ctx.header("Cache-Control", immutable ? IMMUTABLE_CACHE : "no-cache");
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(asset.etag)) {
+            ctx.status(304);
+            return;
+        }
+
+        String acceptEncoding = ctx.header("Accept-Encoding");
+        acceptEncoding = acceptEncoding == null ? "" : acceptEncoding;
+        ctx.contentType(asset.mimeType);
+        if (asset.brotli != null && acceptEncoding.contains("br")) {
+            ctx.header("Content-Encoding", "br");
+            ctx.result(asset.brotli);
+        } else if (asset.gzip != null && acceptEncoding.contains("gzip")) {
+            ctx.header("Content-Encoding", "gzip");
+            ctx.result(asset.gzip);
+        } else {
+            ctx.result(asset.raw);
+        }
+    }
+
+    private static class Asset {
+
+        final String name;
+        final String mimeType;
+        final String hash;
+        final String etag;
+        final byte[] raw;
+        final byte[] gzip;
+        final byte[] brotli;
+
+        private Asset(String name, String mimeType, String hash, byte[] raw, byte[] gzip, byte[] brotli) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.hash = hash;
+            this.etag = "\"" + hash + "\"";
+            this.raw = raw;
+            this.gzip = gzip;
+            this.brotli = brotli;
+        }
+
+        static Asset of(Path path, String name, byte[] raw) throws IOException {
+            String mimeType = mimeTypeOf(name);
+            String hash = contentHash(raw);
+            byte[] gzip = null;
+            byte[] brotli = null;
+            if (isCompressible(mimeType)) {
+                // קבצים דחוסים שנבנו מראש (name.gz / name.br) מועדפים, אחרת דוחסים פעם אחת בזיכרון
+                Path prebuiltBrotli = path.resolveSibling(name + ".br");
+                Path prebuiltGzip = path.resolveSibling(name + ".gz");
+                if (!name.equals("index.html") && Files.exists(prebuiltBrotli)) {
+                    brotli = Files.readAllBytes(prebuiltBrotli);
+                }
+                gzip = !name.equals("index.html") && Files.exists(prebuiltGzip) ? Files.readAllBytes(prebuiltGzip) : gzip(raw);
+            }
+            return new Asset(name, mimeType, hash, raw, gzip, brotli);
+        }
+    }
+
+    private static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.equals("image/svg+xml")
+                || mimeType.equals("application/javascript") || mimeType.equals("application/json");
+    }
+
+    private static String mimeTypeOf(String name) {
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".html")) {
+            return "text/html; charset=utf-8";
+        } else if (lower.endsWith(".css")) {
+            return "text/css; charset=utf-8";
+        } else if (lower.endsWith(".js")) {
+            return "application/javascript";
+        } else if (lower.endsWith(".json")) {
+            return "application/json";
+        } else if (lower.endsWith(".svg")) {
+            return "image/svg+xml";
+        } else if (lower.endsWith(".png")) {
+            return "image/png";
+        } else if (lower.endsWith(".ico")) {
+            return "image/x-icon";
+        } else if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+            return "image/jpeg";
+        } else if (lower.endsWith(".zip")) {
+            return "application/zip";
+        }
+        return "application/octet-stream";
+    }
+
+    private static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(raw);
+        }
+        return out.toByteArray();
+    }
+
+    private static String contentHash(byte[] raw) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(raw);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 6; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
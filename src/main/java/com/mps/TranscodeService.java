@@ -0,0 +1,154 @@
+package com.mps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TranscodeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranscodeService.class);
+    private static final int POOL_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadPoolExecutor transcodeExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(POOL_SIZE, r -> {
+        Thread t = new Thread(r, "transcode-" + threadCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        Metrics.registerExecutor("transcode", transcodeExecutor);
+    }
+
+    private static final Set<Process> activeProcesses = ConcurrentHashMap.newKeySet();
+
+    public static boolean isMp3Format(String formatId) {
+        return formatId == null || formatId.isEmpty() || formatId.startsWith("mp3_");
+    }
+
+    public static boolean isStagedFormat(String formatId) {
+        return isMp3Format(formatId) || "raw_audio".equals(formatId);
+    }
+
+    public static String audioQualityFor(String formatId) {
+        if ("mp3_medium".equals(formatId)) {
+            return "5";
+        }
+        if ("mp3_low".equals(formatId)) {
+            return "9";
+        }
+        return "0";
+    }
+
+    public static String safeFileName(String title) {
+        String name = (title == null || title.trim().isEmpty()) ? "audio" : title.trim();
+        return name.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+
+    public static Future<Boolean> submit(Path source, Path cover, Path target, String audioQuality,
+            Map<String, String> tags, Consumer<String> stageListener) {
+        return transcodeExecutor.submit(() -> {
+            stageListener.accept("transcoding");
+            boolean ok = transcode(source, cover, target, audioQuality, tags);
+            stageListener.accept(ok ? "transcoded" : "transcode_failed");
+            return ok;
+        });
+    }
+
+    public static boolean transcode(Path source, Path cover, Path target, String audioQuality,
+            Map<String, String> tags) {
+        List<String> command = buildTranscodeCommand(source, cover, target, audioQuality, tags);
+        logger.info("Transcoding {} -> {}", source.getFileName(), target.getFileName());
+        Process process = null;
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.redirectErrorStream(true);
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            long spawnStart = System.nanoTime();
+            process = processBuilder.start();
+            Metrics.spawnLatencyMs.observe(Metrics.millisSince(spawnStart));
+            Metrics.activeProcesses.incrementAndGet();
+            activeProcesses.add(process);
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                logger.error("ffmpeg transcode failed for {} (exit code {})", source, exitCode);
+                Files.deleteIfExists(target);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to run ffmpeg for {}", source, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (process != null) {
+                Metrics.activeProcesses.decrementAndGet();
+                activeProcesses.remove(process);
+            }
+        }
+    }
+
+    public static void cancelAll() {
+        activeProcesses.forEach(process -> {
+            logger.info("Killing transcode process PID {}", process.pid());
+            process.destroyForcibly();
+        });
+    }
+
+    private static List<String> buildTranscodeCommand(Path source, Path cover, Path target, String audioQuality,
+            Map<String, String> tags) {
+        List<String> command = new ArrayList<>();
+        command.add(PathUtils.getBinDirectory().resolve("ffmpeg.exe").toString());
+        command.add("-hide_banner");
+        command.add("-nostdin");
+        command.add("-y");
+        command.add("-i");
+        command.add(source.toString());
+        boolean copyAudio = audioQuality == null;
+        boolean hasCover = !copyAudio && cover != null && Files.exists(cover);
+        if (hasCover) {
+            command.add("-i");
+            command.add(cover.toString());
+        }
+        command.add("-map");
+        command.add("0:a:0");
+        if (hasCover) {
+            command.addAll(List.of("-map", "1:0", "-c:v", "copy", "-disposition:v", "attached_pic",
+                    "-metadata:s:v", "title=Album cover", "-metadata:s:v", "comment=Cover (front)"));
+        }
+        command.addAll(List.of("-map_metadata", "-1"));
+        if (copyAudio) {
+            command.addAll(List.of("-c:a", "copy"));
+        } else {
+            command.addAll(List.of("-c:a", "libmp3lame", "-q:a", audioQuality));
+        }
+        if (tags != null) {
+            tags.forEach((key, value) -> {
+                if (value != null && !value.isEmpty()) {
+                    command.add("-metadata");
+                    command.add(key + "=" + value);
+                }
+            });
+        }
+        if (!copyAudio) {
+            command.add("-id3v2_version");
+            command.add("3");
+        }
+        command.add(target.toString());
+        return command;
+    }
+}
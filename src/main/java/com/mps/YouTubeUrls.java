@@ -0,0 +1,36 @@
+package com.mps;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class YouTubeUrls {
+
+    private static final Pattern videoIdPattern = Pattern
+            .compile("(?:[?&]v=|youtu\\.be/|/shorts/|/embed/|/live/|/v/)([A-Za-z0-9_-]{11})(?![A-Za-z0-9_-])");
+    private static final Pattern playlistIdPattern = Pattern.compile("[?&]list=([A-Za-z0-9_-]+)");
+
+    public static String videoId(String url) {
+        if (url == null) {
+            return null;
+        }
+        Matcher matcher = videoIdPattern.matcher(url.trim());
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    // youtu.be/ID?t=30, watch?v=ID&list=...&t=... ו-shorts/ID הופכים כולם לאותה כתובת
+    public static String canonical(String url) {
+        String id = videoId(url);
+        if (id == null) {
+            return url == null ? null : url.trim();
+        }
+        return "https://www.youtube.com/watch?v=" + id;
+    }
+
+    public static String playlistId(String url) {
+        if (url == null) {
+            return null;
+        }
+        Matcher matcher = playlistIdPattern.matcher(url.trim());
+        return matcher.find() ? matcher.group(1) : null;
+    }
+}
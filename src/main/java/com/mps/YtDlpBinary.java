@@ -0,0 +1,296 @@
+package com.mps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// הפצת yt-dlp פרוסה (onedir): yt-dlp.exe + _internal בתיקייה, נפרסת פעם אחת תחת bin ורצה ישירות.
+// הגרסה החד-קובצית פורסת את סביבת הפייתון שלה לתיקייה זמנית בכל הפעלה מחדש.
+// כל גרסה נפרסת לתיקייה משלה (yt-dlp-<version>) והקובץ yt-dlp.current מצביע על הפעילה,
+// כך שעדכון לא נוגע בקבצים של תהליכים שעדיין רצים
+public class YtDlpBinary {
+
+    private static final Logger logger = LoggerFactory.getLogger(YtDlpBinary.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // auto = פרוסה אם קיימת, אחרת קובץ יחיד; onefile = תמיד הקובץ היחיד
+    private static final String LAYOUT = System.getProperty("nfmp3.ytdlp.layout", "auto");
+    private static final String ARCHIVE = System.getProperty("nfmp3.ytdlp.archive", "yt-dlp_win.zip");
+    private static final String RELEASES_URL = "https://api.github.com/repos/yt-dlp/yt-dlp/releases/latest";
+    private static final String CHECKSUMS = "SHA2-256SUMS";
+    private static final String POINTER = "yt-dlp.current";
+    private static final String EXECUTABLE = "yt-dlp.exe";
+    private static final Duration RELEASE_CHECK_TTL = Duration.ofHours(1);
+
+    private static volatile Path activeDir = null;
+
+    public static boolean isEnabled() {
+        return !"onefile".equals(LAYOUT);
+    }
+
+    // null כשאין הפצה פרוסה פעילה
+    public static Path activeExecutable() {
+        if (!isEnabled()) {
+            return null;
+        }
+        Path dir = activeDir;
+        if (dir == null || !Files.isDirectory(dir)) {
+            dir = readPointer();
+            activeDir = dir;
+        }
+        return dir != null ? dir.resolve(EXECUTABLE) : null;
+    }
+
+    public static boolean isUnpacked() {
+        return activeExecutable() != null;
+    }
+
+    private static Path readPointer() {
+        Path binDir = PathUtils.getBinDirectory();
+        try {
+            String name = Files.readString(binDir.resolve(POINTER), StandardCharsets.UTF_8).trim();
+            Path dir = binDir.resolve(name);
+            return Files.isRegularFile(dir.resolve(EXECUTABLE)) ? dir : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // מ-setupBinaries: פריסה חד-פעמית של הארכיון שמגיע עם התוכנה, וניקוי גרסאות ישנות
+    public static void install() {
+        if (!isEnabled()) {
+            return;
+        }
+        if (isUnpacked()) {
+            removeStaleVersions();
+            return;
+        }
+        try (InputStream archive = App.class.getResourceAsStream("/bin/" + ARCHIVE)) {
+            if (archive == null) {
+                return;
+            }
+            long start = System.nanoTime();
+            Path dir = unpack(archive);
+            if (dir != null) {
+                logger.info("Unpacked {} to {} in {} ms", ARCHIVE, dir, (long) Metrics.millisSince(start));
+            }
+        } catch (IOException e) {
+            logger.error("Failed to unpack {}; staying on the single-file yt-dlp", ARCHIVE, e);
+        }
+    }
+
+    // -U לא נתמך בהפצה הפרוסה - מורידים את הארכיון של הגרסה האחרונה ופורסים לצד הקיימת.
+    // מחזיר true אם הותקנה גרסה חדשה
+    public static boolean update(Runnable onUpdating) {
+        Path current = activeDir;
+        try {
+            JsonNode release = objectMapper.readTree(SharedHttp.get(RELEASES_URL, RELEASE_CHECK_TTL,
+                    "Accept", "application/vnd.github.v3+json"));
+            String latest = release.path("tag_name").asText();
+            if (current != null && current.getFileName().toString().equals("yt-dlp-" + latest)) {
+                logger.info("Unpacked yt-dlp is up to date ({})", latest);
+                return false;
+            }
+            String url = null;
+            String checksumsUrl = null;
+            for (JsonNode asset : release.path("assets")) {
+                if (ARCHIVE.equals(asset.path("name").asText())) {
+                    url = asset.path("browser_download_url").asText();
+                } else if (CHECKSUMS.equals(asset.path("name").asText())) {
+                    checksumsUrl = asset.path("browser_download_url").asText();
+                }
+            }
+            if (url == null) {
+                logger.warn("Release {} has no {} asset", latest, ARCHIVE);
+                return false;
+            }
+            // SharedHttp לא מאמת תעודות (נטפרי) - הארכיון נבדק מול הגיבוב שפורסם לפני שהוא נפרס
+            String expected = checksumsUrl != null ? expectedChecksum(SharedHttp.get(checksumsUrl, RELEASE_CHECK_TTL)) : null;
+            if (expected == null) {
+                logger.warn("Release {} has no {} entry for {}; not updating", latest, CHECKSUMS, ARCHIVE);
+                return false;
+            }
+            onUpdating.run();
+            logger.info("Updating unpacked yt-dlp to {}", latest);
+            Path download = PathUtils.getBinDirectory().resolve(ARCHIVE + ".part");
+            HttpResponse<Path> response = SharedHttp.client().send(
+                    HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofMinutes(5)).GET().build(),
+                    HttpResponse.BodyHandlers.ofFile(download));
+            try {
+                if (response.statusCode() != 200) {
+                    logger.warn("Downloading {} failed with HTTP {}", ARCHIVE, response.statusCode());
+                    return false;
+                }
+                String actual = sha256(download);
+                if (!expected.equalsIgnoreCase(actual)) {
+                    logger.error("{} checksum mismatch (expected {}, got {}); discarding the download", ARCHIVE,
+                            expected, actual);
+                    return false;
+                }
+                try (InputStream archive = Files.newInputStream(download)) {
+                    return unpack(archive) != null;
+                }
+            } finally {
+                Files.deleteIfExists(download);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to update unpacked yt-dlp", e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // שורות בפורמט של sha256sum: "<hex>  <שם קובץ>" (לפעמים עם * לפני השם)
+    private static String expectedChecksum(String sums) {
+        for (String line : sums.split("\\r?\\n")) {
+            String[] parts = line.trim().split("\\s+", 2);
+            if (parts.length == 2 && parts[1].replaceFirst("^\\*", "").equals(ARCHIVE)
+                    && parts[0].matches("[0-9a-fA-F]{64}")) {
+                return parts[0];
+            }
+        }
+        return null;
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // פורס לתיקייה זמנית, מברר את הגרסה מהקובץ עצמו, משנה את השם ורק אז מעדכן את המצביע
+    private static synchronized Path unpack(InputStream archive) throws IOException {
+        Path binDir = PathUtils.getBinDirectory();
+        Path staging = binDir.resolve(".yt-dlp-unpack-" + ProcessHandle.current().pid());
+        deleteRecursively(staging);
+        Files.createDirectories(staging);
+        try {
+            try (ZipInputStream zip = new ZipInputStream(archive)) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    Path target = staging.resolve(entry.getName()).normalize();
+                    if (!target.startsWith(staging)) {
+                        throw new IOException("Archive entry escapes the target directory: " + entry.getName());
+                    }
+                    if (entry.isDirectory()) {
+                        Files.createDirectories(target);
+                    } else {
+                        Files.createDirectories(target.getParent());
+                        Files.copy(zip, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+            Path executable = staging.resolve(EXECUTABLE);
+            if (!Files.isRegularFile(executable)) {
+                logger.error("{} does not contain {}", ARCHIVE, EXECUTABLE);
+                return null;
+            }
+            executable.toFile().setExecutable(true);
+            String version = version(executable);
+            if (version == null) {
+                logger.error("Unpacked yt-dlp did not report a version; not activating it");
+                return null;
+            }
+            Path dir = binDir.resolve("yt-dlp-" + version);
+            if (!Files.isRegularFile(dir.resolve(EXECUTABLE))) {
+                deleteRecursively(dir);
+                Files.move(staging, dir);
+            }
+            Path pointer = binDir.resolve(POINTER + ".tmp");
+            Files.writeString(pointer, dir.getFileName().toString(), StandardCharsets.UTF_8);
+            Files.move(pointer, binDir.resolve(POINTER), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            activeDir = dir;
+            logger.info("Active yt-dlp is now the unpacked {}", dir.getFileName());
+            return dir;
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    private static String version(Path executable) {
+        try {
+            Process process = new ProcessBuilder(executable.toString(), "--version").redirectErrorStream(true).start();
+            String line;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                line = reader.readLine();
+            }
+            if (!process.waitFor(60, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return null;
+            }
+            return process.exitValue() == 0 && line != null && line.trim().matches("[0-9A-Za-z._-]+") ? line.trim() : null;
+        } catch (IOException e) {
+            logger.warn("Could not run {}: {}", executable, e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // גרסאות קודמות נמחקות רק בהפעלה הבאה, כשאף תהליך שלנו כבר לא מריץ אותן
+    private static void removeStaleVersions() {
+        Path binDir = PathUtils.getBinDirectory();
+        Path active = activeDir;
+        try (Stream<Path> entries = Files.list(binDir)) {
+            entries.filter(p -> Files.isDirectory(p) && p.getFileName().toString().startsWith("yt-dlp-")
+                    && !p.equals(active)).forEach(p -> {
+                        logger.info("Removing old unpacked yt-dlp {}", p.getFileName());
+                        deleteRecursively(p);
+                    });
+        } catch (IOException e) {
+            logger.warn("Could not list {}: {}", binDir, e.getMessage());
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", dir, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.mps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// כותב תגיות עם Id3Tagger לקבצי mp3 קטנים וקורא אותן בחזרה: קובץ בלי תגית, תיוג חוזר במקום (בלי להזיז את האודיו),
+// תגית שלא נכנסת בריפוד (העתקה), ותגית v2.4 קיימת עם footer. בכל מקרה האודיו שאחרי התגית חייב להישאר זהה.
+//
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.mps.Id3TaggerCheck
+public class Id3TaggerCheck {
+
+    private final byte[] audio = new byte[64 * 1024];
+    private Path workDir;
+    private int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.exit(new Id3TaggerCheck().run());
+    }
+
+    private int run() throws Exception {
+        new Random(7).nextBytes(audio);
+        // תחילת frame של MPEG-1 Layer III, כמו בקובץ אמיתי
+        audio[0] = (byte) 0xff;
+        audio[1] = (byte) 0xfb;
+        workDir = Files.createTempDirectory("nfmp3-id3");
+        try {
+            checkUntagged();
+            checkRetagInPlace();
+            checkRetagGrows();
+            checkV24Footer();
+        } finally {
+            deleteRecursively(workDir);
+        }
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        return failures == 0 ? 0 : 1;
+    }
+
+    private void checkUntagged() throws IOException {
+        Path mp3 = workDir.resolve("untagged.mp3");
+        Files.write(mp3, audio);
+        Path cover = workDir.resolve("cover.jpg");
+        byte[] coverBytes = randomBytes(3000, 1);
+        Files.write(cover, coverBytes);
+        long written = Id3Tagger.write(mp3, tags("Song title", "זמר", "20240131"), cover);
+        Tag tag = read(mp3);
+        expect("untagged: ID3v2.3 header", tag != null && tag.version == 3);
+        expect("untagged: written bytes match the file", written == Files.size(mp3));
+        expect("untagged: title", tag != null && "Song title".equals(tag.frames.get("TIT2")));
+        expect("untagged: Hebrew artist in UTF-16", tag != null && "זמר".equals(tag.frames.get("TPE1")));
+        expect("untagged: year only", tag != null && "2024".equals(tag.frames.get("TYER")));
+        expect("untagged: cover embedded", tag != null && Arrays.equals(coverBytes, tag.cover));
+        expect("untagged: audio unchanged", tag != null && audioIntact(mp3, tag));
+    }
+
+    // תיוג חוזר עם פחות נתונים נכנס בריפוד - גודל הקובץ לא משתנה והאודיו לא זז
+    private void checkRetagInPlace() throws IOException {
+        Path mp3 = workDir.resolve("in-place.mp3");
+        Files.write(mp3, audio);
+        Id3Tagger.write(mp3, tags("A much longer title than the next one", "Artist", "2023"), null);
+        long size = Files.size(mp3);
+        Tag before = read(mp3);
+        long written = Id3Tagger.write(mp3, tags("Short", "Other artist", null), null);
+        Tag after = read(mp3);
+        expect("in place: file size unchanged", Files.size(mp3) == size);
+        expect("in place: only the tag region written", before != null && written == before.region);
+        expect("in place: new title", after != null && "Short".equals(after.frames.get("TIT2")));
+        expect("in place: new artist", after != null && "Other artist".equals(after.frames.get("TPE1")));
+        expect("in place: old year gone", after != null && !after.frames.containsKey("TYER"));
+        expect("in place: audio unchanged", after != null && audioIntact(mp3, after));
+    }
+
+    // עטיפה שגדולה מהריפוד מחייבת העתקה של הקובץ
+    private void checkRetagGrows() throws IOException {
+        Path mp3 = workDir.resolve("grows.mp3");
+        Files.write(mp3, audio);
+        Id3Tagger.write(mp3, tags("Title", null, null), null);
+        Tag before = read(mp3);
+        Path cover = workDir.resolve("big.jpg");
+        byte[] coverBytes = randomBytes(8000, 2);
+        Files.write(cover, coverBytes);
+        Id3Tagger.write(mp3, tags("Title", "Artist", null), cover);
+        Tag after = read(mp3);
+        expect("grows: tag region larger", before != null && after != null && after.region > before.region);
+        expect("grows: cover embedded", after != null && Arrays.equals(coverBytes, after.cover));
+        expect("grows: audio unchanged", after != null && audioIntact(mp3, after));
+        try (Stream<Path> files = Files.list(workDir)) {
+            expect("grows: no temp file left", files.noneMatch(p -> p.getFileName().toString().endsWith(".id3tmp")));
+        }
+    }
+
+    // ה-footer של v2.4 (עשרה בתים "3DI") אינו נכלל בגודל שבכותרת - אסור שיישאר לפני האודיו
+    private void checkV24Footer() throws IOException {
+        Path small = workDir.resolve("v24-in-place.mp3");
+        Files.write(small, concat(v24Tag("Old title", 600), audio));
+        Id3Tagger.write(small, tags("New", null, null), null);
+        Tag inPlace = read(small);
+        expect("v2.4 footer, in place: size unchanged", Files.size(small) == 10 + 600 + 10 + audio.length);
+        expect("v2.4 footer, in place: title", inPlace != null && "New".equals(inPlace.frames.get("TIT2")));
+        expect("v2.4 footer, in place: audio unchanged", inPlace != null && audioIntact(small, inPlace));
+
+        Path large = workDir.resolve("v24-copy.mp3");
+        Files.write(large, concat(v24Tag("Old title", 40), audio));
+        Path cover = workDir.resolve("v24.jpg");
+        Files.write(cover, randomBytes(1000, 3));
+        Id3Tagger.write(large, tags("New", "Artist", null), cover);
+        Tag copied = read(large);
+        expect("v2.4 footer, copy: rewritten as v2.3", copied != null && copied.version == 3);
+        expect("v2.4 footer, copy: title", copied != null && "New".equals(copied.frames.get("TIT2")));
+        expect("v2.4 footer, copy: audio unchanged, no footer left", copied != null && audioIntact(large, copied));
+    }
+
+    private static Map<String, String> tags(String title, String artist, String date) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("title", title);
+        tags.put("artist", artist);
+        tags.put("date", date);
+        return tags;
+    }
+
+    // תגית v2.4 עם footer: גודל synchsafe גם במסגרת, ריפוד עד bodySize
+    private static byte[] v24Tag(String title, int bodySize) {
+        byte[] text = title.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer tag = ByteBuffer.allocate(10 + bodySize + 10);
+        tag.put(new byte[] { 'I', 'D', '3', 4, 0, 0x10 });
+        tag.put(synchsafe(bodySize));
+        tag.put("TIT2".getBytes(StandardCharsets.ISO_8859_1));
+        tag.put(synchsafe(text.length + 1));
+        tag.put(new byte[] { 0, 0, 3 });
+        tag.put(text);
+        tag.position(10 + bodySize);
+        tag.put(new byte[] { '3', 'D', 'I', 4, 0, 0x10 });
+        tag.put(synchsafe(bodySize));
+        return tag.array();
+    }
+
+    private static byte[] synchsafe(int value) {
+        return new byte[] { (byte) ((value >> 21) & 0x7f), (byte) ((value >> 14) & 0x7f), (byte) ((value >> 7) & 0x7f),
+                (byte) (value & 0x7f) };
+    }
+
+    private static class Tag {
+        int version;
+        long region;
+        final Map<String, String> frames = new LinkedHashMap<>();
+        byte[] cover;
+    }
+
+    // קורא ID3v2.3 כפי ש-Id3Tagger כותב אותו
+    private static Tag read(Path mp3) throws IOException {
+        byte[] data = Files.readAllBytes(mp3);
+        if (data.length < 10 || data[0] != 'I' || data[1] != 'D' || data[2] != '3') {
+            return null;
+        }
+        Tag tag = new Tag();
+        tag.version = data[3];
+        int size = ((data[6] & 0x7f) << 21) | ((data[7] & 0x7f) << 14) | ((data[8] & 0x7f) << 7) | (data[9] & 0x7f);
+        boolean footer = data[3] == 4 && (data[5] & 0x10) != 0;
+        tag.region = 10 + size + (footer ? 10 : 0);
+        int position = 10;
+        while (position + 10 <= 10 + size && data[position] != 0) {
+            String id = new String(data, position, 4, StandardCharsets.ISO_8859_1);
+            int length = ByteBuffer.wrap(data, position + 4, 4).getInt();
+            int body = position + 10;
+            if ("APIC".equals(id)) {
+                int p = body + 1;
+                while (data[p] != 0) {
+                    p++;
+                }
+                // mime, סוג תמונה, תיאור ריק
+                p += 3;
+                tag.cover = Arrays.copyOfRange(data, p, body + length);
+            } else if (data[body] == 1) {
+                tag.frames.put(id, new String(data, body + 1, length - 1, StandardCharsets.UTF_16));
+            } else {
+                tag.frames.put(id, new String(data, body + 1, length - 1, StandardCharsets.ISO_8859_1));
+            }
+            position = body + length;
+        }
+        return tag;
+    }
+
+    private boolean audioIntact(Path mp3, Tag tag) throws IOException {
+        byte[] data = Files.readAllBytes(mp3);
+        return data.length - tag.region == audio.length
+                && Arrays.equals(Arrays.copyOfRange(data, (int) tag.region, data.length), audio);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    private void expect(String name, boolean ok) {
+        System.out.println((ok ? "PASS " : "FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package com.mps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// מריץ את App בתהליך נפרד מול yt-dlp ו-ffmpeg מדומים (src/test/resources/loadtest) ומפעיל עליו
+// הרבה לקוחות WebSocket במקביל. עובד ללא רשת, על Linux.
+//
+//   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.mps.LoadHarness \
+//        --clients=20 --jobs=5 --lines-per-sec=50 --progress-lines=100 --size-mb=5 --fail-percent=5
+//
+// --soak-seconds=N ממשיך לשלוח עבודות חדשות עד שהזמן עובר; --transcript=path משמיע תמליל מוקלט.
+public class LoadHarness {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int PORT = 9595;
+    private static final int MAX_LATENCY_MS = 60_000;
+
+    private final Map<String, String> options;
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final AtomicLongArray latencyMs = new AtomicLongArray(MAX_LATENCY_MS + 1);
+    private final AtomicLong progressMessages = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger videoCounter = new AtomicInteger();
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private volatile long maxThreads = 0;
+    private volatile long maxHeapBytes = 0;
+    private volatile long lastThreads = 0;
+    private volatile long lastHeapBytes = 0;
+    private long soakDeadlineNanos = 0;
+
+    private LoadHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put(eq == -1 ? arg.substring(2) : arg.substring(2, eq), eq == -1 ? "true" : arg.substring(eq + 1));
+            }
+        }
+        System.exit(new LoadHarness(options).run());
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    private int run() throws Exception {
+        int clients = intOption("clients", 10);
+        int jobsPerClient = intOption("jobs", 5);
+        int soakSeconds = intOption("soak-seconds", 0);
+        int timeoutSeconds = intOption("timeout-seconds", 600);
+        long sizeBytes = (long) (Double.parseDouble(options.getOrDefault("size-mb", "5")) * 1024 * 1024);
+
+        Path workDir = Files.createTempDirectory("nfmp3-load");
+        Process app = null;
+        List<WebSocket> sockets = new ArrayList<>();
+        try {
+            Path binDir = workDir.resolve("bin");
+            installFakeBinary("yt-dlp.sh", binDir.resolve("yt-dlp.exe"));
+            installFakeBinary("ffmpeg.sh", binDir.resolve("ffmpeg.exe"));
+            app = startApp(workDir, binDir, sizeBytes);
+            awaitServer(app);
+            Thread sampler = startSampler();
+
+            long start = System.nanoTime();
+            if (soakSeconds > 0) {
+                soakDeadlineNanos = start + TimeUnit.SECONDS.toNanos(soakSeconds);
+            }
+            for (int c = 0; c < clients; c++) {
+                sockets.add(connect("c" + c, jobsPerClient, workDir.resolve("out")));
+            }
+            try {
+                finished.get(timeoutSeconds + soakSeconds, TimeUnit.SECONDS);
+            } catch (java.util.concurrent.TimeoutException e) {
+                System.out.println("Timed out with " + outstanding.get() + " jobs still outstanding");
+            }
+            long wallNanos = System.nanoTime() - start;
+            sampler.interrupt();
+            sampleMetrics();
+            report(clients, jobsPerClient, wallNanos, sizeBytes);
+            return failed.get() == 0 || options.containsKey("fail-percent") ? 0 : 1;
+        } finally {
+            for (WebSocket socket : sockets) {
+                socket.abort();
+            }
+            if (app != null) {
+                app.destroy();
+                if (!app.waitFor(10, TimeUnit.SECONDS)) {
+                    app.destroyForcibly();
+                }
+            }
+            if (!options.containsKey("keep")) {
+                deleteRecursively(workDir);
+            } else {
+                System.out.println("Work directory kept at " + workDir);
+            }
+        }
+    }
+
+    private void installFakeBinary(String resource, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try (InputStream in = LoadHarness.class.getResourceAsStream("/loadtest/" + resource)) {
+            if (in == null) {
+                throw new IOException("Missing harness resource /loadtest/" + resource);
+            }
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (!target.toFile().setExecutable(true)) {
+            throw new IOException("Could not mark " + target + " executable");
+        }
+    }
+
+    private Process startApp(Path workDir, Path binDir, long sizeBytes) throws IOException {
+        Path home = workDir.resolve("home");
+        Files.createDirectories(home.resolve("Downloads"));
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add(options.getOrDefault("app-heap", "-Xmx512m"));
+        command.add("-Dnfmp3.bin.dir=" + binDir);
+        command.add("-Duser.home=" + home);
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("com.mps.App");
+        command.add("--protocol-launch");
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        Map<String, String> env = builder.environment();
+        env.put("APPDATA", workDir.resolve("appdata").toString());
+        env.put("FAKE_YTDLP_STAMP", "1");
+        env.put("FAKE_YTDLP_SIZE_BYTES", String.valueOf(sizeBytes));
+        env.put("FAKE_YTDLP_LINES_PER_SEC", options.getOrDefault("lines-per-sec", "20"));
+        env.put("FAKE_YTDLP_PROGRESS_LINES", options.getOrDefault("progress-lines", "50"));
+        env.put("FAKE_YTDLP_FAIL_PERCENT", options.getOrDefault("fail-percent", "0"));
+        env.put("FAKE_YTDLP_FAILURE", options.getOrDefault("failure", "error"));
+        if (options.containsKey("transcript")) {
+            env.put("FAKE_YTDLP_TRANSCRIPT", Paths.get(options.get("transcript")).toAbsolutePath().toString());
+        }
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(workDir.resolve("app-console.log").toFile());
+        System.out.println("Starting App against fake binaries in " + binDir);
+        return builder.start();
+    }
+
+    private void awaitServer(Process app) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            if (!app.isAlive()) {
+                throw new IllegalStateException("App exited early with code " + app.exitValue()
+                        + " (is port " + PORT + " already in use?)");
+            }
+            try {
+                fetchMetrics();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(200);
+            }
+        }
+        throw new IllegalStateException("App did not start listening on port " + PORT);
+    }
+
+    private String fetchMetrics() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/metrics"))
+                .timeout(Duration.ofSeconds(5)).build();
+        return http.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private Thread startSampler() {
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                sampleMetrics();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.setName("metrics-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        return sampler;
+    }
+
+    private void sampleMetrics() {
+        try {
+            for (String line : fetchMetrics().split("\n")) {
+                if (line.startsWith("nfmp3_jvm_threads ")) {
+                    lastThreads = Long.parseLong(line.substring(line.indexOf(' ') + 1).trim());
+                    maxThreads = Math.max(maxThreads, lastThreads);
+                } else if (line.startsWith("nfmp3_jvm_heap_used_bytes ")) {
+                    lastHeapBytes = Long.parseLong(line.substring(line.indexOf(' ') + 1).trim());
+                    maxHeapBytes = Math.max(maxHeapBytes, lastHeapBytes);
+                }
+            }
+        } catch (Exception e) {
+            // האפליקציה כבר נסגרה - נשארים עם הדגימה האחרונה
+        }
+    }
+
+    private WebSocket connect(String clientId, int jobs, Path outDir) throws Exception {
+        Set<String> ownJobs = ConcurrentHashMap.newKeySet();
+        Client client = new Client(clientId, ownJobs, outDir);
+        WebSocket socket = null;
+        // ה-endpoint של ה-WebSocket נרשם אחרי /metrics, ולכן ייתכן 404 בשניות הראשונות
+        for (int attempt = 1; socket == null; attempt++) {
+            try {
+                socket = http.newWebSocketBuilder()
+                        .buildAsync(URI.create("ws://localhost:" + PORT + "/ws"), client)
+                        .get(10, TimeUnit.SECONDS);
+            } catch (java.util.concurrent.ExecutionException e) {
+                if (attempt >= 50) {
+                    throw e;
+                }
+                Thread.sleep(200);
+            }
+        }
+        client.socket = socket;
+        for (int i = 0; i < jobs; i++) {
+            client.submit();
+        }
+        return socket;
+    }
+
+    private void jobDone(boolean success) {
+        if (success) {
+            succeeded.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        if (outstanding.decrementAndGet() == 0 && !soaking()) {
+            finished.complete(null);
+        }
+    }
+
+    private boolean soaking() {
+        return soakDeadlineNanos != 0 && System.nanoTime() < soakDeadlineNanos;
+    }
+
+    private void report(int clients, int jobsPerClient, long wallNanos, long sizeBytes) {
+        double seconds = wallNanos / 1e9;
+        System.out.println();
+        System.out.println("=== NFmp3Downloader load report ===");
+        System.out.printf(Locale.ROOT, "clients=%d jobsPerClient=%d soakSeconds=%s%n", clients, jobsPerClient,
+                options.getOrDefault("soak-seconds", "0"));
+        System.out.printf(Locale.ROOT, "jobs: submitted=%d succeeded=%d failed=%d outstanding=%d%n",
+                submitted.get(), succeeded.get(), failed.get(), outstanding.get());
+        System.out.printf(Locale.ROOT, "wall time: %.1f s%n", seconds);
+        System.out.printf(Locale.ROOT, "throughput: %.2f jobs/s, %.2f MB/s%n", succeeded.get() / seconds,
+                succeeded.get() * (double) sizeBytes / (1024 * 1024) / seconds);
+        System.out.printf(Locale.ROOT, "messages: %d received, %d progress (%.0f/s across all clients)%n",
+                messages.get(), progressMessages.get(), progressMessages.get() / seconds);
+        System.out.printf(Locale.ROOT, "progress delivery latency ms: p50=%d p90=%d p99=%d max=%d%n",
+                percentile(0.50), percentile(0.90), percentile(0.99), percentile(1.0));
+        System.out.printf(Locale.ROOT, "app threads: max=%d last=%d%n", maxThreads, lastThreads);
+        System.out.printf(Locale.ROOT, "app heap used: max=%.1f MB last=%.1f MB%n", maxHeapBytes / 1048576.0,
+                lastHeapBytes / 1048576.0);
+    }
+
+    private long percentile(double p) {
+        long total = 0;
+        for (int i = 0; i < latencyMs.length(); i++) {
+            total += latencyMs.get(i);
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < latencyMs.length(); i++) {
+            seen += latencyMs.get(i);
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return MAX_LATENCY_MS;
+    }
+
+    private static void deleteRecursively(Path path) {
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Could not clean up " + path + ": " + e.getMessage());
+        }
+    }
+
+    private class Client implements WebSocket.Listener {
+
+        private final String clientId;
+        private final Set<String> ownJobs;
+        private final Path outDir;
+        private final StringBuilder partial = new StringBuilder();
+        private final AtomicInteger jobCounter = new AtomicInteger();
+        volatile WebSocket socket;
+
+        Client(String clientId, Set<String> ownJobs, Path outDir) {
+            this.clientId = clientId;
+            this.ownJobs = ownJobs;
+            this.outDir = outDir;
+        }
+
+        void submit() {
+            String downloadId = clientId + "-" + jobCounter.incrementAndGet();
+            String videoId = String.format(Locale.ROOT, "L%010d", videoCounter.incrementAndGet());
+            ObjectNode request = objectMapper.createObjectNode();
+            request.put("type", "download_advanced");
+            request.put("downloadId", downloadId);
+            request.put("url", "https://www.youtube.com/watch?v=" + videoId);
+            request.put("formatId", options.getOrDefault("format", "mp3_high"));
+            request.put("destinationPath", outDir.resolve(clientId).toString());
+            ownJobs.add(downloadId);
+            outstanding.incrementAndGet();
+            submitted.incrementAndGet();
+            synchronized (this) {
+                socket.sendText(request.toString(), true).join();
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                String json = partial.toString();
+                partial.setLength(0);
+                handle(json);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        private void handle(String json) {
+            long receivedAt = System.currentTimeMillis();
+            messages.incrementAndGet();
+            JsonNode message;
+            try {
+                message = objectMapper.readTree(json);
+            } catch (IOException e) {
+                return;
+            }
+            String type = message.path("type").asText();
+            if ("progress".equals(type)) {
+                progressMessages.incrementAndGet();
+                // yt-dlp המדומה שם את זמן הפליטה בשדה המהירות (FAKE_YTDLP_STAMP)
+                long emittedAt = message.path("speedBytes").asLong(0);
+                if (emittedAt > 1_000_000_000_000L) {
+                    int latency = (int) Math.max(0, Math.min(MAX_LATENCY_MS, receivedAt - emittedAt));
+                    latencyMs.incrementAndGet(latency);
+                }
+                return;
+            }
+            String downloadId = message.path("downloadId").asText(null);
+            boolean terminal = "success".equals(type) || "error".equals(type) || "cancelled".equals(type);
+            if (!terminal || downloadId == null || !ownJobs.remove(downloadId)) {
+                return;
+            }
+            if (soaking()) {
+                CompletableFuture.runAsync(this::submit);
+            }
+            jobDone("success".equals(type));
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            System.out.println("Client " + clientId + " error: " + error);
+        }
+    }
+}
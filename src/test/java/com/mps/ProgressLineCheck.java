@@ -0,0 +1,95 @@
+package com.mps;
+
+import java.util.Objects;
+
+// בודק את ProgressLine.parse על שורות MPS_PROGRESS כפי ש-yt-dlp מדפיס אותן: שדות NA/None, הערכת גודל,
+// שורה קטועה, מספרים עשרוניים ושורות שאינן התקדמות.
+//
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.mps.ProgressLineCheck
+public class ProgressLineCheck {
+
+    private int failures = 0;
+
+    public static void main(String[] args) {
+        System.exit(new ProgressLineCheck().run());
+    }
+
+    private int run() {
+        checkFullLine();
+        checkMissingFields();
+        checkCompletion();
+        checkNotProgress();
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        return failures == 0 ? 0 : 1;
+    }
+
+    private void checkFullLine() {
+        ProgressLine progress = ProgressLine.parse(ProgressLine.PREFIX + "1048576|4194304|NA|524288.0|6");
+        expect("full: parsed", progress != null);
+        if (progress == null) {
+            return;
+        }
+        expect("full: downloaded", progress.getDownloadedBytes() == 1048576);
+        expect("full: total", Objects.equals(progress.getTotalBytes(), 4194304L));
+        expect("full: speed", Objects.equals(progress.getSpeedBytes(), 524288.0));
+        expect("full: eta", Objects.equals(progress.getEtaSeconds(), 6L));
+        expect("full: percent " + progress.formatPercent(), "25.0".equals(progress.formatPercent()));
+        expect("full: speed text " + progress.formatSpeed(), "512.00KiB/s".equals(progress.formatSpeed()));
+        expect("full: not complete", !progress.isComplete());
+
+        ProgressLine fractional = ProgressLine.parse(ProgressLine.PREFIX + "1234.0|2468.9|NA|1.5|0");
+        expect("fractional: downloaded", fractional != null && fractional.getDownloadedBytes() == 1234);
+        expect("fractional: total", fractional != null && Objects.equals(fractional.getTotalBytes(), 2468L));
+    }
+
+    private void checkMissingFields() {
+        ProgressLine estimate = ProgressLine.parse(ProgressLine.PREFIX + "500|NA|1000.0|NA|NA");
+        expect("estimate: total from the estimate", estimate != null && Objects.equals(estimate.getTotalBytes(), 1000L));
+        expect("estimate: no speed", estimate != null && estimate.getSpeedBytes() == null
+                && "".equals(estimate.formatSpeed()));
+        expect("estimate: no eta", estimate != null && estimate.getEtaSeconds() == null);
+
+        ProgressLine unknown = ProgressLine.parse(ProgressLine.PREFIX + "500|None|None|None|None");
+        expect("unknown total: no total", unknown != null && unknown.getTotalBytes() == null);
+        expect("unknown total: no percent", unknown != null && unknown.getPercent() == null
+                && "0".equals(unknown.formatPercent()));
+
+        ProgressLine zero = ProgressLine.parse(ProgressLine.PREFIX + "0|0|NA|NA|NA");
+        expect("zero total: treated as unknown", zero != null && zero.getTotalBytes() == null);
+
+        ProgressLine truncated = ProgressLine.parse(ProgressLine.PREFIX + "100");
+        expect("truncated: downloaded only", truncated != null && truncated.getDownloadedBytes() == 100
+                && truncated.getTotalBytes() == null && truncated.getEtaSeconds() == null);
+
+        ProgressLine garbage = ProgressLine.parse(ProgressLine.PREFIX + "100|abc|NA|fast|NA");
+        expect("garbage: bad fields ignored", garbage != null && garbage.getTotalBytes() == null
+                && garbage.getSpeedBytes() == null);
+
+        expect("no downloaded bytes: not progress", ProgressLine.parse(ProgressLine.PREFIX + "NA|1000|NA|NA|NA") == null);
+        expect("empty: not progress", ProgressLine.parse(ProgressLine.PREFIX) == null);
+    }
+
+    private void checkCompletion() {
+        ProgressLine done = ProgressLine.parse(ProgressLine.PREFIX + "4096|4096|NA|NA|0");
+        expect("done: complete", done != null && done.isComplete());
+        expect("done: 100 percent", done != null && "100.0".equals(done.formatPercent()));
+
+        // ההערכה של yt-dlp יכולה להיות קטנה מהגודל בפועל
+        ProgressLine over = ProgressLine.parse(ProgressLine.PREFIX + "5000|NA|4096.0|NA|NA");
+        expect("over estimate: percent capped", over != null && over.getPercent() == 100.0);
+        expect("large: speed in MiB", "1.50MiB/s".equals(ProgressLine.of(0, null, 1572864.0, null).formatSpeed()));
+    }
+
+    private void checkNotProgress() {
+        expect("plain yt-dlp line", ProgressLine.parse("[download]  25.0% of 4.00MiB at 512.00KiB/s ETA 00:06") == null);
+        expect("other print", ProgressLine.parse("MPS_METADATA:title|thumb") == null);
+        expect("empty line", ProgressLine.parse("") == null);
+    }
+
+    private void expect(String name, boolean ok) {
+        System.out.println((ok ? "PASS " : "FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
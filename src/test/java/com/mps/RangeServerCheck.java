@@ -0,0 +1,248 @@
+package com.mps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// מריץ את SegmentedDownloader מול שרת HTTP מקומי שתומך ב-Range ובודק: הורדה בבקשות של עד http_chunk_size,
+// נפילה ל-yt-dlp כשהשרת לא תומך בטווחים או מחזיר Content-Range שגוי, חיבורים שנקטעים באמצע, והמשך אחרי ביטול.
+// עובד ללא רשת.
+//
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.mps.RangeServerCheck --size-mb=8 --chunk-kb=512
+public class RangeServerCheck {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final Map<String, String> options;
+    private final byte[] data;
+    private final long chunkSize;
+    private HttpServer server;
+    private Path workDir;
+    private int failures = 0;
+
+    // מצב השרת - כל בדיקה קובעת אותו מחדש
+    private volatile boolean ranges = true;
+    private volatile boolean badRange = false;
+    private volatile int dropPercent = 0;
+    private volatile long bytesPerSecond = 0;
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong largestRange = new AtomicLong();
+    private final AtomicInteger rangedRequests = new AtomicInteger();
+
+    private RangeServerCheck(Map<String, String> options) {
+        this.options = options;
+        int sizeMb = Integer.parseInt(options.getOrDefault("size-mb", "8"));
+        this.data = new byte[sizeMb * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        this.chunkSize = Long.parseLong(options.getOrDefault("chunk-kb", "512")) * 1024;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put(eq == -1 ? arg.substring(2) : arg.substring(2, eq), eq == -1 ? "true" : arg.substring(eq + 1));
+            }
+        }
+        System.exit(new RangeServerCheck(options).run());
+    }
+
+    private int run() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/media.bin", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        workDir = Files.createTempDirectory("nfmp3-range");
+        try {
+            checkChunked();
+            checkNoRanges();
+            checkBadContentRange();
+            checkDroppedConnections();
+            checkResume();
+        } finally {
+            server.stop(0);
+            if (!options.containsKey("keep")) {
+                deleteRecursively(workDir);
+            }
+        }
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        return failures == 0 ? 0 : 1;
+    }
+
+    private void checkChunked() throws Exception {
+        reset();
+        Path file = workDir.resolve("chunked.m4a");
+        SegmentedDownloader.Outcome outcome = fetch(file, chunkSize, () -> false);
+        expect("chunked: fetched", outcome == SegmentedDownloader.Outcome.FETCHED);
+        expect("chunked: content matches", matches(file));
+        expect("chunked: no request above " + chunkSize + " bytes (largest " + largestRange.get() + ")",
+                largestRange.get() <= chunkSize);
+        expect("chunked: at least " + data.length / chunkSize + " ranged requests (" + rangedRequests.get() + ")",
+                rangedRequests.get() >= data.length / chunkSize);
+    }
+
+    private void checkNoRanges() throws Exception {
+        reset();
+        ranges = false;
+        Path file = workDir.resolve("no-ranges.m4a");
+        expect("no ranges: falls back to yt-dlp",
+                fetch(file, chunkSize, () -> false) == SegmentedDownloader.Outcome.FALLBACK);
+        expect("no ranges: nothing written", !Files.exists(file));
+    }
+
+    private void checkBadContentRange() throws Exception {
+        reset();
+        badRange = true;
+        Path file = workDir.resolve("bad-range.m4a");
+        expect("bad Content-Range: falls back to yt-dlp",
+                fetch(file, chunkSize, () -> false) == SegmentedDownloader.Outcome.FALLBACK);
+        expect("bad Content-Range: no final file", !Files.exists(file));
+    }
+
+    private void checkDroppedConnections() throws Exception {
+        reset();
+        dropPercent = 30;
+        Path file = workDir.resolve("drops.m4a");
+        SegmentedDownloader.Outcome outcome = fetch(file, chunkSize, () -> false);
+        expect("dropped connections: fetched", outcome == SegmentedDownloader.Outcome.FETCHED);
+        expect("dropped connections: content matches", matches(file));
+    }
+
+    // ביטול אחרי כשליש מהקובץ, ואז הורדה נוספת שצריכה להמשיך מהמקום שבו נעצרה
+    private void checkResume() throws Exception {
+        reset();
+        // לכל חיבור; ארבעה חיבורים מורידים כרבע מהקובץ בשנייה
+        bytesPerSecond = Math.max(1, data.length / 16);
+        Path file = workDir.resolve("resume.m4a");
+        long stopAt = data.length / 3;
+        SegmentedDownloader.Outcome first = fetch(file, chunkSize, () -> served.get() >= stopAt);
+        expect("resume: cancel leaves the download to later", first == SegmentedDownloader.Outcome.FALLBACK);
+        expect("resume: no final file after cancel", !Files.exists(file));
+        long firstServed = served.get();
+        served.set(0);
+        bytesPerSecond = 0;
+        SegmentedDownloader.Outcome second = fetch(file, chunkSize, () -> false);
+        expect("resume: second run fetched", second == SegmentedDownloader.Outcome.FETCHED);
+        expect("resume: content matches", matches(file));
+        expect("resume: second run fetched only the rest (" + served.get() + " of " + data.length + " bytes after "
+                + firstServed + ")", served.get() < data.length - stopAt / 2);
+    }
+
+    private SegmentedDownloader.Outcome fetch(Path file, long chunk, BooleanSupplier cancelled) throws Exception {
+        ObjectNode resolved = objectMapper.createObjectNode();
+        resolved.put("filename", file.toString());
+        resolved.put("url", "http://127.0.0.1:" + server.getAddress().getPort() + "/media.bin");
+        resolved.put("protocol", "http");
+        resolved.putObject("http_headers").put("User-Agent", "RangeServerCheck");
+        resolved.putObject("downloader_options").put("http_chunk_size", chunk);
+        long start = System.nanoTime();
+        SegmentedDownloader.Outcome outcome = SegmentedDownloader.fetch(
+                SegmentedDownloader.RESOLVED_PREFIX + objectMapper.writeValueAsString(resolved), null, progress -> {
+                }, () -> {
+                }, cancelled);
+        System.out.printf(Locale.ROOT, "  %s -> %s in %.0f ms (%d ranged requests)%n", file.getFileName(), outcome,
+                Metrics.millisSince(start), rangedRequests.get());
+        return outcome;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            body.readAllBytes();
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range != null ? RANGE.matcher(range) : null;
+        if (!ranges || matcher == null || !matcher.matches()) {
+            exchange.sendResponseHeaders(200, data.length);
+            write(exchange, 0, data.length - 1, false);
+            return;
+        }
+        long from = Long.parseLong(matcher.group(1));
+        long to = matcher.group(2).isEmpty() ? data.length - 1 : Math.min(data.length - 1, Long.parseLong(matcher.group(2)));
+        // ה-probe מבקש בית אחד ולא נספר
+        if (to > from) {
+            rangedRequests.incrementAndGet();
+            largestRange.accumulateAndGet(to - from + 1, Math::max);
+        }
+        if (badRange && from > 0) {
+            to -= from;
+            from = 0;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+        boolean drop = to > from && ThreadLocalRandom.current().nextInt(100) < dropPercent;
+        // תשובה שנקטעת נשלחת ב-chunked, כך שהלקוח מקבל סוף זרם מוקדם ולא ממתין לבתים שלא יגיעו
+        exchange.sendResponseHeaders(206, drop ? 0 : to - from + 1);
+        write(exchange, from, to, drop);
+    }
+
+    // drop קוטע את החיבור באמצע התשובה, כמו חיבור שנפל
+    private void write(HttpExchange exchange, long from, long to, boolean drop) throws IOException {
+        long end = drop ? from + (to - from) / 2 : to;
+        int piece = 16 * 1024;
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (long position = from; position <= end; position += piece) {
+                int length = (int) Math.min(piece, end - position + 1);
+                out.write(data, (int) position, length);
+                served.addAndGet(length);
+                if (bytesPerSecond > 0) {
+                    Thread.sleep(Math.max(1, length * 1000L / bytesPerSecond));
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // הלקוח סגר את החיבור (ביטול) או שהחיבור נקטע בכוונה
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void reset() {
+        ranges = true;
+        badRange = false;
+        dropPercent = 0;
+        bytesPerSecond = 0;
+        served.set(0);
+        largestRange.set(0);
+        rangedRequests.set(0);
+    }
+
+    private boolean matches(Path file) throws IOException {
+        return Files.isRegularFile(file) && Arrays.equals(Files.readAllBytes(file), data);
+    }
+
+    private void expect(String name, boolean ok) {
+        System.out.println((ok ? "PASS " : "FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.mps;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+// בודק את RunWindow: פענוח הטקסט, isOpen בגבולות החלון ומעבר חצות, ו-untilOpen לפני החלון, בתוכו ואחריו.
+//
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.mps.RunWindowCheck
+public class RunWindowCheck {
+
+    private int failures = 0;
+
+    public static void main(String[] args) {
+        System.exit(new RunWindowCheck().run());
+    }
+
+    private int run() {
+        checkParse();
+        checkSameDay();
+        checkAcrossMidnight();
+        checkUntilOpen();
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        return failures == 0 ? 0 : 1;
+    }
+
+    private void checkParse() {
+        expect("parse: 22:00-06:00", "22:00-06:00".equals(String.valueOf(RunWindow.parse("22:00-06:00"))));
+        expect("parse: single-digit hours", "01:00-06:00".equals(String.valueOf(RunWindow.parse("1:00-6:00"))));
+        expect("parse: en dash and spaces", "22:30-05:15".equals(String.valueOf(RunWindow.parse(" 22:30 – 05:15 "))));
+        expect("parse: null", RunWindow.parse(null) == null);
+        expect("parse: empty", RunWindow.parse("  ") == null);
+        expect("parse: not a window", RunWindow.parse("tonight") == null);
+        expect("parse: invalid hour", RunWindow.parse("25:00-06:00") == null);
+        expect("parse: empty window", RunWindow.parse("06:00-06:00") == null);
+    }
+
+    private void checkSameDay() {
+        RunWindow window = RunWindow.parse("01:00-06:00");
+        expect("01:00-06:00 closed at 00:59", !window.isOpen(LocalTime.of(0, 59)));
+        expect("01:00-06:00 open at 01:00", window.isOpen(LocalTime.of(1, 0)));
+        expect("01:00-06:00 open at 05:59", window.isOpen(LocalTime.of(5, 59)));
+        expect("01:00-06:00 closed at 06:00", !window.isOpen(LocalTime.of(6, 0)));
+        expect("01:00-06:00 closed at 23:00", !window.isOpen(LocalTime.of(23, 0)));
+    }
+
+    private void checkAcrossMidnight() {
+        RunWindow window = RunWindow.parse("22:00-06:00");
+        expect("22:00-06:00 closed at 21:59", !window.isOpen(LocalTime.of(21, 59)));
+        expect("22:00-06:00 open at 22:00", window.isOpen(LocalTime.of(22, 0)));
+        expect("22:00-06:00 open at 23:59:59", window.isOpen(LocalTime.of(23, 59, 59)));
+        expect("22:00-06:00 open at midnight", window.isOpen(LocalTime.MIDNIGHT));
+        expect("22:00-06:00 open at 05:59", window.isOpen(LocalTime.of(5, 59)));
+        expect("22:00-06:00 closed at 06:00", !window.isOpen(LocalTime.of(6, 0)));
+        expect("22:00-06:00 closed at noon", !window.isOpen(LocalTime.NOON));
+    }
+
+    private void checkUntilOpen() {
+        RunWindow night = RunWindow.parse("22:00-06:00");
+        LocalDateTime day = LocalDateTime.of(2026, 3, 31, 0, 0);
+        expectDuration("22:00-06:00 from 21:00", night.untilOpen(day.withHour(21)), Duration.ofHours(1));
+        expectDuration("22:00-06:00 from 23:30", night.untilOpen(day.withHour(23).withMinute(30)), Duration.ZERO);
+        expectDuration("22:00-06:00 from 03:00", night.untilOpen(day.withHour(3)), Duration.ZERO);
+        expectDuration("22:00-06:00 from 06:00", night.untilOpen(day.withHour(6)), Duration.ofHours(16));
+
+        RunWindow early = RunWindow.parse("01:00-06:00");
+        // אחרי החלון - הפתיחה הבאה למחרת, גם מעבר לסוף החודש
+        expectDuration("01:00-06:00 from 23:30", early.untilOpen(day.withHour(23).withMinute(30)), Duration.ofMinutes(90));
+        expectDuration("01:00-06:00 from 07:00", early.untilOpen(day.withHour(7)), Duration.ofHours(18));
+        expectDuration("01:00-06:00 from 00:15", early.untilOpen(day.withMinute(15)), Duration.ofMinutes(45));
+    }
+
+    private void expectDuration(String name, Duration actual, Duration expected) {
+        expect(name + " -> " + actual, expected.equals(actual));
+    }
+
+    private void expect(String name, boolean ok) {
+        System.out.println((ok ? "PASS " : "FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
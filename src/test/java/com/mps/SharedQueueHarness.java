@@ -0,0 +1,327 @@
+package com.mps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// מריץ כמה מופעי daemon (תהליכים נפרדים) על אותה תיקיית תור משותפת (SharedQueue) מול yt-dlp ו-ffmpeg מדומים,
+// מגיש עבודות דרך מופע אחד ובודק שכולן מסתיימות פעם אחת. עבודה אחת מושהית דרך מופע שאינו מריץ אותה:
+// היא חייבת להישאר בתור בלי שאף מופע ייקח אותה, ולהסתיים רק אחרי המשך. עובד ללא רשת, על Linux.
+//
+//   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.mps.SharedQueueHarness --workers=3 --jobs=12
+//
+// --kill הורג באמצע מופע שמחזיק עבודה רצה, כדי לבדוק שמופע אחר לוקח אותה אחרי שהחכירה פגה.
+public class SharedQueueHarness {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Pattern CLAIMED = Pattern.compile("claimed job (\\S+)");
+    private static final int LEASE_SECONDS = 6;
+
+    private final Map<String, String> options;
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final List<Process> workers = new ArrayList<>();
+    private final List<Integer> ports = new ArrayList<>();
+    private Path workDir;
+    private Path sharedDir;
+    private int failures = 0;
+
+    private SharedQueueHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put(eq == -1 ? arg.substring(2) : arg.substring(2, eq), eq == -1 ? "true" : arg.substring(eq + 1));
+            }
+        }
+        System.exit(new SharedQueueHarness(options).run());
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    private int run() throws Exception {
+        int workerCount = intOption("workers", 3);
+        int jobCount = intOption("jobs", 12);
+        int basePort = intOption("base-port", 9700);
+        int timeoutSeconds = intOption("timeout-seconds", 180);
+        boolean kill = options.containsKey("kill");
+
+        workDir = Files.createTempDirectory("nfmp3-shared");
+        sharedDir = workDir.resolve("shared");
+        try {
+            Path binDir = workDir.resolve("bin");
+            installFakeBinary("yt-dlp.sh", binDir.resolve("yt-dlp.exe"));
+            installFakeBinary("ffmpeg.sh", binDir.resolve("ffmpeg.exe"));
+            for (int i = 0; i < workerCount; i++) {
+                ports.add(basePort + i);
+                workers.add(startWorker(i, binDir));
+            }
+            for (int i = 0; i < workerCount; i++) {
+                awaitWorker(i);
+            }
+            long start = System.nanoTime();
+            List<String> ids = enqueue(jobCount);
+            System.out.printf(Locale.ROOT, "%d workers, %d jobs enqueued through worker 0%n", workerCount, ids.size());
+
+            // העבודה האחרונה מושהית כשהיא כבר רצה, דרך מופע אחר מזה שמריץ אותה
+            String pausedId = ids.get(ids.size() - 1);
+            Integer owner = await(() -> ownerOf(pausedId) != null, 60) ? ownerOf(pausedId) : null;
+            int pauser = owner == null ? 0 : (owner + 1) % workerCount;
+            post(pauser, "/api/jobs/" + SharedQueue.JOB_PREFIX + pausedId + "/pause");
+            System.out.printf(Locale.ROOT, "paused %s (running on worker %s) through worker %d%n", pausedId, owner, pauser);
+
+            if (kill) {
+                String victimJob = null;
+                Integer victim = null;
+                for (String id : ids) {
+                    Integer holder = ownerOf(id);
+                    if (holder != null && !holder.equals(owner)) {
+                        victimJob = id;
+                        victim = holder;
+                        break;
+                    }
+                }
+                expect("found a worker to kill", victim != null);
+                if (victim != null) {
+                    workers.get(victim).destroyForcibly();
+                    System.out.printf(Locale.ROOT, "killed worker %d while it held %s%n", victim, victimJob);
+                }
+            }
+
+            boolean othersDone = await(() -> count("done") >= ids.size() - 1, timeoutSeconds);
+            expect("all other jobs finished", othersDone);
+            // כמה סבבי poll וחידוש חכירה - העבודה המושהית לא נלקחת ולא מסתיימת
+            Thread.sleep(TimeUnit.SECONDS.toMillis(LEASE_SECONDS));
+            expect("paused job stays in the queue", Files.exists(sharedDir.resolve("jobs").resolve(pausedId + ".json")));
+            expect("paused job holds no lease", ownerOf(pausedId) == null);
+            expect("paused job did not finish", !Files.exists(sharedDir.resolve("done").resolve(pausedId + ".json")));
+
+            int resumer = owner != null && workers.get(owner).isAlive() ? owner : pauser;
+            post(resumer, "/api/jobs/" + SharedQueue.JOB_PREFIX + pausedId + "/resume");
+            System.out.printf(Locale.ROOT, "resumed %s through worker %d%n", pausedId, resumer);
+            expect("resumed job finished",
+                    await(() -> Files.exists(sharedDir.resolve("done").resolve(pausedId + ".json")), timeoutSeconds));
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Map<String, Integer> claims = claims();
+            int repeated = 0;
+            for (Map.Entry<String, Integer> claim : claims.entrySet()) {
+                if (claim.getValue() > 1 && !claim.getKey().equals(pausedId)) {
+                    repeated++;
+                }
+            }
+            expect("done=" + count("done") + " of " + ids.size(), count("done") == ids.size());
+            expect("failed=" + count("failed"), count("failed") == 0);
+            expect("no leases left", count("leases") == 0);
+            if (!kill) {
+                expect("no job other than the paused one was claimed twice (" + repeated + ")", repeated == 0);
+            }
+            System.out.printf(Locale.ROOT, "wall time %.1f s, %d claims for %d jobs%n", seconds,
+                    claims.values().stream().mapToInt(Integer::intValue).sum(), ids.size());
+        } finally {
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+            for (Process worker : workers) {
+                if (!worker.waitFor(10, TimeUnit.SECONDS)) {
+                    worker.destroyForcibly();
+                }
+            }
+            if (!options.containsKey("keep")) {
+                deleteRecursively(workDir);
+            } else {
+                System.out.println("Work directory kept at " + workDir);
+            }
+        }
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        return failures == 0 ? 0 : 1;
+    }
+
+    private void installFakeBinary(String resource, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try (InputStream in = SharedQueueHarness.class.getResourceAsStream("/loadtest/" + resource)) {
+            if (in == null) {
+                throw new IOException("Missing harness resource /loadtest/" + resource);
+            }
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (!target.toFile().setExecutable(true)) {
+            throw new IOException("Could not mark " + target + " executable");
+        }
+    }
+
+    private Process startWorker(int index, Path binDir) throws IOException {
+        Path home = workDir.resolve("home-" + index);
+        Files.createDirectories(home.resolve("Downloads"));
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx256m");
+        command.add("-Dnfmp3.bin.dir=" + binDir);
+        command.add("-Duser.home=" + home);
+        command.add("-Dnfmp3.port=" + ports.get(index));
+        command.add("-Dnfmp3.shared.dir=" + sharedDir);
+        command.add("-Dnfmp3.shared.leaseSeconds=" + LEASE_SECONDS);
+        command.add("-Dnfmp3.shared.pollMillis=500");
+        command.add("-Dnfmp3.shared.slots=" + intOption("slots", 2));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("com.mps.App");
+        command.add("--daemon");
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        Map<String, String> env = builder.environment();
+        env.put("APPDATA", workDir.resolve("appdata-" + index).toString());
+        env.put("FAKE_YTDLP_SIZE_BYTES", String.valueOf((long) (Double.parseDouble(options.getOrDefault("size-mb", "1"))
+                * 1024 * 1024)));
+        env.put("FAKE_YTDLP_LINES_PER_SEC", options.getOrDefault("lines-per-sec", "20"));
+        env.put("FAKE_YTDLP_PROGRESS_LINES", options.getOrDefault("progress-lines", "60"));
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(workDir.resolve("worker-" + index + ".log").toFile());
+        return builder.start();
+    }
+
+    private void awaitWorker(int index) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            if (!workers.get(index).isAlive()) {
+                throw new IllegalStateException("Worker " + index + " exited early with code "
+                        + workers.get(index).exitValue() + " (is port " + ports.get(index) + " already in use?)");
+            }
+            try {
+                if (send(index, HttpRequest.newBuilder(uri(index, "/api/shared")).GET()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // עוד לא מאזין
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("Worker " + index + " did not start listening on port " + ports.get(index));
+    }
+
+    private List<String> enqueue(int jobCount) throws Exception {
+        ObjectNode body = objectMapper.createObjectNode();
+        for (int i = 0; i < jobCount; i++) {
+            body.withArray("urls").add(String.format(Locale.ROOT, "https://www.youtube.com/watch?v=S%010d", i));
+        }
+        body.put("formatId", "mp3_high");
+        body.put("destinationPath", workDir.resolve("out").toString());
+        HttpResponse<String> response = send(0, HttpRequest.newBuilder(uri(0, "/api/shared/jobs"))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString())));
+        JsonNode json = objectMapper.readTree(response.body());
+        List<String> ids = new ArrayList<>();
+        json.path("ids").forEach(id -> ids.add(id.asText()));
+        return ids;
+    }
+
+    private void post(int index, String path) throws Exception {
+        HttpResponse<String> response = send(index, HttpRequest.newBuilder(uri(index, path))
+                .POST(HttpRequest.BodyPublishers.noBody()));
+        if (response.statusCode() != 202) {
+            System.out.printf(Locale.ROOT, "POST %s on worker %d returned %d %s%n", path, index, response.statusCode(),
+                    response.body());
+        }
+    }
+
+    private HttpResponse<String> send(int index, HttpRequest.Builder request) throws IOException, InterruptedException {
+        return http.send(request.timeout(Duration.ofSeconds(10)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(int index, String path) {
+        return URI.create("http://127.0.0.1:" + ports.get(index) + path);
+    }
+
+    // מספר המופע שמחזיק את החכירה, לפי ה-pid שבסוף owner
+    private Integer ownerOf(String id) {
+        try {
+            JsonNode lease = objectMapper.readTree(sharedDir.resolve("leases").resolve(id + ".lease").toFile());
+            String owner = lease.path("owner").asText();
+            long pid = Long.parseLong(owner.substring(owner.lastIndexOf('-') + 1));
+            for (int i = 0; i < workers.size(); i++) {
+                if (workers.get(i).pid() == pid) {
+                    return i;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // אין חכירה (או שהיא נכתבת ברגע זה)
+        }
+        return null;
+    }
+
+    private long count(String sub) {
+        try (Stream<Path> files = Files.list(sharedDir.resolve(sub))) {
+            return files.filter(p -> !p.getFileName().toString().startsWith(".")).count();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private Map<String, Integer> claims() throws IOException {
+        Map<String, Integer> claims = new LinkedHashMap<>();
+        for (int i = 0; i < workers.size(); i++) {
+            for (String line : Files.readAllLines(workDir.resolve("worker-" + i + ".log"), StandardCharsets.UTF_8)) {
+                Matcher matcher = CLAIMED.matcher(line);
+                if (matcher.find()) {
+                    claims.merge(matcher.group(1), 1, Integer::sum);
+                }
+            }
+        }
+        return claims;
+    }
+
+    private static boolean await(BooleanSupplier condition, int timeoutSeconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(200);
+        }
+        return condition.getAsBoolean();
+    }
+
+    private void expect(String name, boolean ok) {
+        System.out.println((ok ? "PASS " : "FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+
+    private static void deleteRecursively(Path path) {
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Could not clean up " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.mps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+// משווה את זמן ההפעלה של yt-dlp בין הקובץ היחיד (onefile) להפצה הפרוסה (onedir) - מהפעלת התהליך ועד סיומו.
+//
+//   java -cp target/test-classes com.mps.SpawnBench --onefile=bin/yt-dlp.exe --onedir=bin/yt-dlp-2026.03.01/yt-dlp.exe --runs=20
+//
+// בלי --onefile/--onedir (Linux, ללא רשת) נבנים שני קבצים מדומים: הראשון מעתיק מטען בגודל --payload-mb
+// לתיקייה זמנית ומוחק אותו בכל הפעלה, כמו פריסת הפייתון של הקובץ היחיד; השני רץ ישירות.
+public class SpawnBench {
+
+    private final Map<String, String> options;
+
+    private SpawnBench(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put(eq == -1 ? arg.substring(2) : arg.substring(2, eq), eq == -1 ? "true" : arg.substring(eq + 1));
+            }
+        }
+        System.exit(new SpawnBench(options).run());
+    }
+
+    private int run() throws Exception {
+        int runs = Integer.parseInt(options.getOrDefault("runs", "20"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        List<String> extraArgs = Arrays.asList(options.getOrDefault("args", "--version").split(" "));
+
+        String onefile = options.get("onefile");
+        String onedir = options.get("onedir");
+        if (onefile == null || onedir == null) {
+            Path workDir = Files.createTempDirectory("nfmp3-spawn");
+            int payloadMb = Integer.parseInt(options.getOrDefault("payload-mb", "25"));
+            onefile = simulateOnefile(workDir, payloadMb).toString();
+            onedir = simulateOnedir(workDir).toString();
+            System.out.printf(Locale.ROOT, "simulated layouts in %s (payload %d MB)%n", workDir, payloadMb);
+        }
+
+        long[] single = measure(onefile, extraArgs, warmup, runs);
+        long[] unpacked = measure(onedir, extraArgs, warmup, runs);
+        System.out.printf(Locale.ROOT, "runs=%d args=%s%n", runs, String.join(" ", extraArgs));
+        report("onefile", single);
+        report("onedir", unpacked);
+        System.out.printf(Locale.ROOT, "mean saving per spawn: %.1f ms%n", (mean(single) - mean(unpacked)) / 1e6);
+        return 0;
+    }
+
+    private static long[] measure(String executable, List<String> extraArgs, int warmup, int runs) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(executable);
+        command.addAll(extraArgs);
+        long[] nanos = new long[runs];
+        for (int i = -warmup; i < runs; i++) {
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (InputStream out = process.getInputStream()) {
+                out.transferTo(OutputStream.nullOutputStream());
+            }
+            int exit = process.waitFor();
+            long elapsed = System.nanoTime() - start;
+            if (exit != 0) {
+                throw new IllegalStateException(executable + " exited with " + exit);
+            }
+            if (i >= 0) {
+                nanos[i] = elapsed;
+            }
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static void report(String name, long[] sorted) {
+        System.out.printf(Locale.ROOT, "%-8s mean=%.1f ms p50=%.1f ms p95=%.1f ms max=%.1f ms%n", name, mean(sorted) / 1e6,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.95) / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double mean(long[] values) {
+        double total = 0;
+        for (long v : values) {
+            total += v;
+        }
+        return total / values.length;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.max(1, Math.ceil(p * sorted.length));
+        return sorted[rank - 1];
+    }
+
+    private static Path simulateOnefile(Path workDir, int payloadMb) throws IOException {
+        Path payload = workDir.resolve("payload.bin");
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(1).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(payload)) {
+            for (int i = 0; i < payloadMb; i++) {
+                out.write(chunk);
+            }
+        }
+        return script(workDir.resolve("onefile.sh"), "tmp=$(mktemp -d)\n"
+                + "cat '" + payload + "' > \"$tmp/python.bin\"\n"
+                + "sync -f \"$tmp\" 2>/dev/null\n"
+                + "echo 2026.01.01\n"
+                + "rm -rf \"$tmp\"\n");
+    }
+
+    private static Path simulateOnedir(Path workDir) throws IOException {
+        Path dir = Files.createDirectories(workDir.resolve("yt-dlp-2026.01.01"));
+        return script(dir.resolve("yt-dlp.exe"), "echo 2026.01.01\n");
+    }
+
+    private static Path script(Path path, String body) throws IOException {
+        Files.writeString(path, "#!/bin/sh\n" + body);
+        path.toFile().setExecutable(true);
+        return path;
+    }
+}
@@ -0,0 +1,15 @@
+#!/usr/bin/env bash
+# ffmpeg מדומה עבור LoadHarness - מעתיק את הקלט לקובץ היעד (הארגומנט האחרון)
+input=""
+prev=""
+for arg in "$@"; do
+    [ "$prev" = "-i" ] && [ -z "$input" ] && input="$arg"
+    prev="$arg"
+done
+target="${!#}"
+if [ -n "$input" ] && [ -f "$input" ]; then
+    cp "$input" "$target"
+else
+    : > "$target"
+fi
+exit 0
@@ -0,0 +1,131 @@
+#!/usr/bin/env bash
+# yt-dlp מדומה עבור LoadHarness - ההתנהגות נקבעת ממשתני סביבה FAKE_YTDLP_*
+#   FAKE_YTDLP_LINES_PER_SEC  קצב שורות הפלט (ברירת מחדל 20)
+#   FAKE_YTDLP_PROGRESS_LINES מספר שורות ההתקדמות בכל הורדה (ברירת מחדל 50)
+#   FAKE_YTDLP_SIZE_BYTES     גודל הקובץ שנוצר (ברירת מחדל 5MB)
+#   FAKE_YTDLP_FAIL_PERCENT   אחוז ההורדות שנכשלות (ברירת מחדל 0)
+#   FAKE_YTDLP_FAILURE        error | netfree | format (ברירת מחדל error)
+#   FAKE_YTDLP_TRANSCRIPT     קובץ תמליל מוקלט: שורות "out ..." / "err ..." שמושמעות בקצב שנקבע
+#   FAKE_YTDLP_STAMP          1 = שדה המהירות בשורת ההתקדמות מכיל את זמן הפליטה (epoch ms) למדידת השהיה
+#   FAKE_YTDLP_MEDIA_URL      כתובת המדיה שמודפסת ב-MPS_RESOLVED (nfmp3.downloader=native); קובץ קיים לא מורד שוב
+
+for arg in "$@"; do
+    case "$arg" in
+        -U|--update|--version) echo "yt-dlp is up to date (fake)"; exit 0 ;;
+    esac
+done
+
+out="."
+url=""
+staged=0
+tags=0
+thumb=0
+writeinfo=0
+skip=0
+resolve=0
+loadinfo=""
+prev=""
+for arg in "$@"; do
+    [ "$prev" = "-P" ] && out="$arg"
+    [ "$prev" = "--load-info-json" ] && loadinfo="$arg"
+    case "$arg" in
+        *MPS_SOURCE*) staged=1 ;;
+        *MPS_TAGS*) tags=1 ;;
+        --write-thumbnail) thumb=1 ;;
+        --write-info-json) writeinfo=1 ;;
+        --skip-download) skip=1 ;;
+        *MPS_RESOLVED*) resolve=1 ;;
+    esac
+    prev="$arg"
+    url="$arg"
+done
+
+if [ -n "$loadinfo" ]; then
+    id=$(basename "$loadinfo" .info.json)
+else
+    id=$(printf '%s' "$url" | sed -n 's/.*v=\([A-Za-z0-9_-]\{11\}\).*/\1/p')
+fi
+id=${id:-fakevideo00}
+rate=${FAKE_YTDLP_LINES_PER_SEC:-20}
+steps=${FAKE_YTDLP_PROGRESS_LINES:-50}
+size=${FAKE_YTDLP_SIZE_BYTES:-5242880}
+delay=$(awk "BEGIN { printf \"%.4f\", 1 / $rate }")
+title="Fake video $id"
+
+speed() {
+    if [ "${FAKE_YTDLP_STAMP:-0}" = "1" ]; then date +%s%3N; else echo $((size / 2)); fi
+}
+
+fail() {
+    case "${FAKE_YTDLP_FAILURE:-error}" in
+        netfree) echo "ERROR: [youtube] $id: HTTP Error 418: Blocked by NetFree" >&2 ;;
+        format) echo "ERROR: [youtube] $id: Requested format is not available" >&2 ;;
+        *) echo "ERROR: [youtube] $id: Unable to download webpage (fake failure)" >&2 ;;
+    esac
+    exit 1
+}
+
+if [ -n "$FAKE_YTDLP_TRANSCRIPT" ]; then
+    while IFS= read -r line || [ -n "$line" ]; do
+        text=${line#* }
+        text=${text//\{id\}/$id}
+        text=${text//\{out\}/$out}
+        case "$line" in
+            err\ *) echo "$text" >&2 ;;
+            out\ *) echo "$text" ;;
+        esac
+        sleep "$delay"
+    done < "$FAKE_YTDLP_TRANSCRIPT"
+    if [ $((RANDOM % 100)) -lt "${FAKE_YTDLP_FAIL_PERCENT:-0}" ]; then
+        fail
+    fi
+else
+    if [ -z "$loadinfo" ]; then
+        echo "[youtube] Extracting URL: $url"
+        echo "[youtube] $id: Downloading webpage"
+    fi
+    if [ "$writeinfo" = "1" ]; then
+        mkdir -p "$out/.info"
+        echo "{\"id\":\"$id\",\"title\":\"Fake video $id\"}" > "$out/.info/$id.info.json"
+        echo "[info] Writing video metadata as JSON to: $out/.info/$id.info.json"
+    fi
+    echo "[info] $id: Downloading 1 format(s): 251"
+    echo "MPS_METADATA:$title|https://i.ytimg.com/vi/$id/hqdefault.jpg"
+    if [ "$staged" = "1" ]; then
+        dest="$out/source.webm"
+    else
+        dest="$out/$title.webm"
+    fi
+    if [ "$resolve" = "1" ] && [ -n "$FAKE_YTDLP_MEDIA_URL" ]; then
+        echo "MPS_RESOLVED:{\"filename\":\"$dest\",\"url\":\"$FAKE_YTDLP_MEDIA_URL?id=$id\",\"protocol\":\"${FAKE_YTDLP_MEDIA_URL%%:*}\",\"http_headers\":{\"User-Agent\":\"fake\"},\"requested_formats\":null}"
+    fi
+    [ "$skip" = "1" ] && exit 0
+    echo "MPS_SIZE:$id|$size"
+    if [ $((RANDOM % 100)) -lt "${FAKE_YTDLP_FAIL_PERCENT:-0}" ]; then
+        fail
+    fi
+    if [ -f "$dest" ]; then
+        echo "[download] $dest has already been downloaded"
+    else
+        echo "[download] Destination: $dest"
+        for i in $(seq 1 "$steps"); do
+            echo "MPS_PROGRESS:$((size * i / steps))|$size|NA|$(speed)|$(((steps - i) / rate))"
+            sleep "$delay"
+        done
+        head -c "$size" /dev/zero > "$dest"
+    fi
+fi
+
+mkdir -p "$out"
+if [ "$staged" = "1" ]; then
+    [ -f "$out/source.webm" ] || head -c "$size" /dev/zero > "$out/source.webm"
+    : > "$out/source.jpg"
+    echo "MPS_SOURCE:{\"filepath\":\"$out/source.webm\",\"title\":\"$title\",\"uploader\":\"LoadHarness\",\"upload_date\":\"20240101\",\"thumbnail\":null,\"format_id\":\"251\",\"ext\":\"webm\"}"
+else
+    # "ההמרה" שומרת את תוכן המקור כדי שאפשר יהיה לבדוק את מה שהורד
+    if [ -f "$out/$title.webm" ]; then mv "$out/$title.webm" "$out/$title.mp3"; else head -c "$size" /dev/zero > "$out/$title.mp3"; fi
+    [ "$thumb" = "1" ] && head -c 20000 /dev/urandom > "$out/$title.jpg"
+    echo "[ExtractAudio] Destination: $out/$title.mp3"
+    [ "$tags" = "1" ] && echo "MPS_TAGS:{\"filepath\":\"$out/$title.mp3\",\"title\":\"$title\",\"uploader\":\"LoadHarness\",\"upload_date\":\"20240101\",\"album\":null}"
+fi
+exit 0